@@ -0,0 +1,129 @@
+# Shared by the benchmark scripts in this directory, sourced, not run.
+#
+# Starts the packaged backend (./mvnw -q package -DskipTests) with the
+# properties a run compares, signs in a benchmark user and uploads fixture
+# files through the same API calls as the UI. MongoDB and the storage path
+# are the ones in application.properties, extra backend arguments go in
+# PICKBOX_ARGS (e.g. PICKBOX_ARGS="--spring.data.mongodb.uri=mongodb://...").
+
+set -euo pipefail
+
+PICKBOX_JAR=${PICKBOX_JAR:-target/pickbox-0.0.1-SNAPSHOT.jar}
+PICKBOX_PORT=${PICKBOX_PORT:-8080}
+PICKBOX_ARGS=${PICKBOX_ARGS:-}
+BENCH_EMAIL=${BENCH_EMAIL:-bench@pickbox.local}
+BENCH_PASSWORD=${BENCH_PASSWORD:-bench-password}
+RESULTS_DIR=${RESULTS_DIR:-${TMPDIR:-/tmp}/pickbox-bench/$(date +%Y%m%d-%H%M%S)}
+
+API="http://localhost:$PICKBOX_PORT/pickbox/api"
+BACKEND_PID=
+
+mkdir -p "$RESULTS_DIR"
+
+require() {
+    for tool in "$@"; do
+        command -v "$tool" >/dev/null || { echo "$tool is required on the PATH" >&2; exit 1; }
+    done
+    [ -f "$PICKBOX_JAR" ] || { echo "$PICKBOX_JAR not found, run ./mvnw -q package -DskipTests first" >&2; exit 1; }
+}
+
+# start_backend <name> [--property=value ...]
+# Chunks are recorded on write so fixture uploads need no separate report call.
+start_backend() {
+    local name=$1
+    shift
+    # shellcheck disable=SC2086
+    java ${JAVA_OPTS:-} -jar "$PICKBOX_JAR" --server.port="$PICKBOX_PORT" \
+        --upload.chunk.record-on-write=true "$@" $PICKBOX_ARGS >"$RESULTS_DIR/$name.log" 2>&1 &
+    BACKEND_PID=$!
+    trap stop_backend EXIT
+    for _ in $(seq 1 120); do
+        # Any HTTP answer means the server is up
+        if curl -s -o /dev/null "$API/auth/me"; then
+            return
+        fi
+        if ! kill -0 "$BACKEND_PID" 2>/dev/null; then
+            echo "Backend exited, see $RESULTS_DIR/$name.log" >&2
+            exit 1
+        fi
+        sleep 1
+    done
+    echo "Backend did not start within two minutes, see $RESULTS_DIR/$name.log" >&2
+    exit 1
+}
+
+stop_backend() {
+    if [ -n "$BACKEND_PID" ]; then
+        kill "$BACKEND_PID" 2>/dev/null || true
+        wait "$BACKEND_PID" 2>/dev/null || true
+        BACKEND_PID=
+    fi
+}
+
+# Signs in the benchmark user, registering it on the first run.
+sign_in() {
+    local credentials="{\"email\":\"$BENCH_EMAIL\",\"password\":\"$BENCH_PASSWORD\"}"
+    TOKEN=$(curl -sf -H 'Content-Type: application/json' -d "$credentials" "$API/auth/login" | jq -r .token) || TOKEN=
+    if [ -z "$TOKEN" ] || [ "$TOKEN" = null ]; then
+        TOKEN=$(curl -sf -H 'Content-Type: application/json' \
+            -d "{\"username\":\"bench\",\"email\":\"$BENCH_EMAIL\",\"password\":\"$BENCH_PASSWORD\"}" \
+            "$API/auth/register" | jq -r .token)
+    fi
+}
+
+# upload_fixture <size in bytes> <name>
+# Uploads that many random bytes and prints a signed /local-download URL of
+# the file, valid for an hour and across backend restarts.
+upload_fixture() {
+    local size=$1 name=$2
+    local file="$RESULTS_DIR/$name"
+    head -c "$size" /dev/urandom >"$file"
+    local init
+    init=$(curl -sf -H "Authorization: Bearer $TOKEN" -H 'Content-Type: application/json' \
+        -d "{\"name\":\"$name\",\"size\":$size,\"mimeType\":\"application/octet-stream\"}" "$API/upload/init")
+    local upload_id chunk_size total_chunks
+    upload_id=$(jq -r .uploadId <<<"$init")
+    chunk_size=$(jq -r .chunkSize <<<"$init")
+    total_chunks=$(jq -r .totalChunks <<<"$init")
+    for ((i = 0; i < total_chunks; i++)); do
+        tail -c +$((i * chunk_size + 1)) "$file" | head -c "$chunk_size" \
+            | curl -sf -o /dev/null -H "Authorization: Bearer $TOKEN" -H 'Content-Type: application/octet-stream' \
+                --data-binary @- "$API/upload/chunk/$upload_id/$i"
+    done
+    curl -sf -o /dev/null -H "Authorization: Bearer $TOKEN" "$API/upload/complete/$upload_id"
+    local status file_id
+    for _ in $(seq 1 600); do
+        status=$(curl -sf -H "Authorization: Bearer $TOKEN" "$API/upload/$upload_id/status")
+        if [ "$(jq -r .status <<<"$status")" = COMPLETED ]; then
+            file_id=$(jq -r .fileId <<<"$status")
+            curl -sf -H "Authorization: Bearer $TOKEN" "$API/download/$file_id" | jq -r .url
+            rm -f "$file"
+            return
+        fi
+        sleep 1
+    done
+    echo "Upload of $name did not complete" >&2
+    exit 1
+}
+
+# CPU seconds the backend has used so far, user and system.
+backend_cpu_seconds() {
+    awk -v hz="$(getconf CLK_TCK)" '{ printf "%.2f", ($14 + $15) / hz }' "/proc/$BACKEND_PID/stat"
+}
+
+# Young and full GC counts and total GC seconds of the backend so far.
+backend_gc() {
+    jstat -gcutil "$BACKEND_PID" | awk 'NR == 1 { for (i = 1; i <= NF; i++) column[$i] = i }
+        NR == 2 { print $column["YGC"], $column["FGC"], $column["GCT"] }'
+}
+
+# difference <a> <b> of decimal numbers.
+difference() {
+    awk -v a="$1" -v b="$2" 'BEGIN { printf "%.2f", a - b }'
+}
+
+# Requests/sec and MB/s of a hey report.
+hey_throughput() {
+    awk '/Total:/ { total = $2 } /Requests\/sec:/ { rps = $2 } /Total data:/ { bytes = $3 }
+        END { printf "%.1f %.1f", rps, (total > 0 ? bytes / total / 1e6 : 0) }' "$1"
+}
@@ -0,0 +1,64 @@
+#!/usr/bin/env bash
+#
+# Compares local downloads with and without Tomcat sendfile
+# (download.sendfile.enabled), for a large and a typical file.
+#
+# Needs java, curl, jq, hey and jstat, a running MongoDB and the packaged
+# backend. Run from the repository root:
+#
+#   ./mvnw -q package -DskipTests && bench/sendfile.sh
+#
+# Each mode gets one warm-up request per file, so both read from the page
+# cache, then DURATION of load at CONCURRENCY clients per file. The table at
+# the end lists requests/sec, MB/s, backend CPU seconds and GC activity during
+# the load; the hey reports, backend logs and JFR recordings stay in
+# RESULTS_DIR.
+
+source "$(dirname "$0")/common.sh"
+
+DURATION=${DURATION:-60s}
+CONCURRENCY=${CONCURRENCY:-64}
+LARGE_SIZE=${LARGE_SIZE:-1073741824}
+SMALL_SIZE=${SMALL_SIZE:-5242880}
+
+require java curl jq hey jstat jcmd
+
+# Plain files on local disk, the only ones sendfile serves
+BACKEND_PROPERTIES=(--storage.type=local --local.storage.compression.enabled=false --tiering.enabled=false)
+
+start_backend fixtures "${BACKEND_PROPERTIES[@]}"
+sign_in
+LARGE_URL=$(upload_fixture "$LARGE_SIZE" sendfile-large.bin)
+SMALL_URL=$(upload_fixture "$SMALL_SIZE" sendfile-small.bin)
+stop_backend
+
+SUMMARY="$RESULTS_DIR/summary.txt"
+printf '%-10s %-6s %10s %10s %8s %12s\n' sendfile file 'req/s' 'MB/s' 'cpu s' 'ygc fgc gc s' >"$SUMMARY"
+
+for enabled in true false; do
+    start_backend "sendfile-$enabled" "${BACKEND_PROPERTIES[@]}" --download.sendfile.enabled="$enabled"
+    for file in large small; do
+        url=$LARGE_URL
+        [ "$file" = small ] && url=$SMALL_URL
+        curl -sf -o /dev/null "$url"
+
+        report="$RESULTS_DIR/sendfile-$enabled-$file.txt"
+        cpu_before=$(backend_cpu_seconds)
+        read -r ygc_before fgc_before gct_before < <(backend_gc)
+        jcmd "$BACKEND_PID" JFR.start name=bench settings=profile \
+            filename="$RESULTS_DIR/sendfile-$enabled-$file.jfr" >/dev/null
+        hey -z "$DURATION" -c "$CONCURRENCY" "$url" >"$report"
+        jcmd "$BACKEND_PID" JFR.stop name=bench >/dev/null
+        cpu_after=$(backend_cpu_seconds)
+        read -r ygc_after fgc_after gct_after < <(backend_gc)
+
+        read -r rps mbps < <(hey_throughput "$report")
+        printf '%-10s %-6s %10s %10s %8.2f %4d %3d %5.2f\n' "$enabled" "$file" "$rps" "$mbps" \
+            "$(difference "$cpu_after" "$cpu_before")" "$((ygc_after - ygc_before))" "$((fgc_after - fgc_before))" \
+            "$(difference "$gct_after" "$gct_before")" >>"$SUMMARY"
+    done
+    stop_backend
+done
+
+cat "$SUMMARY"
+echo "Reports, logs and JFR recordings in $RESULTS_DIR"
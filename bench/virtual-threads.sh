@@ -0,0 +1,97 @@
+#!/usr/bin/env bash
+#
+# Compares request handling on platform threads and on virtual threads
+# (spring.threads.virtual.enabled) under many slow clients.
+#
+# Needs java, curl, jq, hey and xargs, a running MongoDB and the packaged
+# backend. Run from the repository root:
+#
+#   ./mvnw -q package -DskipTests && bench/virtual-threads.sh
+#
+# In each mode CLIENTS clients download a SLOW_SIZE file at RATE each, so
+# every request blocks on its socket for SLOW_SIZE / RATE seconds. Sendfile is
+# off, so the copy runs on the request thread as for compressed, dedup and
+# erasure coded files. While they run, hey sends PROBE_CONCURRENCY clients of
+# quick downloads of a small file for DURATION. The table at the end lists,
+# per mode, the slow downloads that completed and their p50/p99 time, the
+# quick downloads' requests/sec and p99 latency, the peak OS thread count of
+# the backend and the number of times a virtual thread was pinned to its
+# carrier. Reports and backend logs stay in RESULTS_DIR.
+
+source "$(dirname "$0")/common.sh"
+
+CLIENTS=${CLIENTS:-1000}
+RATE=${RATE:-100k}
+SLOW_SIZE=${SLOW_SIZE:-4194304}
+PROBE_CONCURRENCY=${PROBE_CONCURRENCY:-20}
+DURATION=${DURATION:-20s}
+# Pinned virtual threads are logged with their stack, counted below
+JAVA_OPTS=${JAVA_OPTS:--Djdk.tracePinnedThreads=short}
+
+require java curl jq hey xargs
+
+# Both modes get the same connection limit, only the threads differ
+BACKEND_PROPERTIES=(--storage.type=local --local.storage.compression.enabled=false --tiering.enabled=false
+    --download.sendfile.enabled=false --server.tomcat.max-connections=20000 --server.tomcat.accept-count=1000)
+
+start_backend fixtures "${BACKEND_PROPERTIES[@]}"
+sign_in
+SLOW_URL=$(upload_fixture "$SLOW_SIZE" virtual-threads-slow.bin)
+PROBE_URL=$(upload_fixture 16384 virtual-threads-probe.bin)
+stop_backend
+
+# Peak value of the backend's OS thread count until the file $1 exists.
+sample_threads() {
+    local peak=0 threads
+    while [ ! -e "$1" ]; do
+        threads=$(awk '/^Threads:/ { print $2 }' "/proc/$BACKEND_PID/status" 2>/dev/null || echo 0)
+        [ "$threads" -gt "$peak" ] && peak=$threads
+        sleep 1
+    done
+    echo "$peak"
+}
+
+# p50 and p99 of the second column of "<status> <seconds>" lines with status 200.
+percentiles() {
+    awk '$1 == 200 { print $2 }' "$1" | sort -n | awk '{ time[NR] = $1 }
+        function at(q,  i) { i = int(NR * q); if (i < NR * q) i++; return time[i < 1 ? 1 : i] }
+        END { if (NR == 0) print "- -"; else printf "%.1f %.1f", at(0.5), at(0.99) }'
+}
+
+SUMMARY="$RESULTS_DIR/summary.txt"
+printf '%-8s %12s %8s %8s %10s %9s %8s %7s\n' virtual 'slow ok' 'p50 s' 'p99 s' 'quick r/s' 'quick p99' threads pinned \
+    >"$SUMMARY"
+
+for virtual in false true; do
+    start_backend "virtual-$virtual" "${BACKEND_PROPERTIES[@]}" --spring.threads.virtual.enabled="$virtual"
+    curl -sf -o /dev/null "$SLOW_URL"
+    curl -sf -o /dev/null "$PROBE_URL"
+
+    slow="$RESULTS_DIR/virtual-$virtual-slow.txt"
+    probe="$RESULTS_DIR/virtual-$virtual-probe.txt"
+    done_marker="$RESULTS_DIR/virtual-$virtual.done"
+    : >"$slow"
+    sample_threads "$done_marker" >"$RESULTS_DIR/virtual-$virtual-threads.txt" &
+    sampler=$!
+    seq "$CLIENTS" | xargs -P "$CLIENTS" -I{} curl -s -o /dev/null --limit-rate "$RATE" --max-time 1800 \
+        -w '%{http_code} %{time_total}\n' "$SLOW_URL" >>"$slow" &
+    clients=$!
+
+    # Let the slow clients take their threads first
+    sleep 5
+    hey -z "$DURATION" -c "$PROBE_CONCURRENCY" "$PROBE_URL" >"$probe"
+    wait "$clients" || true
+    touch "$done_marker"
+    wait "$sampler"
+    stop_backend
+
+    read -r p50 p99 < <(percentiles "$slow")
+    read -r rps _ < <(hey_throughput "$probe")
+    printf '%-8s %12s %8s %8s %10s %9s %8s %7s\n' "$virtual" \
+        "$(awk '$1 == 200' "$slow" | wc -l)/$CLIENTS" "$p50" "$p99" "$rps" \
+        "$(awk '/ 99% in / { print $3 }' "$probe")" "$(cat "$RESULTS_DIR/virtual-$virtual-threads.txt")" \
+        "$(grep -c 'monitors:' "$RESULTS_DIR/virtual-$virtual.log" || true)" >>"$SUMMARY"
+done
+
+cat "$SUMMARY"
+echo "Reports and backend logs in $RESULTS_DIR"
@@ -0,0 +1,40 @@
+package com.example.pickbox.config;
+
+import java.util.concurrent.ThreadFactory;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Thread factories for the application's own worker pools. They follow the
+ * same switch as the web container ({@code spring.threads.virtual.enabled}),
+ * so one property moves every blocking path (request handling, merges,
+ * background jobs) between platform and virtual threads.
+ *
+ * Pool sizes stay bounded in virtual mode: the bound limits disk and Mongo
+ * concurrency, not threads. Code run on these threads must use
+ * java.util.concurrent locks rather than synchronized, which pins the carrier
+ * thread on Java 21.
+ */
+@Component
+@Slf4j
+public class WorkerThreads {
+    private final boolean virtual;
+
+    public WorkerThreads(@Value("${spring.threads.virtual.enabled:false}") boolean virtual) {
+        this.virtual = virtual;
+        log.info("Worker threads mode: {}", virtual ? "virtual" : "platform");
+    }
+
+    public ThreadFactory factory(String namePrefix) {
+        return virtual
+                ? Thread.ofVirtual().name(namePrefix, 0).factory()
+                : Thread.ofPlatform().name(namePrefix, 0).factory();
+    }
+
+    public boolean isVirtual() {
+        return virtual;
+    }
+}
@@ -0,0 +1,21 @@
+package com.example.pickbox.constants;
+
+import lombok.Getter;
+
+public enum CompressionCodec {
+    // DEFLATE in a gzip container, servable as Content-Encoding: gzip
+    GZIP("gzip", ".gz");
+
+    // HTTP content-coding token
+    @Getter
+    private final String encoding;
+
+    // Appended to the storage key of the stored blob
+    @Getter
+    private final String suffix;
+
+    CompressionCodec(String encoding, String suffix) {
+        this.encoding = encoding;
+        this.suffix = suffix;
+    }
+}
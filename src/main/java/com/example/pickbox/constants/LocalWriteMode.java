@@ -0,0 +1,8 @@
+package com.example.pickbox.constants;
+
+public enum LocalWriteMode {
+    // Every chunk is written to its own file and merged on completion
+    CHUNKED,
+    // Chunks are written at their offset in a sparse file sized at initiation
+    PREALLOCATED
+}
@@ -0,0 +1,8 @@
+package com.example.pickbox.constants;
+
+public enum StorageTier {
+    // Primary volumes, where uploads land
+    HOT,
+    // local.storage.cold-path, for files nobody has read in a while
+    COLD
+}
@@ -4,7 +4,9 @@ import lombok.Getter;
 
 public enum StorageType {
     LOCAL("local"),
-    S3("s3");
+    S3("s3"),
+    DEDUP("dedup"),
+    ERASURE("erasure");
 
     @Getter
     private final String value;
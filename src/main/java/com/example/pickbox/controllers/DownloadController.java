@@ -2,16 +2,26 @@ package com.example.pickbox.controllers;
 
 import org.springframework.web.bind.annotation.RestController;
 
-import com.example.pickbox.dtos.ItemDto;
+import com.example.pickbox.dtos.ChunkDownload;
+import com.example.pickbox.dtos.DownloadMetadataResponse;
 
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestAttribute;
+import org.springframework.core.io.InputStreamResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import jakarta.servlet.http.HttpServletResponse;
 
 import com.example.pickbox.services.DownloadService;
+import com.example.pickbox.utils.ChecksumUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
 import java.util.Collections;
 
@@ -34,16 +44,33 @@ public class DownloadController {
     }
 
     @GetMapping("/{id}/metadata")
-    public ResponseEntity<ItemDto> downloadFileMetadata(@PathVariable String id,
+    public ResponseEntity<DownloadMetadataResponse> downloadFileMetadata(@PathVariable String id,
             @RequestAttribute(required = false) String userId) {
-        return ResponseEntity.ok().build();
+        return ResponseEntity.ok(downloadService.getDownloadMetadata(userId, id));
+    }
+
+    // Written straight to the response while the folder tree is walked, nothing is staged on disk
+    @GetMapping("/{id}/zip")
+    public void downloadFolder(@PathVariable String id,
+            @RequestAttribute(required = false) String userId,
+            HttpServletResponse response) throws IOException {
+        String filename = downloadService.getFolderArchiveName(userId, id);
+        response.setContentType("application/zip");
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION,
+                ContentDisposition.attachment().filename(filename, StandardCharsets.UTF_8).build().toString());
+        downloadService.writeFolderArchive(userId, id, response.getOutputStream());
     }
 
+    // Chunks are independent, so clients fetch several in parallel and verify each against its CRC32C
     @GetMapping("/{id}/chunk/{chunkIndex}")
-    public ResponseEntity<ItemDto> downloadFileChunk(@PathVariable String id,
+    public ResponseEntity<Resource> downloadFileChunk(@PathVariable String id,
             @PathVariable int chunkIndex,
-            @RequestAttribute(required = false) String userId,
-            HttpServletResponse response) {
-        return ResponseEntity.ok().build();
+            @RequestAttribute(required = false) String userId) {
+        ChunkDownload chunk = downloadService.openChunk(userId, id, chunkIndex);
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .contentLength(chunk.getLength())
+                .header(ChecksumUtils.CRC32C_HEADER, chunk.getChecksum())
+                .body(new InputStreamResource(chunk.getContent()));
     }
 }
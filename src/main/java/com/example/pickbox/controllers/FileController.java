@@ -3,8 +3,11 @@ package com.example.pickbox.controllers;
 import org.springframework.web.bind.annotation.RestController;
 
 import com.example.pickbox.dtos.ItemDto;
+import com.example.pickbox.dtos.ThumbnailContent;
 import com.example.pickbox.dtos.UploadRequest;
+import com.example.pickbox.models.FolderVersion;
 import com.example.pickbox.services.FileService;
+import com.example.pickbox.utils.ConditionalRequests;
 
 import jakarta.servlet.ServletOutputStream;
 import jakarta.servlet.http.HttpServletResponse;
@@ -13,14 +16,26 @@ import lombok.RequiredArgsConstructor;
 import org.springframework.web.bind.annotation.RequestMapping;
 
 import java.io.IOException;
+import java.time.Instant;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
+import org.springframework.core.io.InputStreamResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestAttribute;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
 
 @RestController
 @RequestMapping("/files")
@@ -36,9 +51,12 @@ public class FileController {
     }
 
     @GetMapping("/")
-    public ResponseEntity<List<ItemDto>> getAllFilesAndFolders(@RequestAttribute(required = false) String userId) {
+    public ResponseEntity<List<ItemDto>> getAllFilesAndFolders(@RequestAttribute(required = false) String userId,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+            @RequestHeader(value = HttpHeaders.IF_MODIFIED_SINCE, required = false) String ifModifiedSince) {
         validateUser(userId);
-        return ResponseEntity.ok(fileService.listAllFiles(userId));
+        return listing(fileService.getAllFilesVersion(userId), ifNoneMatch, ifModifiedSince,
+                () -> fileService.listAllFiles(userId));
     }
 
     @PostMapping("/folder")
@@ -71,10 +89,72 @@ public class FileController {
         }
     }
 
+    // A file's content never changes, nor do its thumbnails once rendered, so they are cached for long
+    @GetMapping("/{id}/thumbnail")
+    public ResponseEntity<Resource> getThumbnail(@PathVariable String id,
+            @RequestParam(defaultValue = "256") int size,
+            @RequestAttribute(required = false) String userId,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        validateUser(userId);
+        ThumbnailContent thumbnail = fileService.getThumbnail(id, userId, size);
+        if (thumbnail == null) {
+            return ResponseEntity.notFound().build();
+        }
+        String etag = "\"" + id + "-" + thumbnail.getSize() + "\"";
+        CacheControl cacheControl = CacheControl.maxAge(365, TimeUnit.DAYS).cachePrivate().immutable();
+        if (ConditionalRequests.notModified(ifNoneMatch, null, null, etag)) {
+            try {
+                thumbnail.getContent().close();
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to close thumbnail", e);
+            }
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).cacheControl(cacheControl).build();
+        }
+        return ResponseEntity.ok()
+                .contentType(MediaType.IMAGE_JPEG)
+                .contentLength(thumbnail.getLength())
+                .eTag(etag)
+                .cacheControl(cacheControl)
+                .body(new InputStreamResource(thumbnail.getContent()));
+    }
+
+    @DeleteMapping("/{id}")
+    public ResponseEntity<Void> deleteFile(@PathVariable String id,
+            @RequestAttribute(required = false) String userId) {
+        validateUser(userId);
+        fileService.deleteFile(id, userId);
+        return ResponseEntity.noContent().build();
+    }
+
     @GetMapping({ "/list", "/{id}/list" })
     public ResponseEntity<List<ItemDto>> listFiles(@PathVariable(required = false) String id,
-            @RequestAttribute(required = false) String userId) {
+            @RequestAttribute(required = false) String userId,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+            @RequestHeader(value = HttpHeaders.IF_MODIFIED_SINCE, required = false) String ifModifiedSince) {
         validateUser(userId);
-        return ResponseEntity.ok(fileService.listFiles(id, userId));
+        return listing(fileService.getListingVersion(id, userId), ifNoneMatch, ifModifiedSince,
+                () -> fileService.listFiles(id, userId));
+    }
+
+    /**
+     * A listing revalidated against its folder version: 304 when the client
+     * has the current one, without building the listing. The version is read
+     * first, so a listing changed meanwhile carries the older tag and is
+     * fetched again next time.
+     */
+    private ResponseEntity<List<ItemDto>> listing(FolderVersion version, String ifNoneMatch,
+            String ifModifiedSince, Supplier<List<ItemDto>> items) {
+        // Weak: the same version always lists the same items, not necessarily the same bytes
+        String etag = "W/\"" + version.getVersion() + "\"";
+        Instant lastModified = version.getModifiedAt();
+        boolean notModified = ConditionalRequests.notModified(ifNoneMatch, ifModifiedSince, lastModified, etag);
+        ResponseEntity.BodyBuilder response = notModified ? ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                : ResponseEntity.ok();
+        // Without no-cache browsers would reuse a listing with Last-Modified for a while unasked
+        response.eTag(etag).cacheControl(CacheControl.noCache().cachePrivate());
+        if (lastModified != null) {
+            response.lastModified(ConditionalRequests.httpDate(lastModified));
+        }
+        return notModified ? response.build() : response.body(items.get());
     }
 }
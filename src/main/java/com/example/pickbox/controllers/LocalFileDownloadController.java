@@ -1,52 +1,218 @@
 package com.example.pickbox.controllers;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+import java.util.zip.GZIPInputStream;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.InputStreamResource;
 import org.springframework.core.io.Resource;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import com.example.pickbox.constants.CompressionCodec;
+import com.example.pickbox.constants.StorageType;
+import com.example.pickbox.dao.FileRepository;
+import com.example.pickbox.models.StorageItem;
+import com.example.pickbox.services.StorageService;
+import com.example.pickbox.services.StorageServiceFactory;
 import com.example.pickbox.services.impl.LocalStorageService;
+import com.example.pickbox.services.impl.StorageTiering;
+import com.example.pickbox.utils.ByteRanges;
+import com.example.pickbox.utils.ConditionalRequests;
 
-import lombok.RequiredArgsConstructor;
+import jakarta.servlet.http.HttpServletRequest;
 import lombok.extern.slf4j.Slf4j;
 
 @RestController
-@RequiredArgsConstructor
 @Slf4j
 public class LocalFileDownloadController {
+    // Tomcat's sendfile contract, see org.apache.coyote.Constants
+    private static final String SENDFILE_SUPPORTED = "org.apache.tomcat.sendfile.support";
+
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
 
     private final LocalStorageService localStorageService;
 
+    // Storage the content is read from, e.g. the dedup block store on top of local disk
+    private final StorageService storageService;
+
+    private final FileRepository fileRepository;
+
+    private final StorageTiering storageTiering;
+
+    private final boolean sendfileEnabled;
+
+    private final long sendfileMinSize;
+
+    public LocalFileDownloadController(LocalStorageService localStorageService,
+            StorageServiceFactory storageServiceFactory,
+            FileRepository fileRepository,
+            StorageTiering storageTiering,
+            @Value("${storage.type}") String storageType,
+            @Value("${download.sendfile.enabled:true}") boolean sendfileEnabled,
+            @Value("${download.sendfile.min-size:49152}") long sendfileMinSize) {
+        this.localStorageService = localStorageService;
+        this.fileRepository = fileRepository;
+        this.storageTiering = storageTiering;
+        this.sendfileEnabled = sendfileEnabled;
+        this.sendfileMinSize = sendfileMinSize;
+        this.storageService = storageServiceFactory.getStorageService(StorageType.valueOf(storageType.toUpperCase()));
+    }
+
     @GetMapping("/local-download/{uploadId}")
     public ResponseEntity<Resource> downloadFile(
             @PathVariable String uploadId,
             @RequestParam long expires,
             @RequestParam String signature,
-            @RequestParam(required = false) String filename) {
+            @RequestParam(required = false) String filename,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding,
+            @RequestHeader(value = HttpHeaders.RANGE, required = false) String range,
+            @RequestHeader(value = HttpHeaders.IF_RANGE, required = false) String ifRange,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+            @RequestHeader(value = HttpHeaders.IF_MODIFIED_SINCE, required = false) String ifModifiedSince,
+            HttpServletRequest request) {
         log.info("Download request for uploadId: {}", uploadId);
         if (!localStorageService.verifySignature(uploadId, expires, signature)) {
             log.warn("Invalid signature or expired link for uploadId: {}", uploadId);
             return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
         }
 
+        SeekableByteChannel channel = null;
         try {
-            Path filePath = localStorageService.getFilePath(uploadId);
-            if (!Files.exists(filePath)) {
-                return ResponseEntity.notFound().build();
+            StorageItem item = fileRepository.findFirstByStorageKey(uploadId).orElse(null);
+            CompressionCodec codec = item == null ? null : item.getCompression();
+            String version = item != null && item.getStorageVersion() != null ? item.getStorageVersion() : uploadId;
+            Instant lastModified = item == null ? null
+                    : item.getUpdatedAt() != null ? item.getUpdatedAt() : item.getCreatedAt();
+            // Decided on the record alone, the disk is only touched for a changed file
+            String[] etags = codec == null ? new String[] { entityTag(version, null) }
+                    : new String[] { entityTag(version, null), entityTag(version, codec) };
+            if (ConditionalRequests.notModified(ifNoneMatch, ifModifiedSince, lastModified, etags)) {
+                boolean encodedCopy = codec != null && range == null
+                        && acceptsEncoding(acceptEncoding, codec.getEncoding());
+                ResponseEntity.BodyBuilder notModified = ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                        .eTag(entityTag(version, encodedCopy ? codec : null));
+                if (lastModified != null) {
+                    notModified.lastModified(ConditionalRequests.httpDate(lastModified));
+                }
+                if (codec != null) {
+                    notModified.header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+                }
+                return notModified.build();
+            }
+            try {
+                channel = codec == null ? storageService.openForRead(uploadId)
+                        : localStorageService.openForRead(uploadId, codec);
+            } catch (NoSuchFileException e) {
+                if (item == null) {
+                    throw e;
+                }
+                // Compressed or moved to the cold tier between the lookup and the open
+                item = fileRepository.findFirstByStorageKey(uploadId).orElseThrow(() -> e);
+                if (item.getCompression() == codec) {
+                    throw e;
+                }
+                codec = item.getCompression();
+                channel = codec == null ? storageService.openForRead(uploadId)
+                        : localStorageService.openForRead(uploadId, codec);
+            }
+            storageTiering.recordAccess(uploadId);
+            // Ranges refer to the decoded content, the only representation served partially
+            long size = codec == null ? channel.size() : item.getSize();
+            String etag = entityTag(version, null);
+            List<ByteRanges.Range> ranges = ConditionalRequests.ifRangeMatches(ifRange, etag, lastModified)
+                    ? ByteRanges.parse(range, size)
+                    : null;
+            if (ranges != null && ranges.isEmpty()) {
+                closeQuietly(channel);
+                return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+                        .header(HttpHeaders.CONTENT_RANGE, "bytes */" + size)
+                        .build();
             }
-            log.info("File exists at path: {}", filePath);
 
-            Resource resource = new InputStreamResource(Files.newInputStream(filePath));
+            // The stored bytes go out as they are unless they have to be decoded
+            boolean encoded = ranges == null && codec != null
+                    && acceptsEncoding(acceptEncoding, codec.getEncoding());
+            boolean storedBytes = codec == null || encoded;
+            if (encoded) {
+                size = channel.size();
+                etag = entityTag(version, codec);
+            }
+
+            InputStream content = null;
+            ResponseEntity.BodyBuilder response;
+            ByteRanges.Range sent = ranges == null ? new ByteRanges.Range(0, size - 1)
+                    : ranges.size() == 1 ? ranges.get(0) : null;
+            if (ranges == null) {
+                response = ResponseEntity.ok()
+                        .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                        .contentLength(size);
+                if (encoded) {
+                    response.header(HttpHeaders.CONTENT_ENCODING, codec.getEncoding());
+                }
+            } else {
+                response = ResponseEntity.status(HttpStatus.PARTIAL_CONTENT);
+                if (sent != null) {
+                    response.header(HttpHeaders.CONTENT_RANGE, sent.contentRange(size))
+                            .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                            .contentLength(sent.length());
+                }
+            }
+
+            Path sendfile = storedBytes && sent != null
+                    ? sendfilePath(request, channel, uploadId, codec, sent)
+                    : null;
+            if (sendfile != null) {
+                // Tomcat writes the file straight from the page cache once the response is committed
+                closeQuietly(channel);
+                channel = null;
+                request.setAttribute(SENDFILE_FILENAME, sendfile.toString());
+                request.setAttribute(SENDFILE_START, sent.start());
+                request.setAttribute(SENDFILE_END, sent.end() + 1);
+                log.info("Sending {} of {} bytes for uploadId: {} with sendfile", sent.length(), size, uploadId);
+            } else if (ranges == null) {
+                content = Channels.newInputStream(channel);
+                if (codec != null && !encoded) {
+                    content = new GZIPInputStream(content, 64 * 1024);
+                }
+                log.info("Streaming {} bytes for uploadId: {}, encoded: {}", size, uploadId, encoded);
+            } else {
+                // Compressed content can only be skipped through, positioned reads need the raw file
+                ByteRanges.Reader reader = codec == null ? ByteRanges.reader(channel)
+                        : ByteRanges.reader(new GZIPInputStream(Channels.newInputStream(channel), 64 * 1024));
+                if (sent != null) {
+                    content = ByteRanges.single(reader, sent);
+                } else {
+                    String boundary = UUID.randomUUID().toString().replace("-", "");
+                    String partType = MediaType.APPLICATION_OCTET_STREAM_VALUE;
+                    content = ByteRanges.multipart(reader, ranges, size, boundary, partType);
+                    response.contentType(MediaType.parseMediaType("multipart/byteranges; boundary=" + boundary))
+                            .contentLength(ByteRanges.multipartLength(ranges, size, boundary, partType));
+                }
+                log.info("Streaming {} of {} for uploadId: {}", ranges, size, uploadId);
+            }
 
             String contentDisposition = "attachment";
             if (filename != null && !filename.isEmpty()) {
@@ -54,16 +220,92 @@ public class LocalFileDownloadController {
                 // automatically)
                 contentDisposition += "; filename=\"" + filename + "\"";
             }
+            response.header(HttpHeaders.CONTENT_DISPOSITION, contentDisposition)
+                    .header(HttpHeaders.ACCEPT_RANGES, "bytes")
+                    .eTag(etag);
+            if (lastModified != null) {
+                response.lastModified(ConditionalRequests.httpDate(lastModified));
+            }
+            if (codec != null) {
+                response.header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+            }
+            return content == null ? response.build() : response.body(new InputStreamResource(content));
 
-            return ResponseEntity.ok()
-                    .header(HttpHeaders.CONTENT_DISPOSITION, contentDisposition)
-                    .contentType(MediaType.APPLICATION_OCTET_STREAM)
-                    .contentLength(Files.size(filePath))
-                    .body(resource);
-
+        } catch (NoSuchFileException e) {
+            return ResponseEntity.notFound().build();
         } catch (IOException e) {
             log.error("Failed to read file for download: {}", uploadId, e);
+            closeQuietly(channel);
             return ResponseEntity.internalServerError().build();
         }
     }
+
+    /**
+     * The file to hand to the container's sendfile for a response of
+     * {@code range} of the stored blob, or null to copy it through the heap:
+     * when the container has no sendfile, the content is not a plain file
+     * (dedup blocks, erasure shards) or the range is too small to be worth it.
+     */
+    private Path sendfilePath(HttpServletRequest request, SeekableByteChannel channel, String storageKey,
+            CompressionCodec codec, ByteRanges.Range range) throws IOException {
+        if (!sendfileEnabled || range.length() < sendfileMinSize || !(channel instanceof FileChannel)
+                || !Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORTED))
+                || HttpMethod.HEAD.matches(request.getMethod())) {
+            return null;
+        }
+        Path blob = localStorageService.findBlob(storageKey, codec);
+        // Moved or replaced since it was opened, the open channel still reads the right bytes
+        if (blob == null || Files.size(blob) != channel.size()) {
+            return null;
+        }
+        return blob;
+    }
+
+    /**
+     * Strong entity tag of a stored file. Stored content never changes, so
+     * its storage version (the storage key for older files) identifies it;
+     * the encoded representation gets its own tag.
+     */
+    static String entityTag(String storageVersion, CompressionCodec codec) {
+        return "\"" + storageVersion + (codec == null ? "" : "-" + codec.getEncoding()) + "\"";
+    }
+
+    /**
+     * Whether an Accept-Encoding header allows {@code encoding}, i.e. lists it
+     * without q=0.
+     */
+    static boolean acceptsEncoding(String acceptEncoding, String encoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String part : acceptEncoding.split(",")) {
+            String[] params = part.trim().split(";");
+            if (!params[0].trim().equalsIgnoreCase(encoding)) {
+                continue;
+            }
+            for (int i = 1; i < params.length; i++) {
+                String param = params[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        return Double.parseDouble(param.substring(2)) > 0;
+                    } catch (NumberFormatException e) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private void closeQuietly(SeekableByteChannel channel) {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.warn("Failed to close download channel", e);
+        }
+    }
 }
@@ -1,16 +1,24 @@
 package com.example.pickbox.controllers;
 
 import java.io.IOException;
-import java.util.Map;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestAttribute;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RestController;
 
+import com.example.pickbox.constants.StorageType;
+import com.example.pickbox.dtos.ChunkUploadResponse;
+import com.example.pickbox.dtos.UploadStatusResponse;
+import com.example.pickbox.models.ChunkMetadata;
+import com.example.pickbox.models.UploadMetadata;
+import com.example.pickbox.services.UploadService;
 import com.example.pickbox.services.impl.LocalStorageService;
+import com.example.pickbox.utils.ChecksumUtils;
 
 import jakarta.servlet.http.HttpServletRequest;
 
@@ -18,22 +26,54 @@ import jakarta.servlet.http.HttpServletRequest;
 public class LocalFileUploadController {
     private final LocalStorageService localStorageService;
 
-    public LocalFileUploadController(LocalStorageService localStorageService) {
+    private final UploadService uploadService;
+
+    // Record chunk completion here once the chunk is fsynced instead of waiting for the client
+    private final boolean recordOnWrite;
+
+    // With object storage chunks go to presigned URLs and never through here
+    private final boolean acceptsChunks;
+
+    public LocalFileUploadController(LocalStorageService localStorageService, UploadService uploadService,
+            @Value("${upload.chunk.record-on-write:false}") boolean recordOnWrite,
+            @Value("${storage.type}") String storageType) {
         this.localStorageService = localStorageService;
+        this.uploadService = uploadService;
+        this.recordOnWrite = recordOnWrite;
+        this.acceptsChunks = StorageType.valueOf(storageType.toUpperCase()) != StorageType.S3;
     }
 
     @PostMapping("/upload/chunk/{uploadId}/{chunkIndex}")
-    public ResponseEntity<Map<String, String>> uploadChunk(
+    public ResponseEntity<ChunkUploadResponse> uploadChunk(
             @RequestAttribute(required = false) String userId,
             @PathVariable String uploadId,
             @PathVariable int chunkIndex,
+            @RequestHeader(value = ChecksumUtils.CRC32C_HEADER, required = false) String checksum,
             HttpServletRequest request) {
         if (userId == null || userId.isEmpty()) {
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
         }
+        if (!acceptsChunks) {
+            return ResponseEntity.status(HttpStatus.METHOD_NOT_ALLOWED).build();
+        }
+        UploadMetadata uploadMetadata = uploadService.getActiveUpload(uploadId, userId);
         try {
-            String storageId = localStorageService.uploadChunk(uploadId, chunkIndex, request.getInputStream());
-            return ResponseEntity.ok(java.util.Collections.singletonMap("storageId", storageId));
+            ChunkMetadata chunkMetadata = localStorageService.uploadChunk(uploadMetadata.getStorageId(), chunkIndex,
+                    uploadMetadata.getChunkSize(), checksum, recordOnWrite, request.getInputStream());
+            // The CRC32C computed here is the one kept, whatever the client reports later
+            uploadService.recordChunkData(uploadId, chunkMetadata);
+            ChunkUploadResponse response = ChunkUploadResponse.builder()
+                    .chunkIndex(chunkMetadata.getChunkIndex())
+                    .storageId(chunkMetadata.getStorageId())
+                    .checksum(chunkMetadata.getChecksum())
+                    .build();
+            if (recordOnWrite) {
+                UploadStatusResponse status = uploadService.completeChunk(uploadId, userId, chunkMetadata);
+                response.setRecorded(true);
+                response.setCompletedChunks(status.getCompletedChunks());
+                response.setTotalChunks(status.getTotalChunks());
+            }
+            return ResponseEntity.ok(response);
         } catch (IOException e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
         }
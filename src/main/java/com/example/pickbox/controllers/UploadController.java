@@ -1,5 +1,7 @@
 package com.example.pickbox.controllers;
 
+import java.util.List;
+
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -10,9 +12,14 @@ import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
+import com.example.pickbox.dtos.ChunkBatchResponse;
+import com.example.pickbox.dtos.ChunkUrlResponse;
+import com.example.pickbox.dtos.PossessionProof;
 import com.example.pickbox.dtos.UploadRequest;
 import com.example.pickbox.dtos.UploadResponse;
+import com.example.pickbox.dtos.UploadStatusResponse;
 import com.example.pickbox.models.ChunkMetadata;
+import com.example.pickbox.models.FileStatus;
 import com.example.pickbox.services.UploadService;
 
 @RestController
@@ -53,15 +60,62 @@ public class UploadController {
         return ResponseEntity.ok(true);
     }
 
+    @PostMapping("/{uploadId}/chunks/complete")
+    public ResponseEntity<ChunkBatchResponse> completeChunks(
+            @RequestAttribute(required = false) String userId,
+            @PathVariable String uploadId,
+            @RequestBody List<ChunkMetadata> chunks) {
+        if (!validateAuth(userId)) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        }
+        return ResponseEntity.ok(uploadService.completeChunks(uploadId, userId, chunks));
+    }
+
+    @PostMapping("/{uploadId}/proof")
+    public ResponseEntity<UploadResponse> proveContent(
+            @RequestAttribute(required = false) String userId,
+            @PathVariable String uploadId,
+            @RequestBody PossessionProof proof) {
+        if (!validateAuth(userId)) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        }
+        return ResponseEntity.ok(uploadService.proveContent(uploadId, userId, proof.getHashes()));
+    }
+
     @GetMapping("/complete/{uploadId}")
-    public ResponseEntity<Boolean> completeUpload(
+    public ResponseEntity<UploadStatusResponse> completeUpload(
             @RequestAttribute(required = false) String userId,
             @PathVariable String uploadId) {
         if (!validateAuth(userId)) {
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
         }
-        uploadService.completeUpload(uploadId, userId);
-        return ResponseEntity.ok(true);
+        // The merge runs in the background, poll /{uploadId}/status until COMPLETED
+        UploadStatusResponse status = uploadService.completeUpload(uploadId, userId);
+        if (status.getStatus() == FileStatus.COMPLETED) {
+            return ResponseEntity.ok(status);
+        }
+        return ResponseEntity.accepted().body(status);
+    }
+
+    @GetMapping("/{uploadId}/chunk/{chunkIndex}/url")
+    public ResponseEntity<ChunkUrlResponse> getChunkUploadUrl(
+            @RequestAttribute(required = false) String userId,
+            @PathVariable String uploadId,
+            @PathVariable int chunkIndex) {
+        if (!validateAuth(userId)) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        }
+        return ResponseEntity.ok(uploadService.getChunkUploadUrl(uploadId, userId, chunkIndex));
+    }
+
+    @GetMapping("/{uploadId}/status")
+    public ResponseEntity<UploadStatusResponse> getUploadStatus(
+            @RequestAttribute(required = false) String userId,
+            @PathVariable String uploadId) {
+        if (!validateAuth(userId)) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        }
+        return ResponseEntity.ok(uploadService.getUploadStatus(uploadId, userId));
     }
 
     @PostMapping("/abort/{uploadId}")
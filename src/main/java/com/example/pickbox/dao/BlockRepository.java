@@ -0,0 +1,11 @@
+package com.example.pickbox.dao;
+
+import java.util.List;
+
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+import com.example.pickbox.models.Block;
+
+public interface BlockRepository extends MongoRepository<Block, String> {
+    List<Block> findAllByRefCountLessThanEqual(long refCount);
+}
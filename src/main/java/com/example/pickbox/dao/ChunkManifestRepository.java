@@ -0,0 +1,8 @@
+package com.example.pickbox.dao;
+
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+import com.example.pickbox.models.ChunkManifest;
+
+public interface ChunkManifestRepository extends MongoRepository<ChunkManifest, String> {
+}
@@ -1,7 +1,9 @@
 package com.example.pickbox.dao;
 
 import java.util.List;
+import java.util.Optional;
 import org.springframework.data.mongodb.repository.MongoRepository;
+import com.example.pickbox.models.FileStatus;
 import com.example.pickbox.models.StorageItem;
 
 public interface FileRepository extends MongoRepository<StorageItem, String> {
@@ -13,4 +15,16 @@ public interface FileRepository extends MongoRepository<StorageItem, String> {
     List<StorageItem> findAllByOwnerUserId(String ownerUserId);
 
     public boolean existsByParentIdAndName(String parentId, String name);
+
+    boolean existsByParentId(String parentId);
+
+    boolean existsByStorageKey(String storageKey);
+
+    Optional<StorageItem> findFirstByStorageKey(String storageKey);
+
+    Optional<StorageItem> findFirstByOwnerUserIdAndContentHashAndSizeAndStatus(String ownerUserId, String contentHash,
+            long size, FileStatus status);
+
+    Optional<StorageItem> findFirstByContentHashAndSizeAndStatusAndCompressionIsNull(String contentHash, long size,
+            FileStatus status);
 }
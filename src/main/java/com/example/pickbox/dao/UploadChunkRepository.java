@@ -0,0 +1,13 @@
+package com.example.pickbox.dao;
+
+import java.util.List;
+
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+import com.example.pickbox.models.UploadChunk;
+
+public interface UploadChunkRepository extends MongoRepository<UploadChunk, String> {
+    List<UploadChunk> findAllByUploadIdOrderByChunkIndex(String uploadId);
+
+    void deleteAllByUploadId(String uploadId);
+}
@@ -1,9 +1,20 @@
 package com.example.pickbox.dao;
 
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+
 import org.springframework.data.mongodb.repository.MongoRepository;
 
+import com.example.pickbox.models.FileStatus;
 import com.example.pickbox.models.UploadMetadata;
 
 public interface UploadMetadataRepository extends MongoRepository<UploadMetadata, String> {
-    
+    List<UploadMetadata> findAllByStatus(FileStatus status);
+
+    List<UploadMetadata> findAllByStatusIn(Collection<FileStatus> statuses);
+
+    List<UploadMetadata> findAllByStatusAndUpdatedAtBefore(FileStatus status, Instant updatedAt);
+
+    List<UploadMetadata> findAllByStatusInAndUpdatedAtBefore(Collection<FileStatus> statuses, Instant updatedAt);
 }
@@ -0,0 +1,22 @@
+package com.example.pickbox.dtos;
+
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ChunkBatchResponse {
+    private String uploadId;
+    // Chunk indexes recorded by this request
+    private List<Integer> recorded;
+    // Chunk indexes that were already recorded before this request
+    private List<Integer> alreadyRecorded;
+    private long completedChunks;
+    private long totalChunks;
+}
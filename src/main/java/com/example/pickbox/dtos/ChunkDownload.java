@@ -0,0 +1,19 @@
+package com.example.pickbox.dtos;
+
+import java.io.InputStream;
+
+import lombok.Builder;
+import lombok.Data;
+
+/**
+ * One chunk of a file being streamed, the caller closes the content.
+ */
+@Data
+@Builder
+public class ChunkDownload {
+    private int chunkIndex;
+    private long offset;
+    private long length;
+    private String checksum;
+    private InputStream content;
+}
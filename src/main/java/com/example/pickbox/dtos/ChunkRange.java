@@ -0,0 +1,14 @@
+package com.example.pickbox.dtos;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// Inclusive range of chunk indexes
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ChunkRange {
+    private long first;
+    private long last;
+}
@@ -0,0 +1,21 @@
+package com.example.pickbox.dtos;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ChunkUploadResponse {
+    private int chunkIndex;
+    private String storageId;
+    private String checksum;
+    // True when the server already recorded the chunk, no completeChunk call is needed
+    private boolean recorded;
+    // Upload progress, only set when recorded
+    private long completedChunks;
+    private long totalChunks;
+}
@@ -0,0 +1,17 @@
+package com.example.pickbox.dtos;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// Where a chunk is sent: the app for local storage, a presigned URL for object storage
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ChunkUrlResponse {
+    private int chunkIndex;
+    private String url;
+    private String method;
+}
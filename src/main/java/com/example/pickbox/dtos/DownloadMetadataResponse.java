@@ -0,0 +1,27 @@
+package com.example.pickbox.dtos;
+
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class DownloadMetadataResponse {
+    private String id;
+    private String name;
+    private String mimeType;
+    private long size;
+    // False while the file can only be downloaded whole, the chunk fields are then unset
+    private boolean chunked;
+    private long chunkSize;
+    private int totalChunks;
+    // Base64 CRC32C per chunk, the same encoding as the X-Checksum-CRC32C header
+    private List<String> checksums;
+    // Composite CRC32C of the chunk checksums, when known
+    private String contentDigest;
+}
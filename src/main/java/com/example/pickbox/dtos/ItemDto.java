@@ -1,6 +1,7 @@
 package com.example.pickbox.dtos;
 
 import java.time.Instant;
+import java.util.List;
 
 import lombok.AllArgsConstructor;
 import lombok.Builder;
@@ -20,4 +21,6 @@ public class ItemDto {
     private String mimeType;
     private Instant createdAt;
     private Instant updatedAt;
+    // Sizes GET /files/{id}/thumbnail can serve, empty when there is no preview
+    private List<Integer> thumbnailSizes;
 }
@@ -0,0 +1,11 @@
+package com.example.pickbox.dtos;
+
+import java.util.List;
+
+import lombok.Data;
+
+// Hex SHA-256 of each byte range of the upload's challenge, in the order given
+@Data
+public class PossessionProof {
+    private List<String> hashes;
+}
@@ -0,0 +1,15 @@
+package com.example.pickbox.dtos;
+
+import java.io.InputStream;
+
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+public class ThumbnailContent {
+    // Longest side in pixels of the thumbnail served
+    private int size;
+    private long length;
+    private InputStream content;
+}
@@ -9,4 +9,6 @@ public class UploadRequest {
     private String userId;
     private String parentId;
     private String mimeType;
+    // Optional hex SHA-256 of the whole file, lets the server skip the upload if it has the content
+    private String contentHash;
 }
@@ -1,5 +1,8 @@
 package com.example.pickbox.dtos;
 
+import java.util.List;
+
+import com.example.pickbox.models.StorageItem;
 import com.example.pickbox.models.UploadMetadata;
 
 import lombok.Data;
@@ -14,6 +17,15 @@ public class UploadResponse {
     private String fileName;
     private String error;
     private boolean success;
+    // True when the content was already stored and no chunks need to be sent
+    private boolean completed;
+    // PUT when each chunk goes to a presigned URL from /{uploadId}/chunk/{index}/url,
+    // POST when chunks are posted to /upload/chunk/{uploadId}/{index} directly
+    private String chunkUploadMethod;
+    // Set when the server may already store the content: POST the SHA-256 of proofLength bytes at
+    // each offset to /upload/{uploadId}/proof to skip the chunks, or upload as usual
+    private List<Long> proofOffsets;
+    private int proofLength;
 
     public UploadResponse(UploadMetadata uploadMetadata) {
         uploadId = uploadMetadata.getUploadId();
@@ -24,6 +36,14 @@ public class UploadResponse {
         success = true;
     }
 
+    public UploadResponse(StorageItem storageItem) {
+        fileId = storageItem.getId();
+        totalSize = storageItem.getSize();
+        fileName = storageItem.getName();
+        completed = true;
+        success = true;
+    }
+
     public UploadResponse(String error) {
         this.error = error;
         success = false;
@@ -0,0 +1,30 @@
+package com.example.pickbox.dtos;
+
+import java.util.List;
+
+import com.example.pickbox.models.FileStatus;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class UploadStatusResponse {
+    private String uploadId;
+    private FileStatus status;
+    private long totalChunks;
+    private long completedChunks;
+    // Set once the upload is COMPLETED
+    private String fileId;
+    // Reason of the last failed completion attempt, if any
+    private String error;
+    // Resume information, only filled in by the status endpoint while UPLOADING
+    private long chunkSize;
+    private List<ChunkRange> missingRanges;
+    private long uploadedBytes;
+    private long missingBytes;
+}
@@ -0,0 +1,28 @@
+package com.example.pickbox.exceptions;
+
+import org.springframework.http.HttpStatus;
+
+/**
+ * An upload turned away at initiation, either because the user is over a
+ * limit (429) or the node has no room for it (503). Clients should retry
+ * after {@code retryAfterSeconds}.
+ */
+public class UploadRejectedException extends RuntimeException {
+    private final HttpStatus status;
+
+    private final long retryAfterSeconds;
+
+    public UploadRejectedException(HttpStatus status, String message, long retryAfterSeconds) {
+        super(message);
+        this.status = status;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public HttpStatus getStatus() {
+        return status;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
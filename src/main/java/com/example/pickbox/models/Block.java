@@ -0,0 +1,27 @@
+package com.example.pickbox.models;
+
+import java.time.Instant;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
+
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+@Document(collection = "blocks")
+public class Block {
+    // Hex SHA-256 of the block content
+    @Id
+    @Field("_id")
+    private String hash;
+
+    private long size;
+
+    // Number of manifest entries pointing at this block
+    private long refCount;
+
+    private Instant createdAt;
+}
@@ -0,0 +1,34 @@
+package com.example.pickbox.models;
+
+import java.time.Instant;
+import java.util.List;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
+
+import lombok.Builder;
+import lombok.Data;
+
+/**
+ * Chunk layout and per-chunk CRC32C of stored content, for chunked
+ * downloads. Keyed by storage key, so items sharing content share it, and
+ * kept out of {@link StorageItem} so file listings do not load the checksums.
+ */
+@Data
+@Builder
+@Document(collection = "chunk_manifests")
+public class ChunkManifest {
+    @Id
+    @Field("_id")
+    private String storageKey;
+
+    private long size;
+
+    private long chunkSize;
+
+    // Base64 CRC32C of each chunk of the logical content, see ChecksumUtils
+    private List<String> checksums;
+
+    private Instant createdAt;
+}
@@ -6,4 +6,6 @@ import lombok.Data;
 public class ChunkMetadata {
     private int chunkIndex;
     private String storageId;
+    // Base64 CRC32C of the chunk bytes
+    private String checksum;
 }
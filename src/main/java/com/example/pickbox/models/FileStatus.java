@@ -3,5 +3,7 @@ package com.example.pickbox.models;
 public enum FileStatus {
     ACTIVE,
     DELETED,
-    UPLOADING
+    UPLOADING,
+    COMPLETING,
+    COMPLETED
 }
\ No newline at end of file
@@ -0,0 +1,31 @@
+package com.example.pickbox.models;
+
+import java.time.Instant;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Change counter of a folder listing, bumped whenever an item is added to or
+ * removed from the folder. Listings are revalidated against it instead of
+ * being rebuilt.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Document(collection = "folder_versions")
+public class FolderVersion {
+    // <ownerUserId>:<folderId>, see FolderVersions for the root and all-files keys
+    @Id
+    private String id;
+
+    private long version;
+
+    private Instant modifiedAt;
+}
@@ -1,10 +1,14 @@
 package com.example.pickbox.models;
 
 import java.time.Instant;
+import java.util.Map;
 
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 
+import com.example.pickbox.constants.CompressionCodec;
+import com.example.pickbox.constants.StorageTier;
 import com.mongodb.lang.NonNull;
 import com.mongodb.lang.Nullable;
 
@@ -30,6 +34,7 @@ public class StorageItem {
     @Nullable
     private String mimeType;
 
+    @Indexed
     private String storageKey;
 
     @Nullable
@@ -41,6 +46,43 @@ public class StorageItem {
     @Nullable
     private String parentId;
 
+    // Composite CRC32C of the chunk checksums, see ChecksumUtils
+    @Nullable
+    private String contentDigest;
+
+    // Server verified hex SHA-256 of the content, used to skip re-uploads of known content
+    @Nullable
+    @Indexed(sparse = true)
+    private String contentHash;
+
+    // Codec the content is stored with, null when stored as is
+    @Nullable
+    private CompressionCodec compression;
+
+    // Bytes on disk when compressed, size stays the logical size
+    @Nullable
+    private Long storedSize;
+
+    // Tier the blob lives in, null for the hot tier
+    @Nullable
+    private StorageTier tier;
+
+    // Downloads counted by StorageTiering, flushed in batches
+    @Nullable
+    private Long accessCount;
+
+    @Nullable
+    @Indexed(sparse = true)
+    private Instant lastAccessedAt;
+
+    // Thumbnail size (longest side in pixels) to the derived file holding it, see ThumbnailGenerator
+    @Nullable
+    private Map<String, String> thumbnailKeys;
+
+    // CRC-32 of the content as stored ZIP entries need it, computed in the background after upload
+    @Nullable
+    private Long crc32;
+
     // 'F' for file and 'D' for directory
     private char type;
 
@@ -0,0 +1,36 @@
+package com.example.pickbox.models;
+
+import java.time.Instant;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import lombok.Builder;
+import lombok.Data;
+
+/**
+ * Per-chunk details of an upload. Kept out of {@link UploadMetadata} so that
+ * recording a chunk never rewrites a document that grows with the chunk count.
+ */
+@Data
+@Builder
+@Document(collection = "upload_chunks")
+public class UploadChunk {
+    // <uploadId>_<chunkIndex>, makes recording a chunk idempotent
+    @Id
+    private String id;
+
+    @Indexed
+    private String uploadId;
+
+    private int chunkIndex;
+    private String storageId;
+    private String checksum;
+
+    private Instant createdAt;
+
+    public static String idFor(String uploadId, int chunkIndex) {
+        return uploadId + "_" + chunkIndex;
+    }
+}
@@ -3,6 +3,7 @@ package com.example.pickbox.models;
 import java.util.List;
 import java.time.Instant;
 
+import org.springframework.data.mongodb.core.index.CompoundIndex;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import lombok.Builder;
@@ -14,6 +15,8 @@ import org.springframework.data.mongodb.core.mapping.Field;
 @Data
 @Builder
 @Document(collection = "uploads")
+// Reconciler scans, see UploadReconciler
+@CompoundIndex(name = "status_updatedAt", def = "{'status': 1, 'updatedAt': 1}")
 public class UploadMetadata {
     @Id
     @Field("_id")
@@ -23,15 +26,29 @@ public class UploadMetadata {
     private String parentId;
     private long fileSize;
 
+    // Bit i of word i / 64 is set once chunk i is stored. Words are int64 so that
+    // $bit can set them atomically, see UploadServiceImpl.completeChunk
+    private List<Long> completedBitmap;
+    private long completedCount;
+    // Written before the bitmap existed, converted by LegacyUploadMigrator
     private List<ChunkMetadata> completedChunks;
     private long totalChunks;
     private long chunkSize;
 
     private String mimeType;
+    // Client declared SHA-256, verified on completion before it is indexed
+    private String contentHash;
+    // Proof of possession asked for by initiation: the client may send the SHA-256 of proofLength
+    // bytes at each offset instead of the chunks. proofSourceId is the file it would link to, null
+    // when nothing matched; the challenge is issued either way so it reveals nothing
+    private String proofSourceId;
+    private List<Long> proofOffsets;
+    private int proofLength;
     private String storageId;
     private String userId;
 
     private FileStatus status;
+    private String lastError;
 
     private Instant createdAt;
     private Instant updatedAt;
@@ -0,0 +1,6 @@
+package com.example.pickbox.services;
+
+public interface ChunkSizePolicy {
+    // Chunk size used for an upload of fileSize bytes, chosen once at initiation
+    long chunkSizeFor(long fileSize);
+}
@@ -1,5 +1,22 @@
 package com.example.pickbox.services;
 
+import java.io.IOException;
+import java.io.OutputStream;
+
+import com.example.pickbox.dtos.ChunkDownload;
+import com.example.pickbox.dtos.DownloadMetadataResponse;
+
 public interface DownloadService {
     String generateDownloadUrl(String userId, String fileId);
+
+    // Chunk layout and checksums for downloading a file in parallel chunks
+    DownloadMetadataResponse getDownloadMetadata(String userId, String fileId);
+
+    ChunkDownload openChunk(String userId, String fileId, int chunkIndex);
+
+    // File name of the ZIP archive of a folder, checks the folder can be downloaded
+    String getFolderArchiveName(String userId, String folderId);
+
+    // Streams a folder and everything below it as a ZIP archive
+    void writeFolderArchive(String userId, String folderId, OutputStream out) throws IOException;
 }
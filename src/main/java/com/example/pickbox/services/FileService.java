@@ -4,15 +4,27 @@ import java.io.OutputStream;
 import java.util.List;
 
 import com.example.pickbox.dtos.ItemDto;
+import com.example.pickbox.dtos.ThumbnailContent;
+import com.example.pickbox.models.FolderVersion;
 
 public interface FileService {
     ItemDto createFolder(String name, String parentId, String userId);
 
     List<ItemDto> listFiles(String parentId, String userId);
 
+    // Change version of a listing, read before the listing itself to revalidate it cheaply
+    FolderVersion getListingVersion(String parentId, String userId);
+
+    FolderVersion getAllFilesVersion(String userId);
+
     ItemDto getFile(String id, String userId);
 
     List<ItemDto> listAllFiles(String userId);
 
+    // Closest thumbnail to size, null when the file has none
+    ThumbnailContent getThumbnail(String id, String userId, int size);
+
     void getFileContent(String id, String userId, OutputStream os);
+
+    void deleteFile(String id, String userId);
 }
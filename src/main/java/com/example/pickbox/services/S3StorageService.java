@@ -1,5 +0,0 @@
-package com.example.pickbox.services;
-
-public class S3StorageService {
-
-}
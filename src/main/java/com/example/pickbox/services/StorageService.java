@@ -1,13 +1,40 @@
 package com.example.pickbox.services;
 
+import java.io.IOException;
+import java.nio.channels.SeekableByteChannel;
+import java.util.BitSet;
+
 public interface StorageService {
-    String initiateUpload(String userId, String uploadId);
+    String initiateUpload(String userId, String uploadId, long fileSize, long chunkSize);
 
     String generateSignedUrl(String uploadId, int chunkIndex);
 
-    void completeUpload(String uploadId);
+    // HTTP method the client sends a chunk to the signed URL with
+    default String chunkUploadMethod() {
+        return "POST";
+    }
+
+    // Chunk layout limits of the backend, applied on top of the chunk size policy
+    default long minChunkSize() {
+        return 1;
+    }
+
+    default int maxChunks() {
+        return Integer.MAX_VALUE;
+    }
+
+    // fileSize and chunkSize are the layout the upload was initiated with
+    void completeUpload(String uploadId, long fileSize, long chunkSize);
 
     void abortUpload(String uploadId);
 
+    // Chunks of an in-progress upload whose data is present in storage
+    BitSet storedChunks(String uploadId, int totalChunks);
+
     String generateDownloadUrl(String uploadId, String originalFileName);
+
+    // Logical content of a completed upload, however the backend lays it out
+    SeekableByteChannel openForRead(String storageKey) throws IOException;
+
+    void deleteFile(String storageKey);
 }
@@ -7,7 +7,10 @@ import org.springframework.lang.NonNull;
 import org.springframework.stereotype.Component;
 
 import com.example.pickbox.constants.StorageType;
+import com.example.pickbox.services.impl.DedupStorageService;
+import com.example.pickbox.services.impl.ErasureCodedStorageService;
 import com.example.pickbox.services.impl.LocalStorageService;
+import com.example.pickbox.services.impl.S3StorageService;
 
 @Component
 public class StorageServiceFactory implements ApplicationContextAware {
@@ -25,8 +28,12 @@ public class StorageServiceFactory implements ApplicationContextAware {
         switch (storageType) {
             case LOCAL:
                 return context.getBean(LocalStorageService.class);
+            case DEDUP:
+                return context.getBean(DedupStorageService.class);
+            case ERASURE:
+                return context.getBean(ErasureCodedStorageService.class);
             case S3:
-                throw new IllegalArgumentException("S3 storage is not supported yet");
+                return context.getBean(S3StorageService.class);
             default:
                 throw new IllegalArgumentException("Invalid storage type: " + storageType);
         }
@@ -1,12 +1,24 @@
 package com.example.pickbox.services;
 
+import java.util.List;
+
+import com.example.pickbox.dtos.ChunkBatchResponse;
+import com.example.pickbox.dtos.ChunkUrlResponse;
 import com.example.pickbox.dtos.UploadRequest;
 import com.example.pickbox.dtos.UploadResponse;
+import com.example.pickbox.dtos.UploadStatusResponse;
 import com.example.pickbox.models.ChunkMetadata;
+import com.example.pickbox.models.UploadMetadata;
 
 public interface UploadService {
     UploadResponse initiateUpload(UploadRequest uploadRequest);
-    void completeUpload(String uploadId, String userId);
+    UploadStatusResponse completeUpload(String uploadId, String userId);
+    UploadStatusResponse getUploadStatus(String uploadId, String userId);
     void abortUpload(String uploadId, String userId);
-    void completeChunk(String uploadId, String userId, ChunkMetadata chunkMetadata);
+    void recordChunkData(String uploadId, ChunkMetadata chunkMetadata);
+    UploadStatusResponse completeChunk(String uploadId, String userId, ChunkMetadata chunkMetadata);
+    ChunkBatchResponse completeChunks(String uploadId, String userId, List<ChunkMetadata> chunks);
+    UploadMetadata getActiveUpload(String uploadId, String userId);
+    ChunkUrlResponse getChunkUploadUrl(String uploadId, String userId, int chunkIndex);
+    UploadResponse proveContent(String uploadId, String userId, List<String> hashes);
 }
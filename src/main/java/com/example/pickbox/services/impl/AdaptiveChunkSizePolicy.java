@@ -0,0 +1,46 @@
+package com.example.pickbox.services.impl;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import com.example.pickbox.services.ChunkSizePolicy;
+
+/**
+ * Grows the chunk size with the file so that no upload needs more than
+ * {@code chunk.target-max-count} chunks, within [{@code chunk.size},
+ * {@code chunk.max-size}]. Sizes are rounded up to a multiple of the minimum
+ * so chunk offsets stay aligned. Files large enough to hit the max size get
+ * more chunks than the target.
+ */
+@Component
+@ConditionalOnProperty(name = "chunk.size-policy", havingValue = "adaptive", matchIfMissing = true)
+public class AdaptiveChunkSizePolicy implements ChunkSizePolicy {
+    private final long minChunkSize;
+
+    private final long maxChunkSize;
+
+    private final long targetMaxChunks;
+
+    public AdaptiveChunkSizePolicy(@Value("${chunk.size}") long minChunkSize,
+            @Value("${chunk.max-size:67108864}") long maxChunkSize,
+            @Value("${chunk.target-max-count:1024}") long targetMaxChunks) {
+        if (minChunkSize <= 0 || maxChunkSize < minChunkSize || targetMaxChunks <= 0) {
+            throw new IllegalArgumentException("Invalid chunk size policy bounds");
+        }
+        this.minChunkSize = minChunkSize;
+        this.maxChunkSize = maxChunkSize;
+        this.targetMaxChunks = targetMaxChunks;
+    }
+
+    @Override
+    public long chunkSizeFor(long fileSize) {
+        long wanted = ceilDiv(fileSize, targetMaxChunks);
+        long aligned = ceilDiv(wanted, minChunkSize) * minChunkSize;
+        return Math.max(minChunkSize, Math.min(maxChunkSize, aligned));
+    }
+
+    private static long ceilDiv(long value, long divisor) {
+        return (value + divisor - 1) / divisor;
+    }
+}
@@ -0,0 +1,173 @@
+package com.example.pickbox.services.impl;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Read-only view of a file stored as a list of deduplicated blocks. Positions
+ * are mapped to a block with a binary search over the block offsets, so
+ * seeking is as cheap as on a plain file.
+ */
+final class BlockManifestChannel implements SeekableByteChannel {
+    static final int HASH_LENGTH = 32;
+
+    static final int ENTRY_LENGTH = HASH_LENGTH + Integer.BYTES;
+
+    private final String[] hashes;
+
+    // offsets[i] is where block i starts, offsets[hashes.length] is the file size
+    private final long[] offsets;
+
+    private final Function<String, Path> blockPathResolver;
+
+    private long position;
+
+    private boolean open = true;
+
+    private int currentBlock = -1;
+
+    private FileChannel currentChannel;
+
+    private BlockManifestChannel(String[] hashes, long[] offsets, Function<String, Path> blockPathResolver) {
+        this.hashes = hashes;
+        this.offsets = offsets;
+        this.blockPathResolver = blockPathResolver;
+    }
+
+    static BlockManifestChannel open(Path manifestPath, Function<String, Path> blockPathResolver)
+            throws IOException {
+        List<String> hashes = new ArrayList<>();
+        List<Long> offsets = new ArrayList<>();
+        long offset = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(manifestPath)))) {
+            byte[] hash = new byte[HASH_LENGTH];
+            while (readEntry(in, hash)) {
+                hashes.add(HexFormat.of().formatHex(hash));
+                offsets.add(offset);
+                offset += Integer.toUnsignedLong(in.readInt());
+            }
+        }
+        offsets.add(offset);
+        return new BlockManifestChannel(hashes.toArray(String[]::new),
+                offsets.stream().mapToLong(Long::longValue).toArray(), blockPathResolver);
+    }
+
+    private static boolean readEntry(InputStream in, byte[] hash) throws IOException {
+        int read = in.readNBytes(hash, 0, HASH_LENGTH);
+        if (read == 0) {
+            return false;
+        }
+        if (read != HASH_LENGTH) {
+            throw new IOException("Truncated block manifest");
+        }
+        return true;
+    }
+
+    void forEachBlock(Consumer<String> action) {
+        for (String hash : hashes) {
+            action.accept(hash);
+        }
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        ensureOpen();
+        long size = size();
+        if (position >= size) {
+            return -1;
+        }
+        int block = blockAt(position);
+        if (block != currentBlock) {
+            closeCurrent();
+            currentChannel = FileChannel.open(blockPathResolver.apply(hashes[block]));
+            currentBlock = block;
+        }
+        long remainingInBlock = offsets[block + 1] - position;
+        ByteBuffer slice = dst.slice();
+        slice.limit((int) Math.min(slice.remaining(), remainingInBlock));
+        int read = currentChannel.read(slice, position - offsets[block]);
+        if (read < 0) {
+            throw new IOException("Block " + hashes[block] + " is shorter than its manifest entry");
+        }
+        dst.position(dst.position() + read);
+        position += read;
+        return read;
+    }
+
+    private int blockAt(long pos) {
+        int index = Arrays.binarySearch(offsets, 0, hashes.length, pos);
+        return index >= 0 ? index : -index - 2;
+    }
+
+    @Override
+    public int write(ByteBuffer src) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public long position() throws IOException {
+        ensureOpen();
+        return position;
+    }
+
+    @Override
+    public SeekableByteChannel position(long newPosition) throws IOException {
+        ensureOpen();
+        if (newPosition < 0) {
+            throw new IllegalArgumentException("Negative position");
+        }
+        position = newPosition;
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+        ensureOpen();
+        return offsets[hashes.length];
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() throws IOException {
+        open = false;
+        closeCurrent();
+    }
+
+    private void closeCurrent() throws IOException {
+        if (currentChannel != null) {
+            currentChannel.close();
+            currentChannel = null;
+            currentBlock = -1;
+        }
+    }
+
+    private void ensureOpen() throws ClosedChannelException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+    }
+}
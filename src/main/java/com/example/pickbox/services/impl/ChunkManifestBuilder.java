@@ -0,0 +1,181 @@
+package com.example.pickbox.services.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.NoSuchFileException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.CRC32C;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import com.example.pickbox.config.WorkerThreads;
+import com.example.pickbox.constants.StorageType;
+import com.example.pickbox.dao.ChunkManifestRepository;
+import com.example.pickbox.models.ChunkManifest;
+import com.example.pickbox.models.StorageItem;
+import com.example.pickbox.services.StorageService;
+import com.example.pickbox.services.StorageServiceFactory;
+import com.example.pickbox.utils.ChecksumUtils;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Computes the chunk checksums of files uploaded without them, in the
+ * background, so a metadata request never reads a whole file. The file is
+ * read once, start to end. Until the manifest is saved the file is simply
+ * downloaded whole. Compressed files get no manifest: a chunk of them could
+ * only be reached by decompressing everything before it.
+ *
+ * The same pass computes the CRC-32 of files of already compressed types,
+ * which ZIP archives store as they are and need the CRC-32 of before the
+ * data.
+ */
+@Component
+@Slf4j
+public class ChunkManifestBuilder {
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final StorageService storageService;
+
+    private final ChunkManifestRepository chunkManifestRepository;
+
+    private final MongoTemplate mongoTemplate;
+
+    private final FileCompressor fileCompressor;
+
+    // Chunk size for files whose upload layout is not known
+    private final long chunkSize;
+
+    // Storage keys queued or being read, so repeated requests queue a file once
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+
+    private final ThreadPoolExecutor executor;
+
+    public ChunkManifestBuilder(StorageServiceFactory storageServiceFactory,
+            ChunkManifestRepository chunkManifestRepository,
+            MongoTemplate mongoTemplate,
+            FileCompressor fileCompressor,
+            WorkerThreads workerThreads,
+            @Value("${storage.type}") String storageType,
+            @Value("${download.chunk-size:8388608}") long chunkSize,
+            @Value("${download.manifest.workers:1}") int workers,
+            @Value("${download.manifest.queue-capacity:1000}") int queueCapacity) {
+        this.storageService = storageServiceFactory.getStorageService(StorageType.valueOf(storageType.toUpperCase()));
+        this.chunkManifestRepository = chunkManifestRepository;
+        this.mongoTemplate = mongoTemplate;
+        this.fileCompressor = fileCompressor;
+        this.chunkSize = chunkSize;
+        this.executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), workerThreads.factory("chunk-manifest-"));
+    }
+
+    /**
+     * Queues a manifest for the file, and its CRC-32 when archives store it.
+     * Best effort, a file that is not queued is queued again by its next
+     * metadata request or archive.
+     */
+    public void submit(StorageItem item) {
+        String storageKey = storageKeyOf(item);
+        if (item.getCompression() != null || item.getSize() == 0 || !pending.add(storageKey)) {
+            return;
+        }
+        boolean needsCrc32 = item.getCrc32() == null && !fileCompressor.isCompressible(item.getMimeType());
+        try {
+            executor.execute(() -> {
+                try {
+                    build(storageKey, item.getSize(), needsCrc32);
+                } finally {
+                    pending.remove(storageKey);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pending.remove(storageKey);
+            log.warn("Chunk manifest queue is full, {} is downloaded whole for now", storageKey);
+        }
+    }
+
+    private void build(String storageKey, long size, boolean needsCrc32) {
+        ChunkManifest existing = chunkManifestRepository.findById(storageKey).orElse(null);
+        boolean needsManifest = existing == null || existing.getSize() != size;
+        if (!needsManifest && !needsCrc32) {
+            return;
+        }
+        List<String> checksums = new ArrayList<>();
+        CRC32 whole = new CRC32();
+        byte[] buffer = new byte[READ_BUFFER_SIZE];
+        try (SeekableByteChannel channel = storageService.openForRead(storageKey);
+                InputStream in = Channels.newInputStream(channel)) {
+            CRC32C crc = new CRC32C();
+            long inChunk = 0;
+            long total = 0;
+            int read;
+            while ((read = in.read(buffer, 0, (int) Math.min(buffer.length, chunkSize - inChunk))) > 0) {
+                crc.update(buffer, 0, read);
+                whole.update(buffer, 0, read);
+                inChunk += read;
+                total += read;
+                if (inChunk == chunkSize) {
+                    checksums.add(ChecksumUtils.encodeCrc32c(crc.getValue()));
+                    crc.reset();
+                    inChunk = 0;
+                }
+            }
+            if (inChunk > 0) {
+                checksums.add(ChecksumUtils.encodeCrc32c(crc.getValue()));
+            }
+            if (total != size) {
+                log.warn("Read {} bytes of {} but expected {}, no chunk manifest", total, storageKey, size);
+                return;
+            }
+        } catch (NoSuchFileException e) {
+            // Compressed, moved to the cold tier or deleted since it was queued
+            log.info("No chunk manifest for {}, the file is gone from its place", storageKey);
+            return;
+        } catch (IOException | RuntimeException e) {
+            log.warn("Failed to checksum {} for chunked download: {}", storageKey, e.toString());
+            return;
+        }
+        if (needsCrc32) {
+            // Kept on every item sharing the storage key, the content never changes
+            mongoTemplate.updateMulti(new Query(Criteria.where("storageKey").is(storageKey)),
+                    new Update().set("crc32", whole.getValue()), StorageItem.class);
+        }
+        if (!needsManifest) {
+            return;
+        }
+        chunkManifestRepository.save(ChunkManifest.builder()
+                .storageKey(storageKey)
+                .size(size)
+                .chunkSize(chunkSize)
+                .checksums(checksums)
+                .createdAt(Instant.now())
+                .build());
+        log.info("Computed {} chunk checksums for {}", checksums.size(), storageKey);
+    }
+
+    private static String storageKeyOf(StorageItem item) {
+        return item.getStorageKey() != null ? item.getStorageKey() : item.getId();
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,309 @@
+package com.example.pickbox.services.impl;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import com.example.pickbox.dao.BlockRepository;
+import com.example.pickbox.models.Block;
+import com.example.pickbox.services.StorageService;
+import com.example.pickbox.utils.ContentDefinedChunker;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Block store with cross-file deduplication. Uploads are staged through
+ * {@link LocalStorageService}; on completion the assembled file is split with
+ * a content-defined chunker, every unique block is stored once under its
+ * SHA-256 and the file is replaced by a manifest listing its blocks.
+ *
+ * Blocks are reference counted in the {@code blocks} collection. Deleting a
+ * file only decrements the counts, unreferenced blocks are removed by a
+ * periodic sweep. The sweep takes the write side of {@link #gcLock} so it can
+ * never remove a block that a running ingest has just decided to reuse.
+ */
+@Service
+@ConditionalOnProperty(name = "storage.type", havingValue = "dedup")
+@Slf4j
+public class DedupStorageService implements StorageService {
+    private static final String BLOCKS_DIR = "blocks";
+
+    private static final String MANIFESTS_DIR = "manifests";
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final LocalStorageService localStorageService;
+
+    private final MongoTemplate mongoTemplate;
+
+    private final BlockRepository blockRepository;
+
+    private final Path blockRoot;
+
+    private final Path manifestRoot;
+
+    private final ContentDefinedChunker chunker;
+
+    private final ReentrantReadWriteLock gcLock = new ReentrantReadWriteLock();
+
+    public DedupStorageService(LocalStorageService localStorageService,
+            MongoTemplate mongoTemplate,
+            BlockRepository blockRepository,
+            @Value("${dedup.storage.path:${local.storage.path}/dedup}") String storagePath,
+            @Value("${dedup.chunk.min-size:262144}") int minChunkSize,
+            @Value("${dedup.chunk.avg-size:1048576}") int avgChunkSize,
+            @Value("${dedup.chunk.max-size:4194304}") int maxChunkSize) {
+        this.localStorageService = localStorageService;
+        this.mongoTemplate = mongoTemplate;
+        this.blockRepository = blockRepository;
+        this.blockRoot = Path.of(storagePath, BLOCKS_DIR);
+        this.manifestRoot = Path.of(storagePath, MANIFESTS_DIR);
+        this.chunker = new ContentDefinedChunker(minChunkSize, avgChunkSize, maxChunkSize);
+    }
+
+    @PostConstruct
+    private void init() throws IOException {
+        Files.createDirectories(blockRoot);
+        Files.createDirectories(manifestRoot);
+        log.info("Initialized dedup block store: {}", blockRoot.getParent());
+    }
+
+    @Override
+    public String initiateUpload(String userId, String uploadId, long fileSize, long chunkSize) {
+        return localStorageService.initiateUpload(userId, uploadId, fileSize, chunkSize);
+    }
+
+    @Override
+    public String generateSignedUrl(String uploadId, int chunkIndex) {
+        return localStorageService.generateSignedUrl(uploadId, chunkIndex);
+    }
+
+    @Override
+    public void completeUpload(String uploadId, long fileSize, long chunkSize) {
+        Path manifestPath = getManifestPath(uploadId);
+        Path stagedFile = localStorageService.getFilePath(uploadId);
+        try {
+            if (!Files.exists(manifestPath)) {
+                localStorageService.completeUpload(uploadId, fileSize, chunkSize);
+                ingest(uploadId, stagedFile, manifestPath);
+            } else {
+                log.info("Upload already ingested into block store: {}", uploadId);
+            }
+            Files.deleteIfExists(stagedFile);
+        } catch (IOException e) {
+            log.error("Failed to ingest upload {} into block store", uploadId, e);
+            throw new RuntimeException("Failed to ingest upload", e);
+        }
+    }
+
+    /**
+     * Splits the staged file into blocks, writes the blocks not stored yet and
+     * increments the reference counts before the manifest becomes visible. A
+     * crash in between can only leave counts too high, never too low, so live
+     * blocks are never collected.
+     */
+    private void ingest(String uploadId, Path stagedFile, Path manifestPath) throws IOException {
+        Path tempManifest = manifestPath.resolveSibling(manifestPath.getFileName() + TEMP_SUFFIX);
+        Map<String, Long> references = new HashMap<>();
+        Map<String, Integer> sizes = new HashMap<>();
+        long newBytes = 0;
+        long totalBytes = 0;
+
+        gcLock.readLock().lock();
+        try (InputStream in = Files.newInputStream(stagedFile);
+                DataOutputStream manifest = new DataOutputStream(
+                        new BufferedOutputStream(Files.newOutputStream(tempManifest)))) {
+            byte[] buffer = new byte[chunker.getMaxSize()];
+            MessageDigest digest = newDigest();
+            int filled = 0;
+            while (true) {
+                filled += in.readNBytes(buffer, filled, buffer.length - filled);
+                if (filled == 0) {
+                    break;
+                }
+                int cut = chunker.nextCutPoint(buffer, 0, filled);
+                digest.update(buffer, 0, cut);
+                byte[] hash = digest.digest();
+                String hex = HexFormat.of().formatHex(hash);
+                if (!references.containsKey(hex) && storeBlock(hex, buffer, cut)) {
+                    newBytes += cut;
+                }
+                references.merge(hex, 1L, Long::sum);
+                sizes.putIfAbsent(hex, cut);
+                manifest.write(hash);
+                manifest.writeInt(cut);
+                totalBytes += cut;
+                System.arraycopy(buffer, cut, buffer, 0, filled - cut);
+                filled -= cut;
+            }
+            manifest.flush();
+            incrementReferences(references, sizes);
+        } finally {
+            gcLock.readLock().unlock();
+        }
+        Files.move(tempManifest, manifestPath, ATOMIC_MOVE);
+        log.info("Ingested upload {}: {} bytes, {} unique blocks, {} new bytes stored", uploadId, totalBytes,
+                references.size(), newBytes);
+    }
+
+    /**
+     * Writes the block unless a block with the same hash is already stored.
+     * Returns whether it was written.
+     */
+    private boolean storeBlock(String hash, byte[] buffer, int length) throws IOException {
+        Path blockPath = getBlockPath(hash);
+        if (Files.exists(blockPath)) {
+            return false;
+        }
+        Files.createDirectories(blockPath.getParent());
+        // Unique temp name (created rw-------) as concurrent ingests may store the same block
+        Path tempBlock = Files.createTempFile(blockPath.getParent(), hash, TEMP_SUFFIX);
+        try (FileChannel channel = FileChannel.open(tempBlock, StandardOpenOption.WRITE)) {
+            ByteBuffer data = ByteBuffer.wrap(buffer, 0, length);
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+            channel.force(false);
+        }
+        Files.move(tempBlock, blockPath, ATOMIC_MOVE);
+        return true;
+    }
+
+    private void incrementReferences(Map<String, Long> references, Map<String, Integer> sizes) {
+        if (references.isEmpty()) {
+            return;
+        }
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Block.class);
+        Instant now = Instant.now();
+        references.forEach((hash, count) -> bulk.upsert(
+                new Query(Criteria.where("_id").is(hash)),
+                new Update().inc("refCount", count)
+                        .setOnInsert("size", sizes.get(hash))
+                        .setOnInsert("createdAt", now)));
+        bulk.execute();
+    }
+
+    @Override
+    public void abortUpload(String uploadId) {
+        localStorageService.abortUpload(uploadId);
+    }
+
+    @Override
+    public BitSet storedChunks(String uploadId, int totalChunks) {
+        return localStorageService.storedChunks(uploadId, totalChunks);
+    }
+
+    @Override
+    public String generateDownloadUrl(String uploadId, String originalFileName) {
+        return localStorageService.generateDownloadUrl(uploadId, originalFileName);
+    }
+
+    @Override
+    public SeekableByteChannel openForRead(String storageKey) throws IOException {
+        Path manifestPath = getManifestPath(storageKey);
+        if (!Files.exists(manifestPath)) {
+            // Uploads finished before the block store was enabled are plain files
+            return localStorageService.openForRead(storageKey);
+        }
+        return BlockManifestChannel.open(manifestPath, this::getBlockPath);
+    }
+
+    @Override
+    public void deleteFile(String storageKey) {
+        Path manifestPath = getManifestPath(storageKey);
+        if (!Files.exists(manifestPath)) {
+            localStorageService.deleteFile(storageKey);
+            return;
+        }
+        Map<String, Long> references = new HashMap<>();
+        try (BlockManifestChannel channel = BlockManifestChannel.open(manifestPath, this::getBlockPath)) {
+            channel.forEachBlock(hash -> references.merge(hash, 1L, Long::sum));
+        } catch (IOException e) {
+            log.error("Failed to read manifest for {}", storageKey, e);
+            throw new RuntimeException("Failed to delete file", e);
+        }
+        try {
+            Files.delete(manifestPath);
+        } catch (NoSuchFileException e) {
+            // Deleted concurrently, the references were released by the other call
+            return;
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to delete manifest", e);
+        }
+        if (!references.isEmpty()) {
+            BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Block.class);
+            references.forEach((hash, count) -> bulk.updateOne(new Query(Criteria.where("_id").is(hash)),
+                    new Update().inc("refCount", -count)));
+            bulk.execute();
+        }
+        log.info("Deleted deduplicated file {}, released {} blocks", storageKey, references.size());
+    }
+
+    /**
+     * Removes blocks no manifest refers to anymore.
+     */
+    @Scheduled(fixedDelayString = "${dedup.gc.interval-ms:600000}")
+    public void collectGarbage() {
+        gcLock.writeLock().lock();
+        try {
+            int removed = 0;
+            for (Block block : blockRepository.findAllByRefCountLessThanEqual(0)) {
+                Files.deleteIfExists(getBlockPath(block.getHash()));
+                blockRepository.deleteById(block.getHash());
+                removed++;
+            }
+            if (removed > 0) {
+                log.info("Block store GC removed {} unreferenced blocks", removed);
+            }
+        } catch (IOException e) {
+            log.error("Block store GC failed", e);
+        } finally {
+            gcLock.writeLock().unlock();
+        }
+    }
+
+    private Path getManifestPath(String storageKey) {
+        return manifestRoot.resolve(storageKey);
+    }
+
+    private Path getBlockPath(String hash) {
+        return blockRoot.resolve(hash.substring(0, 2)).resolve(hash.substring(2, 4)).resolve(hash);
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -1,22 +1,85 @@
 package com.example.pickbox.services.impl;
 
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.stereotype.Service;
 
 import com.example.pickbox.constants.StorageType;
+import com.example.pickbox.models.ChunkManifest;
+import com.example.pickbox.models.FileStatus;
 import com.example.pickbox.models.StorageItem;
 import com.example.pickbox.services.DownloadService;
 import com.example.pickbox.services.StorageService;
 import com.example.pickbox.services.StorageServiceFactory;
+import com.example.pickbox.utils.ByteRanges;
+import com.example.pickbox.dao.ChunkManifestRepository;
 import com.example.pickbox.dao.FileRepository; // Assuming this exists or use FileService
+import com.example.pickbox.dtos.ChunkDownload;
+import com.example.pickbox.dtos.DownloadMetadataResponse;
 
-import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 
 @Service
-@RequiredArgsConstructor
+@Slf4j
 public class DownloadServiceImpl implements DownloadService {
 
-    private final StorageServiceFactory storageServiceFactory;
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    // Children read per query when walking a folder for an archive
+    private static final int ARCHIVE_PAGE_SIZE = 500;
+
+    private final StorageService storageService;
     private final FileRepository fileRepository;
+    private final LocalStorageService localStorageService;
+    private final ChunkManifestRepository chunkManifestRepository;
+    private final StorageTiering storageTiering;
+    private final FileCompressor fileCompressor;
+    private final MongoTemplate mongoTemplate;
+    private final ChunkManifestBuilder chunkManifestBuilder;
+    private final int zipLevel;
+
+    public DownloadServiceImpl(StorageServiceFactory storageServiceFactory,
+            FileRepository fileRepository,
+            LocalStorageService localStorageService,
+            ChunkManifestRepository chunkManifestRepository,
+            StorageTiering storageTiering,
+            FileCompressor fileCompressor,
+            MongoTemplate mongoTemplate,
+            ChunkManifestBuilder chunkManifestBuilder,
+            @Value("${storage.type}") String storageType,
+            @Value("${download.zip.level:6}") int zipLevel) {
+        this.storageService = storageServiceFactory.getStorageService(StorageType.valueOf(storageType.toUpperCase()));
+        this.fileRepository = fileRepository;
+        this.localStorageService = localStorageService;
+        this.chunkManifestRepository = chunkManifestRepository;
+        this.storageTiering = storageTiering;
+        this.fileCompressor = fileCompressor;
+        this.mongoTemplate = mongoTemplate;
+        this.chunkManifestBuilder = chunkManifestBuilder;
+        this.zipLevel = zipLevel;
+    }
 
     @Override
     public String generateDownloadUrl(String userId, String fileId) {
@@ -28,13 +91,288 @@ public class DownloadServiceImpl implements DownloadService {
             throw new IllegalArgumentException("Unauthorized access to file");
         }
 
-        // Defaulting to LOCAL storage as it's the only one implemented effectively
-        StorageService storageService = storageServiceFactory.getStorageService(StorageType.LOCAL);
-
         // Use storageKey if present (for finalized uploads), fallback to ID if it IS
         // the key
         String storageKey = item.getStorageKey() != null ? item.getStorageKey() : item.getId();
 
         return storageService.generateDownloadUrl(storageKey, item.getName());
     }
+
+    @Override
+    public DownloadMetadataResponse getDownloadMetadata(String userId, String fileId) {
+        StorageItem item = findDownloadableFile(userId, fileId);
+        ChunkManifest manifest = chunkManifest(item);
+        DownloadMetadataResponse metadata = DownloadMetadataResponse.builder()
+                .id(item.getId())
+                .name(item.getName())
+                .mimeType(item.getMimeType())
+                .size(item.getSize())
+                .chunked(manifest != null)
+                .contentDigest(item.getContentDigest())
+                .build();
+        if (manifest != null) {
+            metadata.setChunkSize(manifest.getChunkSize());
+            metadata.setTotalChunks(manifest.getChecksums().size());
+            metadata.setChecksums(manifest.getChecksums());
+        }
+        return metadata;
+    }
+
+    @Override
+    public ChunkDownload openChunk(String userId, String fileId, int chunkIndex) {
+        StorageItem item = findDownloadableFile(userId, fileId);
+        ChunkManifest manifest = chunkManifest(item);
+        if (manifest == null) {
+            throw new IllegalArgumentException("Chunked download is not available for this file, download it whole");
+        }
+        if (chunkIndex < 0 || chunkIndex >= manifest.getChecksums().size()) {
+            throw new IllegalArgumentException("Invalid chunk index: " + chunkIndex);
+        }
+        long offset = chunkIndex * manifest.getChunkSize();
+        long length = Math.min(manifest.getChunkSize(), item.getSize() - offset);
+        ByteRanges.Range range = new ByteRanges.Range(offset, offset + length - 1);
+        String storageKey = storageKeyOf(item);
+        try {
+            InputStream content = ByteRanges.single(openContent(item), range);
+            if (chunkIndex == 0) {
+                // One download of the file, not one per chunk
+                storageTiering.recordAccess(storageKey);
+            }
+            return ChunkDownload.builder()
+                    .chunkIndex(chunkIndex)
+                    .offset(offset)
+                    .length(length)
+                    .checksum(manifest.getChecksums().get(chunkIndex))
+                    .content(content)
+                    .build();
+        } catch (IOException e) {
+            log.error("Failed to open chunk {} of {}", chunkIndex, fileId, e);
+            throw new RuntimeException("Failed to read file", e);
+        }
+    }
+
+    @Override
+    public String getFolderArchiveName(String userId, String folderId) {
+        return entryName(findDownloadableFolder(userId, folderId).getName()) + ".zip";
+    }
+
+    /**
+     * Walks the folder tree iteratively, one folder's children read from
+     * Mongo a page at a time, and writes each file as soon as it is reached,
+     * so memory does not grow with file sizes and only the archive's central
+     * directory grows with the file count. No cursor stays open while files
+     * are written, however slow the client. ZipOutputStream switches to ZIP64
+     * when sizes or the entry count need it.
+     */
+    @Override
+    public void writeFolderArchive(String userId, String folderId, OutputStream out) throws IOException {
+        StorageItem root = findDownloadableFolder(userId, folderId);
+        ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(out, READ_BUFFER_SIZE));
+        zip.setLevel(zipLevel);
+        byte[] buffer = new byte[READ_BUFFER_SIZE];
+        Deque<ArchiveFolder> pending = new ArrayDeque<>();
+        pending.push(new ArchiveFolder(root.getId(), entryName(root.getName()) + "/"));
+        Set<String> visited = new HashSet<>();
+        int files = 0;
+        while (!pending.isEmpty()) {
+            ArchiveFolder folder = pending.pop();
+            if (!visited.add(folder.id())) {
+                continue;
+            }
+            ZipEntry directory = new ZipEntry(folder.path());
+            directory.setMethod(ZipEntry.STORED);
+            directory.setSize(0);
+            directory.setCompressedSize(0);
+            directory.setCrc(0);
+            zip.putNextEntry(directory);
+            zip.closeEntry();
+            // Names already used in this folder, duplicates get a counter like browsers do
+            Set<String> names = new HashSet<>();
+            String lastId = null;
+            List<StorageItem> page;
+            do {
+                Criteria children = Criteria.where("ownerUserId").is(userId).and("parentId").is(folder.id());
+                if (lastId != null) {
+                    children = children.and("_id").gt(lastId);
+                }
+                page = mongoTemplate.find(new Query(children).with(Sort.by("_id")).limit(ARCHIVE_PAGE_SIZE),
+                        StorageItem.class);
+                for (StorageItem item : page) {
+                    String name = uniqueName(names, entryName(item.getName()));
+                    if (item.getType() == 'D') {
+                        pending.push(new ArchiveFolder(item.getId(), folder.path() + name + "/"));
+                    } else if (item.getStatus() == FileStatus.ACTIVE && writeEntry(zip, folder.path() + name, item,
+                            buffer)) {
+                        files++;
+                    }
+                }
+                if (!page.isEmpty()) {
+                    lastId = page.get(page.size() - 1).getId();
+                }
+            } while (page.size() == ARCHIVE_PAGE_SIZE);
+        }
+        zip.finish();
+        zip.flush();
+        log.info("Streamed {} files of folder {} as a ZIP archive", files, folderId);
+    }
+
+    private record ArchiveFolder(String id, String path) {
+    }
+
+    /**
+     * Writes one file into the archive. Types that are already compressed
+     * are stored rather than deflated, which needs their CRC-32 up front.
+     * Until the background pass has computed it, they are written as deflate
+     * without compression, which needs none and still reads the file once.
+     * Returns false for a file deleted while the archive was being written.
+     */
+    private boolean writeEntry(ZipOutputStream zip, String path, StorageItem item, byte[] buffer) throws IOException {
+        ZipEntry entry = new ZipEntry(path);
+        Instant modified = item.getUpdatedAt() != null ? item.getUpdatedAt() : item.getCreatedAt();
+        if (modified != null) {
+            entry.setLastModifiedTime(FileTime.from(modified));
+        }
+        zip.setLevel(zipLevel);
+        try {
+            if (!fileCompressor.isCompressible(item.getMimeType())) {
+                if (item.getCrc32() != null) {
+                    entry.setMethod(ZipEntry.STORED);
+                    entry.setSize(item.getSize());
+                    entry.setCompressedSize(item.getSize());
+                    entry.setCrc(item.getCrc32());
+                } else {
+                    zip.setLevel(Deflater.NO_COMPRESSION);
+                    chunkManifestBuilder.submit(item);
+                }
+            }
+            // Opened before the entry is started, so a file deleted meanwhile leaves no broken entry
+            try (InputStream content = item.getSize() > 0 ? openStream(item) : InputStream.nullInputStream()) {
+                zip.putNextEntry(entry);
+                int read;
+                while ((read = content.read(buffer)) > 0) {
+                    zip.write(buffer, 0, read);
+                }
+                zip.closeEntry();
+            }
+        } catch (NoSuchFileException e) {
+            if (fileRepository.existsById(item.getId())) {
+                throw e;
+            }
+            log.info("Skipping {} in the archive, it was deleted", item.getId());
+            return false;
+        }
+        storageTiering.recordAccess(storageKeyOf(item));
+        return true;
+    }
+
+    private InputStream openStream(StorageItem item) throws IOException {
+        return ByteRanges.single(openContent(item), new ByteRanges.Range(0, item.getSize() - 1));
+    }
+
+    private StorageItem findDownloadableFolder(String userId, String folderId) {
+        StorageItem folder = fileRepository.findById(folderId)
+                .orElseThrow(() -> new IllegalArgumentException("Folder not found"));
+        if (!folder.getOwnerUserId().equals(userId)) {
+            throw new IllegalArgumentException("Unauthorized access to folder");
+        }
+        if (folder.getType() != 'D') {
+            throw new IllegalArgumentException("Not a folder");
+        }
+        return folder;
+    }
+
+    /**
+     * A stored name as one safe path segment: no separators, and never "."
+     * or ".." so an archive cannot write outside its folder when extracted.
+     */
+    private static String entryName(String name) {
+        String segment = name == null ? "" : name.replace('/', '_').replace('\\', '_');
+        return segment.isEmpty() || segment.equals(".") || segment.equals("..") ? "_" : segment;
+    }
+
+    private static String uniqueName(Set<String> used, String name) {
+        if (used.add(name)) {
+            return name;
+        }
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        String extension = dot > 0 ? name.substring(dot) : "";
+        for (int copy = 1;; copy++) {
+            String candidate = base + " (" + copy + ")" + extension;
+            if (used.add(candidate)) {
+                return candidate;
+            }
+        }
+    }
+
+    private StorageItem findDownloadableFile(String userId, String fileId) {
+        StorageItem item = fileRepository.findById(fileId)
+                .orElseThrow(() -> new IllegalArgumentException("File not found"));
+        if (!item.getOwnerUserId().equals(userId)) {
+            throw new IllegalArgumentException("Unauthorized access to file");
+        }
+        if (item.getType() == 'D') {
+            throw new IllegalArgumentException("Cannot download a directory");
+        }
+        if (item.getStatus() != FileStatus.ACTIVE) {
+            throw new IllegalArgumentException("File is not active");
+        }
+        return item;
+    }
+
+    /**
+     * The chunk layout recorded at upload or computed in the background, or
+     * null when the file can only be downloaded whole: it is stored
+     * compressed, where a chunk could only be reached by decompressing
+     * everything before it, or its manifest is not built yet.
+     */
+    private ChunkManifest chunkManifest(StorageItem item) {
+        if (item.getCompression() != null) {
+            return null;
+        }
+        ChunkManifest manifest = chunkManifestRepository.findById(storageKeyOf(item)).orElse(null);
+        if (manifest != null && manifest.getSize() == item.getSize()) {
+            return manifest;
+        }
+        chunkManifestBuilder.submit(item);
+        return null;
+    }
+
+    /**
+     * Reader over the logical content of a file, decoding it when it is
+     * stored compressed.
+     */
+    private ByteRanges.Reader openContent(StorageItem item) throws IOException {
+        String storageKey = storageKeyOf(item);
+        SeekableByteChannel channel;
+        try {
+            channel = open(storageKey, item);
+        } catch (NoSuchFileException e) {
+            // Compressed or moved to the cold tier since the item was read
+            StorageItem current = fileRepository.findById(item.getId()).orElseThrow(() -> e);
+            if (current.getCompression() == item.getCompression()) {
+                throw e;
+            }
+            item = current;
+            channel = open(storageKey, item);
+        }
+        if (item.getCompression() == null) {
+            return ByteRanges.reader(channel);
+        }
+        try {
+            return ByteRanges.reader(new GZIPInputStream(Channels.newInputStream(channel), READ_BUFFER_SIZE));
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private SeekableByteChannel open(String storageKey, StorageItem item) throws IOException {
+        return item.getCompression() == null ? storageService.openForRead(storageKey)
+                : localStorageService.openForRead(storageKey, item.getCompression());
+    }
+
+    private static String storageKeyOf(StorageItem item) {
+        return item.getStorageKey() != null ? item.getStorageKey() : item.getId();
+    }
 }
@@ -0,0 +1,396 @@
+package com.example.pickbox.services.impl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.zip.CRC32C;
+
+import com.example.pickbox.utils.ReedSolomon;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Read-only view of a file stored as Reed-Solomon shards. The file is cut
+ * into stripes of {@code dataShards} cells; shard i holds cell i of every
+ * stripe, parity shards hold the parity cells, and each cell is followed by
+ * its CRC32C.
+ *
+ * A stripe is read from the data shards when they are all intact, otherwise
+ * from whichever shards are, and the missing cells are decoded. The cells of
+ * one stripe are fetched in parallel, one task per shard, so reads are
+ * spread over the volumes.
+ */
+@Slf4j
+final class ErasureCodedChannel implements SeekableByteChannel {
+    // "PBEC"
+    static final int MAGIC = 0x50424543;
+
+    static final byte VERSION = 1;
+
+    // magic, version, data shards, parity shards, shard index, cell size, file size, padding
+    static final int HEADER_LENGTH = 32;
+
+    static final int CRC_LENGTH = Integer.BYTES;
+
+    private final FileChannel[] shards;
+
+    private final ReedSolomon codec;
+
+    private final int cellSize;
+
+    private final long fileSize;
+
+    private final Executor executor;
+
+    // One cell plus its checksum per shard, reused for every stripe
+    private final byte[][] cells;
+
+    private final boolean[] present;
+
+    private long position;
+
+    private boolean open = true;
+
+    private long currentStripe = -1;
+
+    private ErasureCodedChannel(FileChannel[] shards, ReedSolomon codec, int cellSize, long fileSize,
+            Executor executor) {
+        this.shards = shards;
+        this.codec = codec;
+        this.cellSize = cellSize;
+        this.fileSize = fileSize;
+        this.executor = executor;
+        this.cells = new byte[shards.length][cellSize + CRC_LENGTH];
+        this.present = new boolean[shards.length];
+    }
+
+    /**
+     * Opens the shards that exist and carry a header matching the others.
+     * Throws {@link NoSuchFileException} when no shard exists at all, and an
+     * IOException when too few are left to read the file.
+     */
+    static ErasureCodedChannel open(Path[] shardPaths, Executor executor) throws IOException {
+        FileChannel[] shards = new FileChannel[shardPaths.length];
+        ByteBuffer expected = null;
+        int available = 0;
+        int dataShards = 0;
+        try {
+            for (int i = 0; i < shardPaths.length; i++) {
+                FileChannel channel;
+                try {
+                    channel = FileChannel.open(shardPaths[i], StandardOpenOption.READ);
+                } catch (NoSuchFileException e) {
+                    continue;
+                }
+                ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+                readFully(channel, header, 0);
+                header.flip();
+                if (!validHeader(header, i, shardPaths.length)
+                        || (expected != null && !sameLayout(expected, header))) {
+                    log.warn("Ignoring shard {} with a bad or mismatched header", shardPaths[i]);
+                    channel.close();
+                    continue;
+                }
+                if (expected == null) {
+                    expected = header;
+                    dataShards = Byte.toUnsignedInt(header.get(5));
+                }
+                shards[i] = channel;
+                available++;
+            }
+            if (expected == null) {
+                throw new NoSuchFileException(shardPaths[0].toString());
+            }
+            if (available < dataShards) {
+                throw new IOException("Only " + available + " of the " + dataShards
+                        + " shards needed are readable");
+            }
+        } catch (IOException | RuntimeException e) {
+            closeAll(shards);
+            throw e;
+        }
+        ReedSolomon codec = new ReedSolomon(dataShards, Byte.toUnsignedInt(expected.get(6)));
+        return new ErasureCodedChannel(shards, codec, expected.getInt(8), expected.getLong(12), executor);
+    }
+
+    static ByteBuffer header(int dataShards, int parityShards, int shardIndex, int cellSize, long fileSize) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        header.putInt(MAGIC)
+                .put(VERSION)
+                .put((byte) dataShards)
+                .put((byte) parityShards)
+                .put((byte) shardIndex)
+                .putInt(cellSize)
+                .putLong(fileSize);
+        return header.clear();
+    }
+
+    private static boolean validHeader(ByteBuffer header, int index, int totalShards) {
+        return header.remaining() == HEADER_LENGTH
+                && header.getInt(0) == MAGIC
+                && header.get(4) == VERSION
+                && header.get(5) != 0
+                && Byte.toUnsignedInt(header.get(5)) + Byte.toUnsignedInt(header.get(6)) == totalShards
+                && Byte.toUnsignedInt(header.get(7)) == index
+                && header.getInt(8) > 0
+                && header.getLong(12) >= 0;
+    }
+
+    private static boolean sameLayout(ByteBuffer left, ByteBuffer right) {
+        // Everything but the shard index
+        return left.getInt(0) == right.getInt(0) && left.getShort(5) == right.getShort(5)
+                && left.getInt(8) == right.getInt(8) && left.getLong(12) == right.getLong(12);
+    }
+
+    static long shardOffset(long stripe, int cellSize) {
+        return HEADER_LENGTH + stripe * (cellSize + CRC_LENGTH);
+    }
+
+    static long stripeCount(long fileSize, int dataShards, int cellSize) {
+        long stripeBytes = (long) dataShards * cellSize;
+        return (fileSize + stripeBytes - 1) / stripeBytes;
+    }
+
+    static int cellChecksum(byte[] cell, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(cell, 0, length);
+        return (int) crc.getValue();
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        ensureOpen();
+        if (position >= fileSize) {
+            return -1;
+        }
+        long stripeBytes = (long) codec.getDataShards() * cellSize;
+        long stripe = position / stripeBytes;
+        if (stripe != currentStripe) {
+            currentStripe = -1;
+            readStripe(stripe, false);
+            currentStripe = stripe;
+        }
+        int inStripe = (int) (position - stripe * stripeBytes);
+        int cell = inStripe / cellSize;
+        int inCell = inStripe % cellSize;
+        int length = (int) Math.min(Math.min(dst.remaining(), cellSize - inCell), fileSize - position);
+        dst.put(cells[cell], inCell, length);
+        position += length;
+        return length;
+    }
+
+    /**
+     * Loads a stripe into {@link #cells}, decoding the data cells that are
+     * missing or fail their checksum. With {@code allShards} every shard is
+     * read and verified and all cells are rebuilt, as repair needs; plain
+     * reads stop at the first intact {@code dataShards} cells.
+     * {@link #present} tells afterwards which cells were read intact.
+     */
+    void readStripe(long stripe, boolean allShards) throws IOException {
+        int dataShards = codec.getDataShards();
+        List<Integer> wanted = new ArrayList<>();
+        for (int i = 0; i < shards.length; i++) {
+            present[i] = false;
+            if (shards[i] != null && (allShards || i < dataShards)) {
+                wanted.add(i);
+            }
+        }
+        int intact = fetch(stripe, wanted);
+        int next = allShards ? shards.length : dataShards;
+        while (intact < dataShards && next < shards.length) {
+            // Data cells were lost, bring in just enough parity to replace them
+            List<Integer> parity = new ArrayList<>();
+            for (; next < shards.length && parity.size() < dataShards - intact; next++) {
+                if (shards[next] != null) {
+                    parity.add(next);
+                }
+            }
+            intact += fetch(stripe, parity);
+        }
+        if (intact < dataShards) {
+            throw new IOException("Stripe " + stripe + " has only " + intact + " intact cells, "
+                    + dataShards + " needed");
+        }
+        boolean complete = true;
+        int needed = allShards ? shards.length : dataShards;
+        for (int i = 0; i < needed; i++) {
+            complete &= present[i];
+        }
+        if (complete) {
+            return;
+        }
+        if (allShards) {
+            codec.reconstruct(cells, present.clone(), 0, cellSize);
+        } else {
+            // Only the data cells are served, parity nobody reads is not rebuilt
+            codec.reconstructData(cells, present.clone(), 0, cellSize);
+        }
+    }
+
+    /**
+     * Reads the given shards' cells of a stripe in parallel and returns how
+     * many were intact.
+     */
+    private int fetch(long stripe, List<Integer> indexes) throws IOException {
+        long offset = shardOffset(stripe, cellSize);
+        List<FutureTask<Boolean>> tasks = new ArrayList<>(indexes.size());
+        for (int index : indexes) {
+            FutureTask<Boolean> task = new FutureTask<>(() -> readCell(index, offset));
+            tasks.add(task);
+            if (tasks.size() < indexes.size()) {
+                executor.execute(task);
+            } else {
+                // The caller reads the last cell itself instead of waiting idle
+                task.run();
+            }
+        }
+        int intact = 0;
+        for (int i = 0; i < tasks.size(); i++) {
+            try {
+                if (tasks.get(i).get()) {
+                    present[indexes.get(i)] = true;
+                    intact++;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while reading shards", e);
+            } catch (ExecutionException e) {
+                log.warn("Failed to read shard {} of stripe {}: {}", indexes.get(i), stripe,
+                        e.getCause().getMessage());
+            }
+        }
+        return intact;
+    }
+
+    private boolean readCell(int index, long offset) throws IOException {
+        byte[] cell = cells[index];
+        ByteBuffer buffer = ByteBuffer.wrap(cell);
+        readFully(shards[index], buffer, offset);
+        if (buffer.hasRemaining()) {
+            log.warn("Shard {} is truncated at offset {}", index, offset);
+            return false;
+        }
+        int stored = ByteBuffer.wrap(cell, cellSize, CRC_LENGTH).getInt();
+        if (stored != cellChecksum(cell, cellSize)) {
+            log.warn("Shard {} has a corrupt cell at offset {}", index, offset);
+            return false;
+        }
+        return true;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long offset) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, offset);
+            if (read < 0) {
+                return;
+            }
+            offset += read;
+        }
+    }
+
+    int getTotalShards() {
+        return shards.length;
+    }
+
+    int getDataShards() {
+        return codec.getDataShards();
+    }
+
+    int getCellSize() {
+        return cellSize;
+    }
+
+    long getStripeCount() {
+        return stripeCount(fileSize, codec.getDataShards(), cellSize);
+    }
+
+    boolean isShardOpen(int index) {
+        return shards[index] != null;
+    }
+
+    boolean isCellIntact(int index) {
+        return present[index];
+    }
+
+    // Cell of the stripe last read, valid for cellSize bytes
+    byte[] cell(int index) {
+        return cells[index];
+    }
+
+    @Override
+    public int write(ByteBuffer src) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public long position() throws IOException {
+        ensureOpen();
+        return position;
+    }
+
+    @Override
+    public SeekableByteChannel position(long newPosition) throws IOException {
+        ensureOpen();
+        if (newPosition < 0) {
+            throw new IllegalArgumentException("Negative position");
+        }
+        position = newPosition;
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+        ensureOpen();
+        return fileSize;
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() throws IOException {
+        open = false;
+        closeAll(shards);
+    }
+
+    private static void closeAll(FileChannel[] shards) throws IOException {
+        IOException failure = null;
+        for (FileChannel shard : shards) {
+            if (shard == null) {
+                continue;
+            }
+            try {
+                shard.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void ensureOpen() throws ClosedChannelException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+    }
+}
@@ -0,0 +1,493 @@
+package com.example.pickbox.services.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import com.example.pickbox.config.WorkerThreads;
+import com.example.pickbox.models.FileStatus;
+import com.example.pickbox.models.StorageItem;
+import com.example.pickbox.services.StorageService;
+import com.example.pickbox.utils.ReedSolomon;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Erasure coded store. Uploads are staged through {@link LocalStorageService};
+ * on completion the assembled file is encoded into {@code erasure.data-shards}
+ * data and {@code erasure.parity-shards} parity shards, shard i written to
+ * volume i modulo the number of {@code erasure.volumes}, and the staged file
+ * is removed. With the default 4 + 2 the file takes 1.5x its size on disk and
+ * survives the loss of any two volumes.
+ *
+ * Reads need any {@code erasure.data-shards} intact shards, see
+ * {@link ErasureCodedChannel}. A periodic repair pass rebuilds shards that
+ * are missing, and with {@code erasure.repair.scrub} also rewrites cells that
+ * fail their checksum.
+ */
+@Service
+@ConditionalOnProperty(name = "storage.type", havingValue = "erasure")
+@Slf4j
+public class ErasureCodedStorageService implements StorageService {
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    // Storage keys read per query during a repair pass
+    private static final int REPAIR_PAGE_SIZE = 1000;
+
+    private final LocalStorageService localStorageService;
+
+    private final MongoTemplate mongoTemplate;
+
+    private final ReedSolomon codec;
+
+    private final int cellSize;
+
+    private final List<Path> volumes;
+
+    private final boolean scrub;
+
+    private final ExecutorService executor;
+
+    // Runs repair passes, apart from the read pool they decode with
+    private final ExecutorService repairExecutor;
+
+    private final AtomicBoolean repairing = new AtomicBoolean();
+
+    public ErasureCodedStorageService(LocalStorageService localStorageService,
+            MongoTemplate mongoTemplate,
+            WorkerThreads workerThreads,
+            @Value("${erasure.data-shards:4}") int dataShards,
+            @Value("${erasure.parity-shards:2}") int parityShards,
+            @Value("${erasure.cell-size:65536}") int cellSize,
+            @Value("${erasure.volumes:}") List<String> volumes,
+            @Value("${local.storage.path}") String storagePath,
+            @Value("${erasure.repair.scrub:false}") boolean scrub,
+            @Value("${erasure.io-threads:16}") int ioThreads) {
+        if (dataShards + parityShards > 255 || cellSize <= 0) {
+            throw new IllegalArgumentException("erasure.data-shards + erasure.parity-shards must be at most 255 "
+                    + "and erasure.cell-size positive");
+        }
+        this.localStorageService = localStorageService;
+        this.mongoTemplate = mongoTemplate;
+        this.codec = new ReedSolomon(dataShards, parityShards);
+        this.cellSize = cellSize;
+        List<Path> configured = volumes.stream()
+                .map(String::trim)
+                .filter(volume -> !volume.isEmpty())
+                .map(Path::of)
+                .toList();
+        if (configured.isEmpty()) {
+            // One directory per shard, only useful to try the mode out on a single disk
+            List<Path> defaults = new ArrayList<>();
+            for (int i = 0; i < codec.getTotalShards(); i++) {
+                defaults.add(Path.of(storagePath, "erasure", String.valueOf(i)));
+            }
+            configured = defaults;
+        }
+        this.volumes = configured;
+        this.scrub = scrub;
+        this.executor = Executors.newFixedThreadPool(ioThreads, workerThreads.factory("erasure-io-"));
+        this.repairExecutor = Executors.newSingleThreadExecutor(workerThreads.factory("erasure-repair-"));
+    }
+
+    @PostConstruct
+    private void init() throws IOException {
+        for (Path volume : volumes) {
+            Files.createDirectories(volume);
+        }
+        if (volumes.size() < codec.getTotalShards()) {
+            log.warn("{} shards per file on {} volumes: losing one volume loses several shards",
+                    codec.getTotalShards(), volumes.size());
+        }
+        log.info("Initialized erasure coded store: {} data + {} parity shards on {}", codec.getDataShards(),
+                codec.getParityShards(), volumes);
+    }
+
+    @Override
+    public String initiateUpload(String userId, String uploadId, long fileSize, long chunkSize) {
+        return localStorageService.initiateUpload(userId, uploadId, fileSize, chunkSize);
+    }
+
+    @Override
+    public String generateSignedUrl(String uploadId, int chunkIndex) {
+        return localStorageService.generateSignedUrl(uploadId, chunkIndex);
+    }
+
+    @Override
+    public void completeUpload(String uploadId, long fileSize, long chunkSize) {
+        Path stagedFile = localStorageService.getFilePath(uploadId);
+        try {
+            if (!allShardsExist(uploadId)) {
+                localStorageService.completeUpload(uploadId, fileSize, chunkSize);
+                encode(uploadId, stagedFile);
+            } else {
+                log.info("Upload already erasure coded: {}", uploadId);
+            }
+            Files.deleteIfExists(stagedFile);
+        } catch (IOException e) {
+            log.error("Failed to erasure code upload {}", uploadId, e);
+            throw new RuntimeException("Failed to erasure code upload", e);
+        }
+    }
+
+    /**
+     * Writes every shard to a temp file, stripe by stripe with the shard
+     * writes of a stripe in parallel, and renames them into place once all
+     * are on disk.
+     */
+    private void encode(String storageKey, Path stagedFile) throws IOException {
+        int totalShards = codec.getTotalShards();
+        int dataShards = codec.getDataShards();
+        long fileSize = Files.size(stagedFile);
+        Path[] targets = shardPaths(storageKey);
+        Path[] temps = new Path[totalShards];
+        FileChannel[] outputs = new FileChannel[totalShards];
+        byte[][] cells = new byte[totalShards][cellSize + ErasureCodedChannel.CRC_LENGTH];
+        try (InputStream in = Files.newInputStream(stagedFile)) {
+            for (int i = 0; i < totalShards; i++) {
+                Files.createDirectories(targets[i].getParent());
+                temps[i] = targets[i].resolveSibling(targets[i].getFileName() + TEMP_SUFFIX);
+                outputs[i] = FileChannel.open(temps[i], StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING);
+                writeFully(outputs[i], ErasureCodedChannel.header(dataShards, codec.getParityShards(), i, cellSize,
+                        fileSize));
+            }
+            long stripes = ErasureCodedChannel.stripeCount(fileSize, dataShards, cellSize);
+            for (long stripe = 0; stripe < stripes; stripe++) {
+                for (int d = 0; d < dataShards; d++) {
+                    int read = in.readNBytes(cells[d], 0, cellSize);
+                    // The last stripe is padded with zeros
+                    Arrays.fill(cells[d], read, cellSize, (byte) 0);
+                }
+                codec.encodeParity(cells, 0, cellSize);
+                List<Future<?>> writes = new ArrayList<>(totalShards);
+                for (int i = 0; i < totalShards; i++) {
+                    byte[] cell = cells[i];
+                    FileChannel output = outputs[i];
+                    writes.add(executor.submit(() -> {
+                        ByteBuffer.wrap(cell, cellSize, ErasureCodedChannel.CRC_LENGTH)
+                                .putInt(ErasureCodedChannel.cellChecksum(cell, cellSize));
+                        writeFully(output, ByteBuffer.wrap(cell));
+                        return null;
+                    }));
+                }
+                await(writes);
+            }
+            List<Future<?>> syncs = new ArrayList<>(totalShards);
+            for (FileChannel output : outputs) {
+                syncs.add(executor.submit(() -> {
+                    output.force(true);
+                    return null;
+                }));
+            }
+            await(syncs);
+        } catch (IOException e) {
+            closeQuietly(outputs);
+            for (Path temp : temps) {
+                if (temp != null) {
+                    Files.deleteIfExists(temp);
+                }
+            }
+            throw e;
+        }
+        closeQuietly(outputs);
+        for (int i = 0; i < totalShards; i++) {
+            Files.move(temps[i], targets[i], ATOMIC_MOVE);
+        }
+        log.info("Erasure coded {}: {} bytes into {} shards", storageKey, fileSize, totalShards);
+    }
+
+    @Override
+    public void abortUpload(String uploadId) {
+        localStorageService.abortUpload(uploadId);
+    }
+
+    @Override
+    public BitSet storedChunks(String uploadId, int totalChunks) {
+        return localStorageService.storedChunks(uploadId, totalChunks);
+    }
+
+    @Override
+    public String generateDownloadUrl(String uploadId, String originalFileName) {
+        return localStorageService.generateDownloadUrl(uploadId, originalFileName);
+    }
+
+    @Override
+    public SeekableByteChannel openForRead(String storageKey) throws IOException {
+        try {
+            return ErasureCodedChannel.open(shardPaths(storageKey), executor);
+        } catch (NoSuchFileException e) {
+            // Uploads finished before erasure coding was enabled are plain files
+            return localStorageService.openForRead(storageKey);
+        }
+    }
+
+    @Override
+    public void deleteFile(String storageKey) {
+        boolean deleted = false;
+        try {
+            for (Path shard : shardPaths(storageKey)) {
+                deleted |= Files.deleteIfExists(shard);
+            }
+        } catch (IOException e) {
+            log.error("Failed to delete shards of {}", storageKey, e);
+            throw new RuntimeException("Failed to delete file", e);
+        }
+        if (!deleted) {
+            localStorageService.deleteFile(storageKey);
+            return;
+        }
+        log.info("Deleted erasure coded file {}", storageKey);
+    }
+
+    /**
+     * Starts a repair pass on the repair thread, unless one is still running,
+     * so the shared scheduler thread is never held by it.
+     */
+    @Scheduled(initialDelayString = "${erasure.repair.interval-ms:3600000}",
+            fixedDelayString = "${erasure.repair.interval-ms:3600000}")
+    public void repairAll() {
+        if (!repairing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            repairExecutor.execute(() -> {
+                try {
+                    repairPass();
+                } catch (RuntimeException e) {
+                    log.error("Erasure repair pass failed", e);
+                } finally {
+                    repairing.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Shutting down
+            repairing.set(false);
+        }
+    }
+
+    /**
+     * Rebuilds lost shards of every active file. Only files with a missing
+     * shard are read unless {@code erasure.repair.scrub} is set, in which case
+     * every shard of every file is verified. Storage keys are read in pages in
+     * key order, so items sharing a blob repair it once and no cursor stays
+     * open across the pass.
+     */
+    private void repairPass() {
+        int repaired = 0;
+        int failed = 0;
+        String lastKey = null;
+        List<StorageItem> page;
+        do {
+            Criteria criteria = Criteria.where("status").is(FileStatus.ACTIVE);
+            criteria = lastKey == null ? criteria.and("storageKey").ne(null) : criteria.and("storageKey").gt(lastKey);
+            Query query = new Query(criteria).with(Sort.by("storageKey")).limit(REPAIR_PAGE_SIZE);
+            query.fields().include("storageKey");
+            page = mongoTemplate.find(query, StorageItem.class);
+            for (StorageItem item : page) {
+                String storageKey = item.getStorageKey();
+                if (storageKey.equals(lastKey)) {
+                    continue;
+                }
+                lastKey = storageKey;
+                try {
+                    if (repair(storageKey) > 0) {
+                        repaired++;
+                    }
+                } catch (IOException e) {
+                    log.error("Failed to repair {}: {}", storageKey, e.getMessage());
+                    failed++;
+                }
+            }
+        } while (page.size() == REPAIR_PAGE_SIZE);
+        if (repaired > 0 || failed > 0) {
+            log.info("Erasure repair pass: {} files repaired, {} could not be", repaired, failed);
+        }
+    }
+
+    /**
+     * Rewrites the shards of a file that are missing or hold cells failing
+     * their checksum, decoding them from the intact ones. Returns the number
+     * of shards rebuilt plus the number of cells rewritten in place.
+     */
+    public int repair(String storageKey) throws IOException {
+        Path[] paths = shardPaths(storageKey);
+        if (!scrub && allShardsExist(storageKey)) {
+            return 0;
+        }
+        ErasureCodedChannel channel;
+        try {
+            channel = ErasureCodedChannel.open(paths, executor);
+        } catch (NoSuchFileException e) {
+            // Not erasure coded, or deleted since the scan started
+            return 0;
+        }
+        try (channel) {
+            int totalShards = channel.getTotalShards();
+            int cellLength = channel.getCellSize() + ErasureCodedChannel.CRC_LENGTH;
+            FileChannel[] rebuilt = new FileChannel[totalShards];
+            Path[] temps = new Path[totalShards];
+            try {
+                for (int i = 0; i < totalShards; i++) {
+                    if (!channel.isShardOpen(i)) {
+                        temps[i] = paths[i].resolveSibling(paths[i].getFileName() + TEMP_SUFFIX);
+                        Files.createDirectories(temps[i].getParent());
+                        rebuilt[i] = FileChannel.open(temps[i], StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                StandardOpenOption.TRUNCATE_EXISTING);
+                        writeFully(rebuilt[i], ErasureCodedChannel.header(channel.getDataShards(),
+                                totalShards - channel.getDataShards(), i, channel.getCellSize(), channel.size()));
+                    }
+                }
+                int patched = 0;
+                for (long stripe = 0; stripe < channel.getStripeCount(); stripe++) {
+                    channel.readStripe(stripe, true);
+                    for (int i = 0; i < totalShards; i++) {
+                        if (!channel.isShardOpen(i) || channel.isCellIntact(i)) {
+                            continue;
+                        }
+                        byte[] cell = channel.cell(i);
+                        ByteBuffer.wrap(cell, channel.getCellSize(), ErasureCodedChannel.CRC_LENGTH)
+                                .putInt(ErasureCodedChannel.cellChecksum(cell, channel.getCellSize()));
+                        try (FileChannel shard = FileChannel.open(paths[i], StandardOpenOption.WRITE)) {
+                            writeFully(shard, ByteBuffer.wrap(cell, 0, cellLength),
+                                    ErasureCodedChannel.shardOffset(stripe, channel.getCellSize()));
+                            shard.force(false);
+                        }
+                        patched++;
+                    }
+                    for (int i = 0; i < totalShards; i++) {
+                        if (rebuilt[i] != null) {
+                            byte[] cell = channel.cell(i);
+                            ByteBuffer.wrap(cell, channel.getCellSize(), ErasureCodedChannel.CRC_LENGTH)
+                                    .putInt(ErasureCodedChannel.cellChecksum(cell, channel.getCellSize()));
+                            writeFully(rebuilt[i], ByteBuffer.wrap(cell, 0, cellLength));
+                        }
+                    }
+                }
+                int restored = 0;
+                for (int i = 0; i < totalShards; i++) {
+                    if (rebuilt[i] != null) {
+                        rebuilt[i].force(true);
+                        rebuilt[i].close();
+                        rebuilt[i] = null;
+                        Files.move(temps[i], paths[i], ATOMIC_MOVE);
+                        restored++;
+                    }
+                }
+                if (restored > 0 || patched > 0) {
+                    log.info("Repaired {}: {} shards rebuilt, {} corrupt cells rewritten", storageKey, restored,
+                            patched);
+                }
+                return restored + patched;
+            } catch (IOException e) {
+                closeQuietly(rebuilt);
+                for (int i = 0; i < totalShards; i++) {
+                    if (rebuilt[i] != null && temps[i] != null) {
+                        Files.deleteIfExists(temps[i]);
+                    }
+                }
+                throw e;
+            }
+        }
+    }
+
+    private boolean allShardsExist(String storageKey) {
+        for (Path shard : shardPaths(storageKey)) {
+            if (!Files.exists(shard)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Path[] shardPaths(String storageKey) {
+        String id = LocalStorageService.uploadIdOf(storageKey);
+        Path[] paths = new Path[codec.getTotalShards()];
+        for (int i = 0; i < paths.length; i++) {
+            paths[i] = volumes.get(i % volumes.size())
+                    .resolve(id.substring(0, 2))
+                    .resolve(id.substring(2, 4))
+                    .resolve(storageKey + "." + i);
+        }
+        return paths;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static void await(List<Future<?>> futures) throws IOException {
+        IOException failure = null;
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while writing shards", e);
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void closeQuietly(FileChannel[] channels) {
+        for (FileChannel channel : channels) {
+            if (channel == null) {
+                continue;
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.warn("Failed to close shard file", e);
+            }
+        }
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        repairExecutor.shutdown();
+        executor.shutdown();
+    }
+}
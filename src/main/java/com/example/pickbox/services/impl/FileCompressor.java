@@ -0,0 +1,143 @@
+package com.example.pickbox.services.impl;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import com.example.pickbox.config.WorkerThreads;
+import com.example.pickbox.constants.CompressionCodec;
+import com.example.pickbox.constants.StorageType;
+import com.example.pickbox.models.StorageItem;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Compresses finished files at rest in the background. Files whose MIME type
+ * is already compressed, that are too small, or that do not shrink by at
+ * least {@code local.storage.compression.min-savings} are left as they are.
+ *
+ * The compressed blob is written next to the original, then every item
+ * sharing the storage key is switched to it, and only then is the original
+ * removed. A file deleted in the meantime keeps no compressed copy.
+ */
+@Component
+@Slf4j
+public class FileCompressor {
+    private final LocalStorageService localStorageService;
+
+    private final MongoTemplate mongoTemplate;
+
+    private final boolean enabled;
+
+    private final CompressionCodec codec;
+
+    private final int level;
+
+    private final long minSize;
+
+    private final double minSavings;
+
+    private final List<String> skipTypes;
+
+    private final ThreadPoolExecutor executor;
+
+    public FileCompressor(LocalStorageService localStorageService,
+            MongoTemplate mongoTemplate,
+            WorkerThreads workerThreads,
+            @Value("${storage.type}") String storageType,
+            @Value("${local.storage.compression.enabled:false}") boolean enabled,
+            @Value("${local.storage.compression.level:6}") int level,
+            @Value("${local.storage.compression.min-size:4096}") long minSize,
+            @Value("${local.storage.compression.min-savings:0.1}") double minSavings,
+            @Value("${local.storage.compression.skip-types:image/,video/,audio/,application/zip,application/gzip,"
+                    + "application/x-gzip,application/x-bzip2,application/x-xz,application/x-7z-compressed,"
+                    + "application/vnd.rar,application/x-rar-compressed,application/zstd,application/pdf,"
+                    + "application/vnd.openxmlformats-officedocument.,application/java-archive}") List<String> skipTypes,
+            @Value("${local.storage.compression.workers:2}") int workers,
+            @Value("${local.storage.compression.queue-capacity:1000}") int queueCapacity) {
+        this.localStorageService = localStorageService;
+        this.mongoTemplate = mongoTemplate;
+        // Dedup stores content as blocks, the local layout is the only one compressed here
+        this.enabled = enabled && StorageType.valueOf(storageType.toUpperCase()) == StorageType.LOCAL;
+        this.codec = CompressionCodec.GZIP;
+        this.level = level;
+        this.minSize = minSize;
+        this.minSavings = minSavings;
+        this.skipTypes = skipTypes.stream().map(type -> type.trim().toLowerCase(Locale.ROOT)).toList();
+        this.executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), workerThreads.factory("file-compression-"));
+    }
+
+    /**
+     * Queues compression of a newly stored file. Compression is best effort, a
+     * file that is not queued simply stays uncompressed.
+     */
+    public void submit(StorageItem item) {
+        if (!enabled || item.getCompression() != null || item.getSize() < minSize
+                || !isCompressible(item.getMimeType())) {
+            return;
+        }
+        try {
+            executor.execute(() -> compress(item.getStorageKey(), item.getSize()));
+        } catch (RejectedExecutionException e) {
+            log.warn("Compression queue is full, storing {} uncompressed", item.getStorageKey());
+        }
+    }
+
+    boolean isCompressible(String mimeType) {
+        if (mimeType == null) {
+            // Unknown content, the savings check decides
+            return true;
+        }
+        String type = mimeType.toLowerCase(Locale.ROOT);
+        return skipTypes.stream().noneMatch(type::startsWith);
+    }
+
+    private void compress(String storageKey, long size) {
+        long storedSize;
+        try {
+            storedSize = localStorageService.compress(storageKey, codec, level);
+        } catch (IOException e) {
+            log.warn("Failed to compress {}: {}", storageKey, e.getMessage());
+            return;
+        }
+        try {
+            if (storedSize > size * (1 - minSavings)) {
+                log.info("Compressing {} saves too little ({} -> {} bytes), keeping it as is", storageKey, size,
+                        storedSize);
+                localStorageService.discardCompressed(storageKey, codec);
+                return;
+            }
+            Query query = new Query(Criteria.where("storageKey").is(storageKey).and("compression").is(null));
+            Update update = new Update()
+                    .set("compression", codec)
+                    .set("storedSize", storedSize);
+            if (mongoTemplate.updateMulti(query, update, StorageItem.class).getModifiedCount() == 0) {
+                log.info("File {} was deleted while compressing", storageKey);
+                localStorageService.discardCompressed(storageKey, codec);
+                return;
+            }
+            localStorageService.discardUncompressed(storageKey);
+            log.info("Compressed {} with {}: {} -> {} bytes", storageKey, codec, size, storedSize);
+        } catch (IOException e) {
+            log.warn("Failed to switch {} to its compressed copy: {}", storageKey, e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        executor.shutdown();
+    }
+}
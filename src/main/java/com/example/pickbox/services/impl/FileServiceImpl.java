@@ -1,6 +1,10 @@
 package com.example.pickbox.services.impl;
 
+import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.NoSuchFileException;
 import java.time.Instant;
 import java.util.List;
 
@@ -8,9 +12,12 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import com.example.pickbox.constants.StorageType;
+import com.example.pickbox.dao.ChunkManifestRepository;
 import com.example.pickbox.dao.FileRepository;
 import com.example.pickbox.dtos.ItemDto;
+import com.example.pickbox.dtos.ThumbnailContent;
 import com.example.pickbox.models.FileStatus;
+import com.example.pickbox.models.FolderVersion;
 import com.example.pickbox.models.StorageItem;
 import com.example.pickbox.services.FileService;
 import com.example.pickbox.services.StorageService;
@@ -23,10 +30,22 @@ public class FileServiceImpl implements FileService {
 
     private final StorageService storageService;
 
+    private final ChunkManifestRepository chunkManifestRepository;
+
+    private final FolderVersions folderVersions;
+
+    private final ThumbnailGenerator thumbnailGenerator;
+
     public FileServiceImpl(FileRepository fileRepository, 
         StorageServiceFactory storageServiceFactory,
+        ChunkManifestRepository chunkManifestRepository,
+        FolderVersions folderVersions,
+        ThumbnailGenerator thumbnailGenerator,
         @Value("${storage.type}") String storageType) {
         this.fileRepository = fileRepository;
+        this.chunkManifestRepository = chunkManifestRepository;
+        this.folderVersions = folderVersions;
+        this.thumbnailGenerator = thumbnailGenerator;
         this.storageService = storageServiceFactory.getStorageService(StorageType.valueOf(storageType.toUpperCase()));
     }
 
@@ -52,6 +71,7 @@ public class FileServiceImpl implements FileService {
                 .build();
 
         StorageItem savedFolder = fileRepository.save(folder);
+        folderVersions.bump(userId, parentId);
         return mapToDto(savedFolder);
     }
 
@@ -69,6 +89,16 @@ public class FileServiceImpl implements FileService {
                 .toList();
     }
 
+    @Override
+    public FolderVersion getListingVersion(String parentId, String userId) {
+        return folderVersions.current(userId, parentId);
+    }
+
+    @Override
+    public FolderVersion getAllFilesVersion(String userId) {
+        return folderVersions.currentAllFiles(userId);
+    }
+
     @Override
     public ItemDto getFile(String id, String userId) {
         StorageItem item = fileRepository.findById(id)
@@ -94,9 +124,46 @@ public class FileServiceImpl implements FileService {
                 .size(item.getSize())
                 .createdAt(item.getCreatedAt())
                 .updatedAt(item.getUpdatedAt())
+                .thumbnailSizes(thumbnailSizes(item))
                 .build();
     }
 
+    private static List<Integer> thumbnailSizes(StorageItem item) {
+        if (item.getThumbnailKeys() == null) {
+            return List.of();
+        }
+        return item.getThumbnailKeys().keySet().stream().map(Integer::valueOf).sorted().toList();
+    }
+
+    @Override
+    public ThumbnailContent getThumbnail(String id, String userId, int size) {
+        StorageItem item = fileRepository.findById(id)
+                .orElseThrow(() -> new RuntimeException("File not found"));
+        if (!item.getOwnerUserId().equals(userId)) {
+            throw new RuntimeException("Unauthorized access to file");
+        }
+        List<Integer> sizes = thumbnailSizes(item);
+        if (sizes.isEmpty()) {
+            return null;
+        }
+        // The smallest one at least as large as asked for, or the largest there is
+        int served = sizes.stream().filter(available -> available >= size).findFirst()
+                .orElse(sizes.get(sizes.size() - 1));
+        try {
+            SeekableByteChannel channel = thumbnailGenerator.open(item.getStorageKey(),
+                    item.getThumbnailKeys().get(String.valueOf(served)));
+            return ThumbnailContent.builder()
+                    .size(served)
+                    .length(channel.size())
+                    .content(Channels.newInputStream(channel))
+                    .build();
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read thumbnail", e);
+        }
+    }
+
     @Override
     public void getFileContent(String id, String userId, OutputStream os) {
         StorageItem item = fileRepository.findById(id)
@@ -111,4 +178,32 @@ public class FileServiceImpl implements FileService {
             throw new RuntimeException("File is too large to preview");
         }
     }
+
+    @Override
+    public void deleteFile(String id, String userId) {
+        StorageItem item = fileRepository.findById(id)
+                .orElseThrow(() -> new RuntimeException("File not found"));
+        if (!item.getOwnerUserId().equals(userId)) {
+            throw new RuntimeException("Unauthorized access to file");
+        }
+        if (item.getType() == 'D') {
+            if (fileRepository.existsByParentId(id)) {
+                throw new RuntimeException("Folder is not empty");
+            }
+            fileRepository.delete(item);
+            folderVersions.bump(userId, item.getParentId());
+            folderVersions.remove(userId, id);
+            return;
+        }
+        // Drop the record first so nothing points at content that is being released
+        fileRepository.delete(item);
+        folderVersions.bump(userId, item.getParentId());
+        String storageKey = item.getStorageKey() != null ? item.getStorageKey() : item.getId();
+        // Content linked by hash is shared between items, release it with the last one
+        if (!fileRepository.existsByStorageKey(storageKey)) {
+            storageService.deleteFile(storageKey);
+            chunkManifestRepository.deleteById(storageKey);
+            thumbnailGenerator.discard(storageKey);
+        }
+    }
 }
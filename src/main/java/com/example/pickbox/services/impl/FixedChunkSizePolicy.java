@@ -0,0 +1,22 @@
+package com.example.pickbox.services.impl;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import com.example.pickbox.services.ChunkSizePolicy;
+
+@Component
+@ConditionalOnProperty(name = "chunk.size-policy", havingValue = "fixed")
+public class FixedChunkSizePolicy implements ChunkSizePolicy {
+    private final long chunkSize;
+
+    public FixedChunkSizePolicy(@Value("${chunk.size}") long chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    @Override
+    public long chunkSizeFor(long fileSize) {
+        return chunkSize;
+    }
+}
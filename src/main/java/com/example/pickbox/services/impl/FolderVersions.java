@@ -0,0 +1,69 @@
+package com.example.pickbox.services.impl;
+
+import java.time.Instant;
+
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import com.example.pickbox.models.FolderVersion;
+
+/**
+ * Change versions of folder listings, the validators behind their weak
+ * ETags. Every change to a folder's children bumps that folder and the
+ * owner's list of all files; a folder nothing was recorded for yet is at
+ * version 0.
+ *
+ * Bumps happen after the change is written, so a listing read in between
+ * carries the old version and is simply fetched again next time.
+ */
+@Component
+public class FolderVersions {
+    private static final String ROOT = "root";
+
+    private static final String ALL_FILES = "*";
+
+    private final MongoTemplate mongoTemplate;
+
+    public FolderVersions(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    /**
+     * Records a change to the children of {@code folderId}, null for the
+     * owner's root.
+     */
+    public void bump(String ownerUserId, String folderId) {
+        Instant now = Instant.now();
+        increment(key(ownerUserId, folderId), now);
+        increment(key(ownerUserId, ALL_FILES), now);
+    }
+
+    public FolderVersion current(String ownerUserId, String folderId) {
+        return find(key(ownerUserId, folderId));
+    }
+
+    public FolderVersion currentAllFiles(String ownerUserId) {
+        return find(key(ownerUserId, ALL_FILES));
+    }
+
+    public void remove(String ownerUserId, String folderId) {
+        mongoTemplate.remove(new Query(Criteria.where("_id").is(key(ownerUserId, folderId))), FolderVersion.class);
+    }
+
+    private void increment(String id, Instant now) {
+        Update update = new Update().inc("version", 1).max("modifiedAt", now);
+        mongoTemplate.upsert(new Query(Criteria.where("_id").is(id)), update, FolderVersion.class);
+    }
+
+    private FolderVersion find(String id) {
+        FolderVersion version = mongoTemplate.findById(id, FolderVersion.class);
+        return version != null ? version : FolderVersion.builder().id(id).version(0).build();
+    }
+
+    private static String key(String ownerUserId, String folderId) {
+        return ownerUserId + ":" + (folderId == null || folderId.isEmpty() ? ROOT : folderId);
+    }
+}
@@ -0,0 +1,108 @@
+package com.example.pickbox.services.impl;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import com.example.pickbox.models.ChunkMetadata;
+import com.example.pickbox.models.FileStatus;
+import com.example.pickbox.models.UploadChunk;
+import com.example.pickbox.models.UploadMetadata;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Converts uploads recorded before the completion bitmap, which list their
+ * chunks in {@code completedChunks}, to the bitmap layout. All open uploads
+ * are converted before the server takes requests; a document written later
+ * by an older instance is converted when it is first read.
+ */
+@Component
+@Slf4j
+public class LegacyUploadMigrator {
+    private final MongoTemplate mongoTemplate;
+
+    public LegacyUploadMigrator(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    @PostConstruct
+    public void migrateOpenUploads() {
+        Query query = new Query(Criteria.where("completedBitmap").exists(false)
+                .and("status").in(FileStatus.UPLOADING, FileStatus.COMPLETING));
+        List<UploadMetadata> legacy = mongoTemplate.find(query, UploadMetadata.class);
+        for (UploadMetadata uploadMetadata : legacy) {
+            migrate(uploadMetadata);
+        }
+        if (!legacy.isEmpty()) {
+            log.info("Converted {} uploads to the completion bitmap", legacy.size());
+        }
+    }
+
+    /**
+     * Returns the upload in the bitmap layout, converting it first when it
+     * still lists its chunks.
+     */
+    public UploadMetadata migrate(UploadMetadata uploadMetadata) {
+        if (uploadMetadata.getCompletedBitmap() != null) {
+            return uploadMetadata;
+        }
+        String uploadId = uploadMetadata.getUploadId();
+        long totalChunks = uploadMetadata.getTotalChunks();
+        Map<Integer, ChunkMetadata> byIndex = new HashMap<>();
+        if (uploadMetadata.getCompletedChunks() != null) {
+            for (ChunkMetadata chunk : uploadMetadata.getCompletedChunks()) {
+                if (chunk.getChunkIndex() >= 0 && chunk.getChunkIndex() < totalChunks) {
+                    byIndex.putIfAbsent(chunk.getChunkIndex(), chunk);
+                }
+            }
+        }
+
+        // Chunk records first, so a bit is never set without its record
+        if (!byIndex.isEmpty()) {
+            BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, UploadChunk.class);
+            Instant now = Instant.now();
+            byIndex.forEach((index, chunk) -> bulk.upsert(
+                    new Query(Criteria.where("_id").is(UploadChunk.idFor(uploadId, index))),
+                    new Update().set("uploadId", uploadId)
+                            .set("chunkIndex", index)
+                            .setOnInsert("storageId", chunk.getStorageId())
+                            .setOnInsert("checksum", chunk.getChecksum())
+                            .setOnInsert("createdAt", now)));
+            bulk.execute();
+        }
+
+        BitSet completed = new BitSet();
+        byIndex.keySet().forEach(completed::set);
+        long[] words = completed.toLongArray();
+        List<Long> bitmap = new ArrayList<>();
+        for (int word = 0; word < (totalChunks + 63) / 64; word++) {
+            bitmap.add(word < words.length ? words[word] : 0L);
+        }
+        Query query = new Query(Criteria.where("_id").is(uploadId).and("completedBitmap").exists(false));
+        Update update = new Update()
+                .set("completedBitmap", bitmap)
+                .set("completedCount", completed.cardinality())
+                .unset("completedChunks");
+        // Whoever converts first wins, the others read the result
+        mongoTemplate.updateFirst(query, update, UploadMetadata.class);
+        UploadMetadata migrated = mongoTemplate.findById(uploadId, UploadMetadata.class);
+        if (migrated == null) {
+            throw new IllegalArgumentException("Upload already deleted or completed or aborted");
+        }
+        log.info("Converted upload {} to the completion bitmap, {} chunks recorded", uploadId,
+                completed.cardinality());
+        return migrated;
+    }
+}
@@ -0,0 +1,124 @@
+package com.example.pickbox.services.impl;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.example.pickbox.config.WorkerThreads;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Moves finished files written before {@code local.storage.fan-out-levels}
+ * was set from the flat upload directory into their shards. It runs in the
+ * background after startup and then every
+ * {@code local.storage.migration.interval-ms} while the service keeps
+ * serving: reads find a file in either place, new uploads already go to the
+ * sharded layout, and uploads that were in flight finish flat and are picked
+ * up by the next run. The directory is read as files are moved, so memory
+ * does not grow with its size. Moves are renames within one file system,
+ * rate limited by {@code local.storage.migration.max-files-per-second}.
+ */
+@Component
+@Slf4j
+public class LocalLayoutMigrator {
+    private final LocalStorageService localStorageService;
+
+    private final boolean enabled;
+
+    private final long pauseNanos;
+
+    private final ExecutorService executor;
+
+    // A slow run must not overlap the next one
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    public LocalLayoutMigrator(LocalStorageService localStorageService,
+            WorkerThreads workerThreads,
+            @Value("${local.storage.migration.enabled:false}") boolean enabled,
+            @Value("${local.storage.migration.max-files-per-second:200}") int maxFilesPerSecond) {
+        this.localStorageService = localStorageService;
+        this.enabled = enabled && localStorageService.isSharded();
+        this.pauseNanos = TimeUnit.SECONDS.toNanos(1) / Math.max(1, maxFilesPerSecond);
+        this.executor = Executors.newSingleThreadExecutor(workerThreads.factory("layout-migration-"));
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        submit();
+    }
+
+    @Scheduled(initialDelayString = "${local.storage.migration.interval-ms:3600000}",
+            fixedDelayString = "${local.storage.migration.interval-ms:3600000}")
+    public void submit() {
+        if (!enabled || !running.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    migrate();
+                } finally {
+                    running.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Shutting down
+            running.set(false);
+        }
+    }
+
+    void migrate() {
+        int moved = 0;
+        int skipped = 0;
+        try (DirectoryStream<Path> files = localStorageService.openFlatFiles()) {
+            for (Path path : files) {
+                String file = path.getFileName().toString();
+                if (moved + skipped == 0) {
+                    log.info("Layout migration started");
+                }
+                try {
+                    if (localStorageService.migrateFlatFile(file)) {
+                        moved++;
+                    } else {
+                        skipped++;
+                    }
+                    TimeUnit.NANOSECONDS.sleep(pauseNanos);
+                } catch (IOException e) {
+                    log.warn("Layout migration failed for {}: {}", file, e.getMessage());
+                    skipped++;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    log.info("Layout migration interrupted after moving {} files", moved);
+                    return;
+                }
+                if ((moved + skipped) % 10000 == 0) {
+                    log.info("Layout migration progress: {} files moved, {} left", moved, skipped);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            log.error("Layout migration could not read the upload directory", e);
+            return;
+        }
+        if (moved + skipped > 0) {
+            log.info("Layout migration finished: {} moved, {} left for a later run", moved, skipped);
+        }
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        executor.shutdownNow();
+    }
+}
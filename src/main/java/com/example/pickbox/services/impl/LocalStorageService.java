@@ -1,17 +1,40 @@
 package com.example.pickbox.services.impl;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
 import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Instant;
 import java.util.Base64;
+import java.util.BitSet;
 import java.util.Comparator;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import javax.crypto.Mac;
 import javax.crypto.spec.SecretKeySpec;
@@ -19,7 +42,12 @@ import javax.crypto.spec.SecretKeySpec;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import com.example.pickbox.constants.CompressionCodec;
+import com.example.pickbox.constants.LocalWriteMode;
+import com.example.pickbox.exceptions.ChecksumMismatchException;
+import com.example.pickbox.models.ChunkMetadata;
 import com.example.pickbox.services.StorageService;
+import com.example.pickbox.utils.ChecksumUtils;
 
 import jakarta.annotation.PostConstruct;
 import lombok.extern.slf4j.Slf4j;
@@ -27,16 +55,64 @@ import lombok.extern.slf4j.Slf4j;
 @Service
 @Slf4j
 public class LocalStorageService implements StorageService {
-    private final String uploadDirectory;
-
     private final String baseUploadUrl;
 
     private final String secretKey;
 
     private final String baseUrl;
 
+    private final LocalWriteMode writeMode;
+
+    private final boolean fallocate;
+
+    // Directory levels between a volume root and an upload's files, two hex chars each
+    private final int fanOutLevels;
+
     private static final String TEMP_CHUNK_DIR = ".tmp";
 
+    private static final String PREALLOCATED_SUFFIX = ".part";
+
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    // Storage keys are the upload id, prefixed with "<volume>-" outside the default volume
+    private static final Pattern STORAGE_KEY_PATTERN = Pattern.compile("(?:([a-z0-9]{1,16})-)?([0-9a-f]{32})");
+
+    private static final Pattern VOLUME_NAME_PATTERN = Pattern.compile("[a-z0-9]{1,16}");
+
+    // Finished files in the flat layout, <storageKey> or <storageKey>.gz
+    private static final Pattern FINISHED_FILE_PATTERN = Pattern.compile("([0-9a-f]{32})(?:\\.gz)?");
+
+    private static final Pattern SHARD_NAME_PATTERN = Pattern.compile("[0-9a-f]{2}");
+
+    private static final Pattern HEX_PATTERN = Pattern.compile("[0-9a-f]+");
+
+    // Files derived from a blob, e.g. thumbnails, are stored as <storageKey>.derived-<name>
+    private static final String DERIVED_INFIX = ".derived-";
+
+    private static final Pattern DERIVED_NAME_PATTERN = Pattern.compile("[a-z0-9][a-z0-9.-]{0,63}");
+
+    // .tmp<storageKey> chunk directories, <storageKey>.tmp merge files, <storageKey>.part files
+    // and <storageKey>.gz.tmp files of an interrupted compression
+    private static final Pattern TEMP_DATA_PATTERN = Pattern.compile(
+            "\\.tmp((?:[a-z0-9]{1,16}-)?[0-9a-f]{32})|((?:[a-z0-9]{1,16}-)?[0-9a-f]{32})(?:\\.gz)?\\.(?:tmp|part)");
+
+    // Holds legacy keys without a volume prefix, and new uploads when no volumes are configured
+    private final Volume defaultVolume;
+
+    // Volumes new uploads are placed on
+    private final List<Volume> placementVolumes;
+
+    private final Map<String, Volume> volumesByName = new HashMap<>();
+
+    // Volume chosen for an upload at admission, taken by its initiation
+    private final Map<String, Volume> placements = new ConcurrentHashMap<>();
+
+    // Slower tier cold files are moved to, null when tiering is off
+    private final Path coldRoot;
+
+    // Chunk writes in progress, lets background jobs back off while uploads are running
+    private final AtomicInteger activeWrites = new AtomicInteger();
+
     /**
      * File Permissions: rw------- (600)
      * Why:
@@ -52,27 +128,79 @@ public class LocalStorageService implements StorageService {
     public LocalStorageService(@Value("${local.storage.path}") String uploadDirectory,
             @Value("${local.upload.url}") String baseUploadUrl,
             @Value("${local.storage.secret-key}") String secretKey,
-            @Value("${local.base.url}") String baseUrl) {
-        this.uploadDirectory = uploadDirectory;
+            @Value("${local.base.url}") String baseUrl,
+            @Value("${local.storage.write-mode:chunked}") String writeMode,
+            @Value("${local.storage.fallocate:false}") boolean fallocate,
+            @Value("${local.storage.fan-out-levels:2}") int fanOutLevels,
+            @Value("${local.storage.volumes:}") List<String> volumes,
+            @Value("${local.storage.cold-path:}") String coldPath) {
         this.baseUploadUrl = baseUploadUrl;
         this.secretKey = secretKey;
         this.baseUrl = baseUrl;
+        this.writeMode = LocalWriteMode.valueOf(writeMode.toUpperCase());
+        this.fallocate = fallocate;
+        if (fanOutLevels < 0 || fanOutLevels > 4) {
+            throw new IllegalArgumentException("local.storage.fan-out-levels must be between 0 and 4");
+        }
+        this.fanOutLevels = fanOutLevels;
+        this.defaultVolume = new Volume("", Path.of(uploadDirectory));
+        List<Volume> configured = new ArrayList<>();
+        for (String volume : volumes) {
+            if (volume.isBlank()) {
+                continue;
+            }
+            String[] parts = volume.trim().split("=", 2);
+            if (parts.length != 2 || !VOLUME_NAME_PATTERN.matcher(parts[0]).matches()) {
+                throw new IllegalArgumentException(
+                        "local.storage.volumes entries must be <name>=<path> with a lowercase alphanumeric name: "
+                                + volume);
+            }
+            if (volumesByName.containsKey(parts[0])) {
+                throw new IllegalArgumentException("Duplicate volume name: " + parts[0]);
+            }
+            Volume configuredVolume = new Volume(parts[0], Path.of(parts[1]));
+            volumesByName.put(parts[0], configuredVolume);
+            configured.add(configuredVolume);
+        }
+        this.placementVolumes = configured.isEmpty() ? List.of(defaultVolume) : List.copyOf(configured);
+        this.coldRoot = coldPath.isBlank() ? null : Path.of(coldPath);
     }
 
     @PostConstruct
     private void init() {
-        Path uploadDir = Path.of(uploadDirectory);
-        if (!uploadDir.toFile().exists()) {
-            boolean created = uploadDir.toFile().mkdirs();
-            log.info("Initialized upload directory: {}, created: {}", uploadDirectory, created);
+        List<Volume> volumes = new ArrayList<>(volumesByName.values());
+        volumes.add(defaultVolume);
+        if (coldRoot != null) {
+            volumes.add(new Volume("cold", coldRoot));
+        }
+        for (Volume volume : volumes) {
+            if (!volume.root.toFile().exists()) {
+                boolean created = volume.root.toFile().mkdirs();
+                log.info("Initialized upload directory: {}, created: {}", volume.root, created);
+            }
         }
+        log.info("Placing uploads on volumes: {}", placementVolumes.stream().map(volume -> volume.root).toList());
     }
 
     @Override
-    public String initiateUpload(String userId, String uploadId) {
-        log.info("Initiating local upload. UserId: {}, UploadId: {}", userId, uploadId);
-        // Correctly construct the temp chunk path relative to uploadDirectory
-        Path tempChunkPath = Path.of(uploadDirectory, TEMP_CHUNK_DIR + uploadId);
+    public String initiateUpload(String userId, String uploadId, long fileSize, long chunkSize) {
+        Volume volume = placements.remove(uploadId);
+        if (volume == null) {
+            volume = placementVolumes.size() == 1 ? placementVolumes.get(0)
+                    : choosePlacement(stagingBytesFor(fileSize), Map.of(), 0);
+        }
+        if (volume == null) {
+            log.error("No volume has {} bytes free for a new upload", stagingBytesFor(fileSize));
+            throw new RuntimeException("No storage volume has room for this upload");
+        }
+        String storageKey = volume.name.isEmpty() ? uploadId : volume.name + "-" + uploadId;
+        log.info("Initiating local upload. UserId: {}, UploadId: {}, mode: {}, volume: {}", userId, uploadId,
+                writeMode, volume.root);
+        if (writeMode == LocalWriteMode.PREALLOCATED) {
+            preallocate(storageKey, fileSize);
+            return storageKey;
+        }
+        Path tempChunkPath = shardDir(storageKey).resolve(TEMP_CHUNK_DIR + storageKey);
         try {
             boolean created = tempChunkPath.toFile().mkdirs();
             log.info("Created temp chunk directory: {}, success: {}", tempChunkPath, created);
@@ -80,21 +208,172 @@ public class LocalStorageService implements StorageService {
             log.error("Failed to create temp chunk directory: {}", tempChunkPath, e);
             throw new RuntimeException(e);
         }
-        return uploadId;
+        return storageKey;
+    }
+
+    /**
+     * Picks the volume for a new upload and holds it for the upload's
+     * initiation. A volume has room when its free space, less what uploads
+     * placed on it have yet to write ({@code reservedByVolume}, by volume
+     * name) and {@code minFreeBytes}, still fits the upload. Returns the
+     * volume's name, or null when no volume has room.
+     */
+    public String placeUpload(String uploadId, long fileSize, Map<String, Long> reservedByVolume,
+            long minFreeBytes) {
+        Volume volume = choosePlacement(stagingBytesFor(fileSize), reservedByVolume, minFreeBytes);
+        if (volume == null) {
+            return null;
+        }
+        placements.put(uploadId, volume);
+        return volume.name;
+    }
+
+    /**
+     * Drops the volume held for an upload that is not going to be initiated.
+     */
+    public void releasePlacement(String uploadId) {
+        placements.remove(uploadId);
+    }
+
+    /**
+     * The name of the volume a storage key was placed on, empty for the
+     * default volume.
+     */
+    public String volumeNameOf(String storageKey) {
+        Matcher matcher = STORAGE_KEY_PATTERN.matcher(storageKey);
+        return matcher.matches() && matcher.group(1) != null ? matcher.group(1) : defaultVolume.name;
+    }
+
+    /**
+     * Among the volumes with room for {@code needed} bytes, the one with the
+     * most room per chunk write in flight, so that writes spread over the
+     * disks and fuller disks fill up more slowly.
+     */
+    private Volume choosePlacement(long needed, Map<String, Long> reservedByVolume, long minFreeBytes) {
+        Volume best = null;
+        double bestScore = -1;
+        for (Volume volume : placementVolumes) {
+            long usable = volume.usableSpace();
+            if (usable < 0) {
+                continue;
+            }
+            long available = usable - reservedByVolume.getOrDefault(volume.name, 0L) - minFreeBytes;
+            if (available < needed) {
+                continue;
+            }
+            double score = (double) available / (1 + volume.activeWrites.get());
+            if (score > bestScore) {
+                best = volume;
+                bestScore = score;
+            }
+        }
+        return best;
     }
 
     @Override
     public String generateSignedUrl(String uploadId, int chunkIndex) {
-        return baseUploadUrl + "/" + uploadId + "/" + chunkIndex;
+        // Chunks are posted to LocalFileUploadController, which takes the upload id
+        return baseUploadUrl + "/chunk/" + uploadIdOf(uploadId) + "/" + chunkIndex;
+    }
+
+    /**
+     * Creates a sparse file of the final size so that chunks can be written in
+     * place at {@code chunkIndex * chunkSize}. Only the blocks actually written
+     * take up disk space until the upload completes, unless
+     * {@code local.storage.fallocate} is set, in which case every block is
+     * allocated up front and a full disk fails here instead of mid-upload.
+     */
+    private void preallocate(String uploadId, long fileSize) {
+        Path partFile = shardDir(uploadId).resolve(uploadId + PREALLOCATED_SUFFIX);
+        try {
+            Files.createDirectories(partFile.getParent());
+        } catch (IOException e) {
+            log.error("Failed to create directory for upload file: {}", partFile, e);
+            throw new RuntimeException(e);
+        }
+        try (RandomAccessFile file = new RandomAccessFile(partFile.toFile(), "rw")) {
+            file.setLength(fileSize);
+            Files.setPosixFilePermissions(partFile, PosixFilePermissions.fromString(FILE_PERMISSIONS_STRING));
+        } catch (Exception e) {
+            log.error("Failed to preallocate upload file: {}", partFile, e);
+            throw new RuntimeException(e);
+        }
+        if (fallocate) {
+            try {
+                allocateBlocks(partFile, fileSize);
+            } catch (IOException e) {
+                log.error("Failed to allocate blocks for upload file: {}", partFile, e);
+                try {
+                    Files.deleteIfExists(partFile);
+                } catch (IOException ignored) {
+                    // Left for the reconciler
+                }
+                throw new RuntimeException(e);
+            }
+        }
+        log.info("Preallocated upload file: {}, size: {}, allocated: {}", partFile, fileSize, fallocate);
+    }
+
+    /**
+     * The JDK has no fallocate, so this goes through util-linux. Unlike
+     * writing zeros it allocates the extents without any data I/O.
+     */
+    private static void allocateBlocks(Path file, long length) throws IOException {
+        Process process = new ProcessBuilder("fallocate", "-l", Long.toString(length), file.toString())
+                .redirectErrorStream(true)
+                .start();
+        try {
+            String output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8).trim();
+            if (process.waitFor() != 0) {
+                throw new IOException("fallocate failed: " + output);
+            }
+        } catch (InterruptedException e) {
+            process.destroy();
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while allocating " + file, e);
+        }
+    }
+
+    /**
+     * Disk space an upload of {@code fileSize} needs while it is in progress.
+     * Chunk files and the merged file coexist until the merge is done, so the
+     * chunked layout needs twice the size.
+     */
+    public long stagingBytesFor(long fileSize) {
+        return writeMode == LocalWriteMode.CHUNKED ? 2 * fileSize : fileSize;
+    }
+
+    /**
+     * Whether initiation already claims the upload's disk blocks.
+     */
+    public boolean allocatesOnInitiate() {
+        return fallocate && writeMode == LocalWriteMode.PREALLOCATED;
     }
 
     @Override
-    public void completeUpload(String uploadId) {
+    public void completeUpload(String uploadId, long fileSize, long chunkSize) {
         log.info("Completing local upload: {}", uploadId);
-        Path finalFilePath = Path.of(uploadDirectory, uploadId);
-        Path tempChunkPath = Path.of(uploadDirectory, TEMP_CHUNK_DIR + uploadId);
-        Path tempMergeFile = Path.of(uploadDirectory, uploadId + TEMP_CHUNK_DIR);
+        Path finalFilePath = locate(uploadId, uploadId);
+        Path tempChunkPath = locate(uploadId, TEMP_CHUNK_DIR + uploadId);
+        Path partFile = getPartFilePath(uploadId);
+        if (Files.exists(partFile)) {
+            finalizePreallocated(uploadId, partFile, finalFilePath);
+            return;
+        }
+        if (Files.exists(finalFilePath) && !Files.exists(tempChunkPath)) {
+            // A previous attempt already finalized this upload
+            log.info("Upload already finalized: {}", uploadId);
+            return;
+        }
+        Path tempMergeFile = locate(uploadId, uploadId + TEMP_CHUNK_DIR);
 
+        try {
+            Files.createDirectories(tempMergeFile.getParent());
+            Files.createDirectories(finalFilePath.getParent());
+        } catch (IOException e) {
+            log.error("Failed to create directory for upload: {}", uploadId, e);
+            throw new RuntimeException("Failed to merge chunks", e);
+        }
         try (OutputStream outputStream = Files.newOutputStream(tempMergeFile);
                 Stream<Path> chunkPaths = Files.list(tempChunkPath)) {
 
@@ -155,15 +434,51 @@ public class LocalStorageService implements StorageService {
         }
     }
 
+    /**
+     * Chunks were already written in place, so completion is an fsync and a
+     * rename regardless of the file size.
+     */
+    private void finalizePreallocated(String uploadId, Path partFile, Path finalFilePath) {
+        try (FileChannel channel = FileChannel.open(partFile, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        } catch (Exception e) {
+            log.error("Failed to sync preallocated file for upload: {}", uploadId, e);
+            throw new RuntimeException("Failed to sync upload file", e);
+        }
+        try {
+            // A part file from before the sharded layout finishes into its shard
+            Files.createDirectories(finalFilePath.getParent());
+            Files.move(partFile, finalFilePath, ATOMIC_MOVE);
+            log.info("Moved preallocated file to final destination: {}", finalFilePath);
+        } catch (Exception e) {
+            log.error("Failed to move preallocated file to final destination", e);
+            throw new RuntimeException("Failed to finalize upload file", e);
+        }
+    }
+
     @Override
     public void abortUpload(String uploadId) {
         log.info("Aborting local upload: {}", uploadId);
-        Path filePath = Path.of(uploadDirectory, uploadId);
-        Path tempMergeFile = Path.of(uploadDirectory, uploadId + TEMP_CHUNK_DIR);
-        Path tempChunkPath = Path.of(uploadDirectory, TEMP_CHUNK_DIR + uploadId);
         try {
-            Files.deleteIfExists(filePath);
-            Files.deleteIfExists(tempMergeFile);
+            deleteEverywhere(uploadId, uploadId);
+            deleteTempData(uploadId);
+            log.info("Aborted upload and cleaned up files: {}", uploadId);
+        } catch (Exception e) {
+            log.error("Failed to abort upload: {}", uploadId, e);
+        }
+    }
+
+    /**
+     * Removes everything an upload leaves behind before it is finalized (chunk
+     * directory, merge file, preallocated file) but never the final file.
+     */
+    public void deleteTempData(String uploadId) throws IOException {
+        deleteEverywhere(uploadId, uploadId + TEMP_CHUNK_DIR);
+        deleteEverywhere(uploadId, uploadId + PREALLOCATED_SUFFIX);
+        for (CompressionCodec codec : CompressionCodec.values()) {
+            deleteEverywhere(uploadId, uploadId + codec.getSuffix() + TEMP_CHUNK_DIR);
+        }
+        for (Path tempChunkPath : candidates(uploadId, TEMP_CHUNK_DIR + uploadId)) {
             if (Files.exists(tempChunkPath)) {
                 try (Stream<Path> paths = Files.walk(tempChunkPath)) {
                     paths.sorted(Comparator.reverseOrder())
@@ -171,24 +486,247 @@ public class LocalStorageService implements StorageService {
                             .forEach(java.io.File::delete);
                 }
             }
-            log.info("Aborted upload and cleaned up files: {}", uploadId);
-        } catch (Exception e) {
-            log.error("Failed to abort upload: {}", uploadId, e);
         }
     }
 
-    public String uploadChunk(String uploadId, int chunkIndex, InputStream inputStream) {
+    /**
+     * Storage keys that have temp data on any volume, with the latest
+     * modification time of that data.
+     */
+    public Map<String, Instant> listTempUploads() throws IOException {
+        Map<String, Instant> uploads = new HashMap<>();
+        List<Path> directories = new ArrayList<>(blobDirectories(defaultVolume.root));
+        for (Volume volume : volumesByName.values()) {
+            try {
+                directories.addAll(blobDirectories(volume.root));
+            } catch (IOException e) {
+                log.warn("Could not list volume {}: {}", volume.root, e.getMessage());
+            }
+        }
+        for (Path directory : directories) {
+            try (Stream<Path> paths = Files.list(directory)) {
+                paths.forEach(path -> {
+                    String uploadId = tempUploadId(path.getFileName().toString());
+                    if (uploadId == null) {
+                        return;
+                    }
+                    try {
+                        Instant modified = Files.getLastModifiedTime(path).toInstant();
+                        uploads.merge(uploadId, modified, (a, b) -> a.isAfter(b) ? a : b);
+                    } catch (IOException e) {
+                        // Removed while listing
+                    }
+                });
+            } catch (NoSuchFileException e) {
+                // Shard removed while listing
+            }
+        }
+        return uploads;
+    }
+
+    /**
+     * Whether finished files are stored in shard directories, so files in
+     * the flat layout have somewhere to move to.
+     */
+    public boolean isSharded() {
+        return fanOutLevels > 0;
+    }
+
+    /**
+     * Finished files still in the flat layout. The directory is read as the
+     * stream is iterated, it is never listed in full; files moved meanwhile
+     * may or may not be returned.
+     */
+    public DirectoryStream<Path> openFlatFiles() throws IOException {
+        return Files.newDirectoryStream(defaultVolume.root,
+                path -> FINISHED_FILE_PATTERN.matcher(path.getFileName().toString()).matches()
+                        && Files.isRegularFile(path));
+    }
+
+    /**
+     * Moves one finished file from the flat layout into its shard. The rename
+     * is atomic, and readers fall back to the other location when a file moves
+     * between lookup and open, so this can run while the service is live.
+     * Files whose upload still has temp data in the flat layout are left for a
+     * later pass. Returns whether the file was moved.
+     */
+    public boolean migrateFlatFile(String fileName) throws IOException {
+        Matcher matcher = FINISHED_FILE_PATTERN.matcher(fileName);
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("Not a stored file name: " + fileName);
+        }
+        String storageKey = matcher.group(1);
+        Path root = defaultVolume.root;
+        if (Files.exists(root.resolve(TEMP_CHUNK_DIR + storageKey))
+                || Files.exists(root.resolve(storageKey + TEMP_CHUNK_DIR))
+                || Files.exists(root.resolve(storageKey + PREALLOCATED_SUFFIX))) {
+            return false;
+        }
+        Path source = root.resolve(fileName);
+        Path target = shardDir(storageKey).resolve(fileName);
+        if (Files.exists(target)) {
+            log.warn("Not migrating {}, {} already exists", source, target);
+            return false;
+        }
+        Files.createDirectories(target.getParent());
+        try {
+            Files.move(source, target, ATOMIC_MOVE);
+        } catch (NoSuchFileException e) {
+            // Deleted or compressed away since it was listed
+            return false;
+        }
+        return true;
+    }
+
+    private static String tempUploadId(String fileName) {
+        Matcher matcher = TEMP_DATA_PATTERN.matcher(fileName);
+        if (!matcher.matches()) {
+            return null;
+        }
+        return matcher.group(1) != null ? matcher.group(1) : matcher.group(2);
+    }
+
+    public int getActiveWrites() {
+        return activeWrites.get();
+    }
+
+    /**
+     * A preallocated file cannot tell written ranges from holes, so all of its
+     * chunks count as present and the upload bitmap alone decides. In chunked
+     * mode a chunk is present when its file exists.
+     */
+    @Override
+    public BitSet storedChunks(String uploadId, int totalChunks) {
+        BitSet stored = new BitSet(totalChunks);
+        if (Files.exists(getPartFilePath(uploadId))) {
+            stored.set(0, totalChunks);
+            return stored;
+        }
+        Path tempChunkPath = locate(uploadId, TEMP_CHUNK_DIR + uploadId);
+        if (!Files.isDirectory(tempChunkPath)) {
+            return stored;
+        }
+        try (Stream<Path> chunkPaths = Files.list(tempChunkPath)) {
+            chunkPaths.map(path -> path.getFileName().toString())
+                    .filter(name -> name.matches("\\d+"))
+                    .mapToInt(Integer::parseInt)
+                    .filter(index -> index < totalChunks)
+                    .forEach(stored::set);
+        } catch (IOException e) {
+            log.error("Failed to list chunks for upload: {}", uploadId, e);
+            throw new RuntimeException(e);
+        }
+        return stored;
+    }
+
+    /**
+     * Streams one chunk to disk, computing its CRC32C on the way. When the client
+     * sent {@code expectedChecksum} the chunk is rejected on mismatch so that only
+     * this chunk has to be sent again. With {@code durable} the chunk is fsynced
+     * before returning, so it can be recorded as stored right away.
+     */
+    public ChunkMetadata uploadChunk(String uploadId, int chunkIndex, long chunkSize, String expectedChecksum,
+            boolean durable, InputStream inputStream) {
         log.info("Uploading chunk. UploadId: {}, Index: {}", uploadId, chunkIndex);
-        Path chunkPath = Path.of(uploadDirectory, TEMP_CHUNK_DIR + uploadId, String.valueOf(chunkIndex));
-        try (inputStream) {
-            Files.copy(inputStream, chunkPath, StandardCopyOption.REPLACE_EXISTING);
+        Path partFile = getPartFilePath(uploadId);
+        String checksum;
+        Volume volume = volumeOf(uploadId);
+        activeWrites.incrementAndGet();
+        volume.activeWrites.incrementAndGet();
+        try {
+            if (Files.exists(partFile)) {
+                checksum = writeChunkAtOffset(partFile, chunkIndex, chunkSize, durable, inputStream);
+            } else {
+                checksum = writeChunkFile(uploadId, chunkIndex, durable, inputStream);
+            }
+        } finally {
+            volume.activeWrites.decrementAndGet();
+            activeWrites.decrementAndGet();
+        }
+        if (expectedChecksum != null && !expectedChecksum.equals(checksum)) {
+            log.error("Checksum mismatch for chunk {} of upload {}. Expected: {}, actual: {}", chunkIndex, uploadId,
+                    expectedChecksum, checksum);
+            if (!Files.exists(partFile)) {
+                deleteChunkFile(uploadId, chunkIndex);
+            }
+            throw new ChecksumMismatchException("Checksum mismatch for chunk " + chunkIndex);
+        }
+        ChunkMetadata chunkMetadata = new ChunkMetadata();
+        chunkMetadata.setChunkIndex(chunkIndex);
+        chunkMetadata.setStorageId(String.valueOf(chunkIndex));
+        chunkMetadata.setChecksum(checksum);
+        return chunkMetadata;
+    }
+
+    private String writeChunkFile(String uploadId, int chunkIndex, boolean durable, InputStream inputStream) {
+        Path chunkPath = locate(uploadId, TEMP_CHUNK_DIR + uploadId).resolve(String.valueOf(chunkIndex));
+        CRC32C crc = new CRC32C();
+        try (CheckedInputStream checkedStream = new CheckedInputStream(inputStream, crc)) {
+            Files.copy(checkedStream, chunkPath, StandardCopyOption.REPLACE_EXISTING);
             Files.setPosixFilePermissions(chunkPath, PosixFilePermissions.fromString(FILE_PERMISSIONS_STRING));
+            if (durable) {
+                try (FileChannel channel = FileChannel.open(chunkPath, StandardOpenOption.WRITE)) {
+                    channel.force(false);
+                }
+            }
             log.info("Chunk uploaded successfully: {}", chunkPath);
         } catch (Exception e) {
             log.error("Failed to upload chunk: {}", chunkPath, e);
             throw new RuntimeException(e);
         }
-        return chunkPath.getFileName().toString();
+        return ChecksumUtils.encodeCrc32c(crc.getValue());
+    }
+
+    private void deleteChunkFile(String uploadId, int chunkIndex) {
+        Path chunkPath = locate(uploadId, TEMP_CHUNK_DIR + uploadId).resolve(String.valueOf(chunkIndex));
+        try {
+            Files.deleteIfExists(chunkPath);
+        } catch (IOException e) {
+            log.warn("Failed to delete rejected chunk: {}", chunkPath);
+        }
+    }
+
+    private String writeChunkAtOffset(Path partFile, int chunkIndex, long chunkSize, boolean durable,
+            InputStream inputStream) {
+        CRC32C crc = new CRC32C();
+        try (inputStream;
+                ReadableByteChannel source = Channels.newChannel(inputStream);
+                FileChannel channel = FileChannel.open(partFile, StandardOpenOption.WRITE)) {
+            long offset = (long) chunkIndex * chunkSize;
+            long end = Math.min(offset + chunkSize, channel.size());
+            if (chunkIndex < 0 || offset >= channel.size()) {
+                throw new IllegalArgumentException("Chunk index out of range: " + chunkIndex);
+            }
+            ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+            long position = offset;
+            while (source.read(buffer) != -1) {
+                buffer.flip();
+                if (position + buffer.remaining() > end) {
+                    throw new IllegalArgumentException("Chunk " + chunkIndex + " exceeds its expected size");
+                }
+                crc.update(buffer);
+                buffer.rewind();
+                while (buffer.hasRemaining()) {
+                    position += channel.write(buffer, position);
+                }
+                buffer.clear();
+            }
+            if (position != end) {
+                throw new IllegalArgumentException("Chunk " + chunkIndex + " is incomplete. Expected: "
+                        + (end - offset) + " bytes, received: " + (position - offset));
+            }
+            if (durable) {
+                channel.force(false);
+            }
+            log.info("Chunk {} written at offset {} of {}", chunkIndex, offset, partFile);
+        } catch (IllegalArgumentException e) {
+            log.error("Rejected chunk {} for {}: {}", chunkIndex, partFile, e.getMessage());
+            throw e;
+        } catch (IOException e) {
+            log.error("Failed to write chunk {} to {}", chunkIndex, partFile, e);
+            throw new RuntimeException(e);
+        }
+        return ChecksumUtils.encodeCrc32c(crc.getValue());
     }
 
     @Override
@@ -225,7 +763,335 @@ public class LocalStorageService implements StorageService {
         }
     }
 
+    @Override
+    public SeekableByteChannel openForRead(String storageKey) throws IOException {
+        return openForRead(storageKey, null);
+    }
+
+    /**
+     * Opens the stored blob of a file, as written by {@link #compress} when a
+     * codec is given. The bytes are returned as stored, not decoded.
+     */
+    public SeekableByteChannel openForRead(String storageKey, CompressionCodec codec) throws IOException {
+        try {
+            return FileChannel.open(getFilePath(storageKey, codec), StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            // Moved into its shard, or to the cold tier, between lookup and open
+            Path hot = getFilePath(storageKey, codec);
+            if (coldRoot == null || Files.exists(hot)) {
+                return FileChannel.open(hot, StandardOpenOption.READ);
+            }
+            return FileChannel.open(getColdFilePath(storageKey, codec), StandardOpenOption.READ);
+        }
+    }
+
+    /**
+     * Writes a compressed copy of a finished file next to it and returns its
+     * size. The original is left in place, readers switch over once the
+     * codec is recorded and {@link #discardUncompressed} removes it.
+     */
+    public long compress(String storageKey, CompressionCodec codec, int level) throws IOException {
+        return writeBlob(getFilePath(storageKey), null, getFilePath(storageKey, codec), codec, level);
+    }
+
+    /**
+     * Copies a file's hot blob to the cold tier, compressing it on the way
+     * when {@code targetCodec} is set and the blob is not compressed yet, and
+     * returns the size of the cold blob. The hot blob stays until
+     * {@link #discardHot}, so reads keep working while the tier is switched.
+     */
+    public long copyToCold(String storageKey, CompressionCodec codec, CompressionCodec targetCodec, int level)
+            throws IOException {
+        requireColdTier();
+        CompressionCodec coldCodec = codec != null ? codec : targetCodec;
+        return writeBlob(getFilePath(storageKey, codec), codec, getColdFilePath(storageKey, coldCodec), coldCodec,
+                level);
+    }
+
+    /**
+     * Copies a file's cold blob back to the hot tier as stored.
+     */
+    public long copyToHot(String storageKey, CompressionCodec codec) throws IOException {
+        requireColdTier();
+        return writeBlob(getColdFilePath(storageKey, codec), codec,
+                shardDir(storageKey).resolve(blobName(storageKey, codec)), codec, 0);
+    }
+
+    public void discardHot(String storageKey, CompressionCodec codec) throws IOException {
+        deleteEverywhere(storageKey, blobName(storageKey, codec));
+    }
+
+    public void discardCold(String storageKey, CompressionCodec codec) throws IOException {
+        requireColdTier();
+        Files.deleteIfExists(getColdFilePath(storageKey, codec));
+    }
+
+    /**
+     * Writes {@code target} from {@code source} through a temp file, fsynced
+     * and renamed into place. The bytes are gzipped when only the target has
+     * a codec, and copied as they are otherwise.
+     */
+    private long writeBlob(Path source, CompressionCodec sourceCodec, Path target, CompressionCodec targetCodec,
+            int level) throws IOException {
+        Path temp = target.resolveSibling(target.getFileName() + TEMP_CHUNK_DIR);
+        Files.createDirectories(temp.getParent());
+        try (InputStream in = Files.newInputStream(source);
+                OutputStream out = Files.newOutputStream(temp)) {
+            if (sourceCodec == null && targetCodec != null) {
+                try (GZIPOutputStream gzip = new GZIPOutputStream(out, WRITE_BUFFER_SIZE) {
+                    {
+                        def.setLevel(level);
+                    }
+                }) {
+                    in.transferTo(gzip);
+                }
+            } else {
+                in.transferTo(out);
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.setPosixFilePermissions(temp, PosixFilePermissions.fromString(FILE_PERMISSIONS_STRING));
+        Files.move(temp, target, ATOMIC_MOVE);
+        return Files.size(target);
+    }
+
+    public void discardCompressed(String storageKey, CompressionCodec codec) throws IOException {
+        deleteEverywhere(storageKey, storageKey + codec.getSuffix());
+    }
+
+    public void discardUncompressed(String storageKey) throws IOException {
+        deleteEverywhere(storageKey, storageKey);
+    }
+
+    @Override
+    public void deleteFile(String storageKey) {
+        try {
+            deleteEverywhere(storageKey, storageKey);
+            for (CompressionCodec codec : CompressionCodec.values()) {
+                deleteEverywhere(storageKey, storageKey + codec.getSuffix());
+            }
+            if (coldRoot != null) {
+                Files.deleteIfExists(getColdFilePath(storageKey, null));
+                for (CompressionCodec codec : CompressionCodec.values()) {
+                    Files.deleteIfExists(getColdFilePath(storageKey, codec));
+                }
+            }
+            log.info("Deleted local file: {}", storageKey);
+        } catch (IOException e) {
+            log.error("Failed to delete local file: {}", storageKey, e);
+            throw new RuntimeException("Failed to delete file", e);
+        }
+    }
+
+    /**
+     * Stores a file derived from a blob, e.g. a thumbnail, in the blob's
+     * shard. Derived files can be made again, so they are renamed into place
+     * without an fsync.
+     */
+    public void writeDerived(String storageKey, String name, byte[] data) throws IOException {
+        Path target = getDerivedPath(storageKey, name);
+        Path temp = target.resolveSibling(target.getFileName() + TEMP_CHUNK_DIR);
+        Files.createDirectories(target.getParent());
+        try {
+            Files.write(temp, data);
+            Files.setPosixFilePermissions(temp, PosixFilePermissions.fromString(FILE_PERMISSIONS_STRING));
+            Files.move(temp, target, ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+    }
+
+    public SeekableByteChannel openDerived(String storageKey, String name) throws IOException {
+        return FileChannel.open(getDerivedPath(storageKey, name), StandardOpenOption.READ);
+    }
+
+    /**
+     * Removes every file derived from a blob, along with leftovers of
+     * interrupted writes.
+     */
+    public void deleteDerived(String storageKey) throws IOException {
+        String prefix = storageKey + DERIVED_INFIX;
+        try (Stream<Path> files = Files.list(shardDir(storageKey))) {
+            for (Path file : files.filter(file -> file.getFileName().toString().startsWith(prefix)).toList()) {
+                Files.deleteIfExists(file);
+            }
+        } catch (NoSuchFileException e) {
+            // No shard directory, nothing was derived
+        }
+    }
+
+    private Path getDerivedPath(String storageKey, String name) {
+        if (!DERIVED_NAME_PATTERN.matcher(name).matches()) {
+            throw new IllegalArgumentException("Invalid derived file name: " + name);
+        }
+        return shardDir(storageKey).resolve(storageKey + DERIVED_INFIX + name);
+    }
+
     public Path getFilePath(String uploadId) {
-        return Path.of(uploadDirectory, uploadId);
+        return locate(uploadId, uploadId);
+    }
+
+    /**
+     * Path of the stored blob of a file in whichever tier holds it, or null
+     * when there is none, e.g. for content the dedup store keeps as blocks.
+     */
+    public Path findBlob(String storageKey, CompressionCodec codec) {
+        Path hot = getFilePath(storageKey, codec);
+        if (Files.exists(hot)) {
+            return hot;
+        }
+        if (coldRoot != null) {
+            Path cold = getColdFilePath(storageKey, codec);
+            if (Files.exists(cold)) {
+                return cold;
+            }
+        }
+        return null;
+    }
+
+    private Path getFilePath(String storageKey, CompressionCodec codec) {
+        return codec == null ? getFilePath(storageKey) : locate(storageKey, storageKey + codec.getSuffix());
+    }
+
+    private Path getColdFilePath(String storageKey, CompressionCodec codec) {
+        return shardDir(coldRoot, storageKey).resolve(blobName(storageKey, codec));
+    }
+
+    private static String blobName(String storageKey, CompressionCodec codec) {
+        return codec == null ? storageKey : storageKey + codec.getSuffix();
+    }
+
+    public boolean hasColdTier() {
+        return coldRoot != null;
+    }
+
+    private void requireColdTier() {
+        if (coldRoot == null) {
+            throw new IllegalStateException("No cold tier configured, set local.storage.cold-path");
+        }
+    }
+
+    private Path getPartFilePath(String uploadId) {
+        return locate(uploadId, uploadId + PREALLOCATED_SUFFIX);
+    }
+
+    /**
+     * Directory holding every file of an upload: {@code fanOutLevels} levels
+     * of two hex chars taken from the key, e.g. {@code ab/cd/abcd1234...}.
+     * Storage keys are random hex; other keys are sharded by their SHA-256.
+     */
+    private Path shardDir(String key) {
+        return shardDir(volumeOf(key).root, key);
+    }
+
+    private Path shardDir(Path root, String key) {
+        Matcher matcher = STORAGE_KEY_PATTERN.matcher(key);
+        String prefix = matcher.matches() ? matcher.group(2) : key;
+        if (prefix.length() < 2 * fanOutLevels
+                || !HEX_PATTERN.matcher(prefix.substring(0, 2 * fanOutLevels)).matches()) {
+            prefix = ChecksumUtils.sha256Hex(key.getBytes(StandardCharsets.UTF_8));
+        }
+        Path dir = root;
+        for (int level = 0; level < fanOutLevels; level++) {
+            dir = dir.resolve(prefix.substring(2 * level, 2 * level + 2));
+        }
+        return dir;
+    }
+
+    /**
+     * Where {@code fileName} of an upload lives: in its shard, or in the flat
+     * layout for files written before sharding that were not migrated yet.
+     * Files that do not exist resolve to the shard.
+     */
+    private Path locate(String key, String fileName) {
+        Path sharded = shardDir(key).resolve(fileName);
+        if (fanOutLevels == 0 || Files.exists(sharded)) {
+            return sharded;
+        }
+        Path flat = volumeOf(key).root.resolve(fileName);
+        return Files.exists(flat) ? flat : sharded;
+    }
+
+    private List<Path> candidates(String key, String fileName) {
+        Path sharded = shardDir(key).resolve(fileName);
+        return fanOutLevels == 0 ? List.of(sharded) : List.of(sharded, volumeOf(key).root.resolve(fileName));
+    }
+
+    private void deleteEverywhere(String key, String fileName) throws IOException {
+        for (Path path : candidates(key, fileName)) {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    /**
+     * The volume root itself (flat layout) and every leaf shard directory.
+     */
+    private List<Path> blobDirectories(Path root) throws IOException {
+        List<Path> level = List.of(root);
+        List<Path> directories = new ArrayList<>(level);
+        for (int depth = 0; depth < fanOutLevels; depth++) {
+            List<Path> next = new ArrayList<>();
+            for (Path dir : level) {
+                try (Stream<Path> children = Files.list(dir)) {
+                    children.filter(child -> SHARD_NAME_PATTERN.matcher(child.getFileName().toString()).matches())
+                            .filter(Files::isDirectory)
+                            .forEach(next::add);
+                } catch (NoSuchFileException e) {
+                    // Removed while listing
+                }
+            }
+            level = next;
+        }
+        if (fanOutLevels > 0) {
+            directories.addAll(level);
+        }
+        return directories;
+    }
+
+    /**
+     * The upload id a storage key was created for.
+     */
+    public static String uploadIdOf(String storageKey) {
+        Matcher matcher = STORAGE_KEY_PATTERN.matcher(storageKey);
+        return matcher.matches() ? matcher.group(2) : storageKey;
+    }
+
+    private Volume volumeOf(String storageKey) {
+        Matcher matcher = STORAGE_KEY_PATTERN.matcher(storageKey);
+        if (!matcher.matches() || matcher.group(1) == null) {
+            return defaultVolume;
+        }
+        Volume volume = volumesByName.get(matcher.group(1));
+        if (volume == null) {
+            throw new IllegalArgumentException("Unknown storage volume: " + matcher.group(1));
+        }
+        return volume;
+    }
+
+    private static final class Volume {
+        private final String name;
+        private final Path root;
+        // Chunk writes in flight, the load signal for placement
+        private final AtomicInteger activeWrites = new AtomicInteger();
+
+        private Volume(String name, Path root) {
+            this.name = name;
+            this.root = root;
+        }
+
+        private long usableSpace() {
+            try {
+                return Files.getFileStore(root).getUsableSpace();
+            } catch (IOException e) {
+                log.warn("Could not read free space of volume {}: {}", root, e.getMessage());
+                return -1;
+            }
+        }
     }
 }
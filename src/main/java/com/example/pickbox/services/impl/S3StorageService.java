@@ -0,0 +1,485 @@
+package com.example.pickbox.services.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import com.example.pickbox.services.StorageService;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.S3Configuration;
+import software.amazon.awssdk.services.s3.model.CompletedMultipartUpload;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.MultipartUpload;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.NoSuchUploadException;
+import software.amazon.awssdk.services.s3.model.Part;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+
+/**
+ * Stores files as S3 objects written with multipart upload. Clients PUT each
+ * chunk straight to a presigned UploadPart URL (part number = chunk index + 1)
+ * and download through presigned GETs, so file data never passes through the
+ * application.
+ *
+ * The storage key is the upload id and the object key is
+ * {@code s3.key-prefix} + storage key. The multipart upload id is not stored:
+ * it is cached after initiation and looked up with ListMultipartUploads after
+ * a restart. Completion lists the uploaded parts, so clients do not have to
+ * report ETags.
+ *
+ * {@code s3.endpoint} and {@code s3.path-style-access} point the client at an
+ * S3-compatible server such as MinIO for local runs and tests.
+ */
+@Service
+@ConditionalOnProperty(name = "storage.type", havingValue = "s3")
+@Slf4j
+public class S3StorageService implements StorageService {
+    // S3 rejects parts below 5 MiB, except the last one
+    private static final long MIN_PART_SIZE = 5L * 1024 * 1024;
+
+    private static final int MAX_PARTS = 10_000;
+
+    private final S3Client s3;
+
+    private final S3Presigner presigner;
+
+    private final String bucket;
+
+    private final String keyPrefix;
+
+    private final Duration presignExpiry;
+
+    // Storage key -> multipart upload id of uploads in progress
+    private final Map<String, String> multipartUploads = new ConcurrentHashMap<>();
+
+    public S3StorageService(@Value("${s3.bucket}") String bucket,
+            @Value("${s3.region:us-east-1}") String region,
+            @Value("${s3.endpoint:}") String endpoint,
+            @Value("${s3.path-style-access:false}") boolean pathStyleAccess,
+            @Value("${s3.access-key:}") String accessKey,
+            @Value("${s3.secret-key:}") String secretKey,
+            @Value("${s3.key-prefix:}") String keyPrefix,
+            @Value("${s3.presign-expiry-seconds:3600}") long presignExpirySeconds) {
+        this.bucket = bucket;
+        this.keyPrefix = keyPrefix;
+        this.presignExpiry = Duration.ofSeconds(presignExpirySeconds);
+
+        AwsCredentialsProvider credentials = accessKey.isEmpty()
+                ? DefaultCredentialsProvider.builder().build()
+                : StaticCredentialsProvider.create(AwsBasicCredentials.create(accessKey, secretKey));
+        S3Configuration configuration = S3Configuration.builder()
+                .pathStyleAccessEnabled(pathStyleAccess)
+                .build();
+        var clientBuilder = S3Client.builder()
+                .region(Region.of(region))
+                .credentialsProvider(credentials)
+                .serviceConfiguration(configuration);
+        var presignerBuilder = S3Presigner.builder()
+                .region(Region.of(region))
+                .credentialsProvider(credentials)
+                .serviceConfiguration(configuration);
+        if (!endpoint.isEmpty()) {
+            clientBuilder.endpointOverride(URI.create(endpoint));
+            presignerBuilder.endpointOverride(URI.create(endpoint));
+        }
+        this.s3 = clientBuilder.build();
+        this.presigner = presignerBuilder.build();
+        log.info("S3 storage initialized. Bucket: {}, endpoint: {}", bucket, endpoint.isEmpty() ? "default" : endpoint);
+    }
+
+    @Override
+    public String initiateUpload(String userId, String uploadId, long fileSize, long chunkSize) {
+        long parts = (fileSize + chunkSize - 1) / chunkSize;
+        if (parts > MAX_PARTS || (parts > 1 && chunkSize < MIN_PART_SIZE)) {
+            log.error("Chunk layout not supported by S3. Size: {}, chunk size: {}", fileSize, chunkSize);
+            throw new IllegalArgumentException("Chunk size " + chunkSize + " is not valid for S3 multipart upload");
+        }
+        String multipartId = s3.createMultipartUpload(request -> request
+                .bucket(bucket)
+                .key(objectKey(uploadId)))
+                .uploadId();
+        multipartUploads.put(uploadId, multipartId);
+        log.info("Initiated S3 multipart upload. UserId: {}, UploadId: {}, parts: {}", userId, uploadId, parts);
+        return uploadId;
+    }
+
+    @Override
+    public String generateSignedUrl(String uploadId, int chunkIndex) {
+        String multipartId = multipartId(uploadId);
+        if (multipartId == null) {
+            throw new IllegalArgumentException("No multipart upload in progress for " + uploadId);
+        }
+        return presigner.presignUploadPart(presign -> presign
+                .signatureDuration(presignExpiry)
+                .uploadPartRequest(request -> request
+                        .bucket(bucket)
+                        .key(objectKey(uploadId))
+                        .uploadId(multipartId)
+                        .partNumber(chunkIndex + 1)))
+                .url()
+                .toString();
+    }
+
+    @Override
+    public String chunkUploadMethod() {
+        return "PUT";
+    }
+
+    @Override
+    public long minChunkSize() {
+        return MIN_PART_SIZE;
+    }
+
+    @Override
+    public int maxChunks() {
+        return MAX_PARTS;
+    }
+
+    @Override
+    public void completeUpload(String uploadId, long fileSize, long chunkSize) {
+        log.info("Completing S3 upload: {}", uploadId);
+        String multipartId = multipartId(uploadId);
+        if (multipartId == null) {
+            if (objectExists(uploadId)) {
+                // A previous attempt already completed this upload
+                log.info("Upload already completed: {}", uploadId);
+                return;
+            }
+            throw new IllegalStateException("No multipart upload in progress for " + uploadId);
+        }
+        List<Part> parts = listParts(uploadId, multipartId).stream()
+                .sorted(Comparator.comparingInt(Part::partNumber))
+                .toList();
+        checkLayout(uploadId, parts, fileSize, chunkSize);
+        List<CompletedPart> completedParts = parts.stream()
+                .map(part -> CompletedPart.builder()
+                        .partNumber(part.partNumber())
+                        .eTag(part.eTag())
+                        .build())
+                .toList();
+        s3.completeMultipartUpload(request -> request
+                .bucket(bucket)
+                .key(objectKey(uploadId))
+                .uploadId(multipartId)
+                .multipartUpload(CompletedMultipartUpload.builder().parts(completedParts).build()));
+        multipartUploads.remove(uploadId);
+        log.info("Completed S3 upload: {}, parts: {}", uploadId, completedParts.size());
+    }
+
+    /**
+     * S3 completes an upload with any set of parts, gaps included, so a chunk
+     * that was reported but never PUT would silently truncate the object.
+     * The parts must be exactly 1..n, every one but the last a full chunk,
+     * adding up to the declared size.
+     */
+    private static void checkLayout(String uploadId, List<Part> parts, long fileSize, long chunkSize) {
+        long totalChunks = (fileSize + chunkSize - 1) / chunkSize;
+        if (parts.size() != totalChunks) {
+            log.error("Upload {} has {} parts, expected {}", uploadId, parts.size(), totalChunks);
+            throw new IllegalStateException("Upload " + uploadId + " has " + parts.size() + " of " + totalChunks
+                    + " parts");
+        }
+        for (int i = 0; i < parts.size(); i++) {
+            Part part = parts.get(i);
+            long expected = Math.min(chunkSize, fileSize - i * chunkSize);
+            if (part.partNumber() != i + 1 || part.size() != expected) {
+                log.error("Upload {} part {} has {} bytes, expected part {} of {} bytes", uploadId,
+                        part.partNumber(), part.size(), i + 1, expected);
+                throw new IllegalStateException("Upload " + uploadId + " is missing or has a short part " + (i + 1));
+            }
+        }
+    }
+
+    @Override
+    public void abortUpload(String uploadId) {
+        log.info("Aborting S3 upload: {}", uploadId);
+        String multipartId = multipartId(uploadId);
+        if (multipartId == null) {
+            return;
+        }
+        try {
+            s3.abortMultipartUpload(request -> request
+                    .bucket(bucket)
+                    .key(objectKey(uploadId))
+                    .uploadId(multipartId));
+        } catch (NoSuchUploadException e) {
+            log.info("Multipart upload already gone: {}", uploadId);
+        } catch (Exception e) {
+            log.error("Failed to abort S3 upload: {}", uploadId, e);
+        } finally {
+            multipartUploads.remove(uploadId);
+        }
+    }
+
+    @Override
+    public BitSet storedChunks(String uploadId, int totalChunks) {
+        BitSet stored = new BitSet(totalChunks);
+        String multipartId = multipartId(uploadId);
+        if (multipartId == null) {
+            return stored;
+        }
+        for (Part part : listParts(uploadId, multipartId)) {
+            if (part.partNumber() <= totalChunks) {
+                stored.set(part.partNumber() - 1);
+            }
+        }
+        return stored;
+    }
+
+    @Override
+    public String generateDownloadUrl(String uploadId, String originalFileName) {
+        String contentDisposition = "attachment; filename*=UTF-8''"
+                + URLEncoder.encode(originalFileName, StandardCharsets.UTF_8).replace("+", "%20");
+        return presigner.presignGetObject(presign -> presign
+                .signatureDuration(presignExpiry)
+                .getObjectRequest(request -> request
+                        .bucket(bucket)
+                        .key(objectKey(uploadId))
+                        .responseContentDisposition(contentDisposition)))
+                .url()
+                .toString();
+    }
+
+    @Override
+    public SeekableByteChannel openForRead(String storageKey) throws IOException {
+        long size;
+        try {
+            size = s3.headObject(request -> request.bucket(bucket).key(objectKey(storageKey))).contentLength();
+        } catch (NoSuchKeyException e) {
+            throw new NoSuchFileException(storageKey);
+        } catch (S3Exception e) {
+            if (e.statusCode() == 404) {
+                throw new NoSuchFileException(storageKey);
+            }
+            throw new IOException("Failed to open " + storageKey, e);
+        } catch (SdkException e) {
+            throw new IOException("Failed to open " + storageKey, e);
+        }
+        return new ObjectChannel(objectKey(storageKey), size);
+    }
+
+    @Override
+    public void deleteFile(String storageKey) {
+        try {
+            s3.deleteObject(request -> request.bucket(bucket).key(objectKey(storageKey)));
+            log.info("Deleted S3 object: {}", storageKey);
+        } catch (Exception e) {
+            log.error("Failed to delete S3 object: {}", storageKey, e);
+            throw new RuntimeException("Failed to delete file", e);
+        }
+    }
+
+    private String objectKey(String storageKey) {
+        return keyPrefix + storageKey;
+    }
+
+    private String multipartId(String uploadId) {
+        String cached = multipartUploads.get(uploadId);
+        if (cached != null) {
+            return cached;
+        }
+        // Not initiated by this process, e.g. before a restart
+        String key = objectKey(uploadId);
+        MultipartUpload latest = null;
+        for (MultipartUpload upload : s3.listMultipartUploadsPaginator(request -> request
+                .bucket(bucket)
+                .prefix(key)).uploads()) {
+            if (upload.key().equals(key)
+                    && (latest == null || upload.initiated().isAfter(latest.initiated()))) {
+                latest = upload;
+            }
+        }
+        if (latest == null) {
+            return null;
+        }
+        multipartUploads.put(uploadId, latest.uploadId());
+        return latest.uploadId();
+    }
+
+    private List<Part> listParts(String uploadId, String multipartId) {
+        List<Part> parts = new ArrayList<>();
+        s3.listPartsPaginator(request -> request
+                .bucket(bucket)
+                .key(objectKey(uploadId))
+                .uploadId(multipartId))
+                .parts()
+                .forEach(parts::add);
+        return parts;
+    }
+
+    private boolean objectExists(String storageKey) {
+        try {
+            s3.headObject(request -> request.bucket(bucket).key(objectKey(storageKey)));
+            return true;
+        } catch (NoSuchKeyException e) {
+            return false;
+        } catch (S3Exception e) {
+            if (e.statusCode() == 404) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        presigner.close();
+        s3.close();
+    }
+
+    /**
+     * Read-only channel over an object. Sequential reads share one ranged GET,
+     * a seek drops it and the next read opens a new one at the new position.
+     */
+    private final class ObjectChannel implements SeekableByteChannel {
+        private final String key;
+        private final long size;
+        private long position;
+        private ResponseInputStream<GetObjectResponse> stream;
+        private long streamPosition = -1;
+        private boolean open = true;
+
+        private ObjectChannel(String key, long size) {
+            this.key = key;
+            this.size = size;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            ensureOpen();
+            if (position >= size) {
+                return -1;
+            }
+            if (!dst.hasRemaining()) {
+                return 0;
+            }
+            InputStream in = streamAt(position);
+            int length = (int) Math.min(dst.remaining(), size - position);
+            int read;
+            if (dst.hasArray()) {
+                read = in.read(dst.array(), dst.arrayOffset() + dst.position(), length);
+                if (read > 0) {
+                    dst.position(dst.position() + read);
+                }
+            } else {
+                byte[] buffer = new byte[Math.min(length, 64 * 1024)];
+                read = in.read(buffer, 0, buffer.length);
+                if (read > 0) {
+                    dst.put(buffer, 0, read);
+                }
+            }
+            if (read < 0) {
+                throw new IOException("Unexpected end of object " + key + " at " + position);
+            }
+            position += read;
+            streamPosition += read;
+            return read;
+        }
+
+        private InputStream streamAt(long offset) throws IOException {
+            if (stream != null && streamPosition == offset) {
+                return stream;
+            }
+            closeStream();
+            try {
+                stream = s3.getObject(request -> request
+                        .bucket(bucket)
+                        .key(key)
+                        .range("bytes=" + offset + "-"));
+            } catch (SdkException e) {
+                throw new IOException("Failed to read " + key, e);
+            }
+            streamPosition = offset;
+            return stream;
+        }
+
+        private void closeStream() {
+            if (stream != null) {
+                // Abort instead of draining the rest of the range
+                stream.abort();
+                stream = null;
+            }
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            throw new NonWritableChannelException();
+        }
+
+        @Override
+        public long position() throws IOException {
+            ensureOpen();
+            return position;
+        }
+
+        @Override
+        public SeekableByteChannel position(long newPosition) throws IOException {
+            ensureOpen();
+            if (newPosition < 0) {
+                throw new IllegalArgumentException("Negative position");
+            }
+            position = newPosition;
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            ensureOpen();
+            return size;
+        }
+
+        @Override
+        public SeekableByteChannel truncate(long newSize) {
+            throw new NonWritableChannelException();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() {
+            if (open) {
+                open = false;
+                closeStream();
+            }
+        }
+
+        private void ensureOpen() throws IOException {
+            if (!open) {
+                throw new ClosedChannelException();
+            }
+        }
+    }
+}
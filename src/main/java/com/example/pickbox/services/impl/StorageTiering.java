@@ -0,0 +1,269 @@
+package com.example.pickbox.services.impl;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.example.pickbox.config.WorkerThreads;
+import com.example.pickbox.constants.CompressionCodec;
+import com.example.pickbox.constants.StorageTier;
+import com.example.pickbox.constants.StorageType;
+import com.example.pickbox.models.FileStatus;
+import com.example.pickbox.models.StorageItem;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Moves files between the hot volumes and the cold tier at
+ * {@code local.storage.cold-path} based on how often they are downloaded.
+ *
+ * Downloads are counted in memory and flushed to the file records every
+ * {@code tiering.flush-interval-ms}, so a busy file costs one Mongo update
+ * per interval rather than one per read. Files not read for
+ * {@code tiering.demote-after-ms} are copied to the cold tier, gzipped when
+ * their type compresses, and a cold file read at least
+ * {@code tiering.promote-min-reads} times in one interval is copied back.
+ *
+ * Both moves run on the tiering pool, the scheduled jobs only pick the
+ * files. Each move writes the new copy first, switches every item sharing
+ * the storage key, and only then removes the old copy, the same order
+ * FileCompressor uses. Reads that race a move fall back to the other tier.
+ */
+@Component
+@Slf4j
+public class StorageTiering {
+    private final LocalStorageService localStorageService;
+
+    private final MongoTemplate mongoTemplate;
+
+    private final FileCompressor fileCompressor;
+
+    private final boolean enabled;
+
+    private final long demoteAfterMs;
+
+    private final int demoteBatchSize;
+
+    private final long promoteMinReads;
+
+    private final int level;
+
+    private final ThreadPoolExecutor executor;
+
+    // Reads since the last flush. LongAdder keeps concurrent downloads of one file from contending.
+    private final Map<String, LongAdder> accessCounts = new ConcurrentHashMap<>();
+
+    // Storage keys with a move queued or running, in either direction
+    private final Set<String> moving = ConcurrentHashMap.newKeySet();
+
+    public StorageTiering(LocalStorageService localStorageService,
+            MongoTemplate mongoTemplate,
+            FileCompressor fileCompressor,
+            WorkerThreads workerThreads,
+            @Value("${storage.type}") String storageType,
+            @Value("${tiering.enabled:false}") boolean enabled,
+            @Value("${tiering.demote-after-ms:604800000}") long demoteAfterMs,
+            @Value("${tiering.demote-batch-size:500}") int demoteBatchSize,
+            @Value("${tiering.promote-min-reads:3}") long promoteMinReads,
+            @Value("${local.storage.compression.level:6}") int level,
+            @Value("${tiering.workers:2}") int workers,
+            @Value("${tiering.queue-capacity:1000}") int queueCapacity) {
+        this.localStorageService = localStorageService;
+        this.mongoTemplate = mongoTemplate;
+        this.fileCompressor = fileCompressor;
+        this.enabled = enabled && localStorageService.hasColdTier()
+                && StorageType.valueOf(storageType.toUpperCase()) == StorageType.LOCAL;
+        this.demoteAfterMs = demoteAfterMs;
+        this.demoteBatchSize = demoteBatchSize;
+        this.promoteMinReads = promoteMinReads;
+        this.level = level;
+        this.executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), workerThreads.factory("storage-tiering-"));
+    }
+
+    /**
+     * Counts a download of the blob behind {@code storageKey}.
+     */
+    public void recordAccess(String storageKey) {
+        if (!enabled) {
+            return;
+        }
+        accessCounts.computeIfAbsent(storageKey, key -> new LongAdder()).increment();
+    }
+
+    @Scheduled(fixedDelayString = "${tiering.flush-interval-ms:60000}")
+    public void flushAccesses() {
+        if (!enabled || accessCounts.isEmpty()) {
+            return;
+        }
+        Instant now = Instant.now();
+        Map<String, Long> reads = new LinkedHashMap<>();
+        for (String storageKey : List.copyOf(accessCounts.keySet())) {
+            // A read landing between remove and sum is dropped, close enough for a heat signal
+            LongAdder counter = accessCounts.remove(storageKey);
+            if (counter != null) {
+                reads.put(storageKey, counter.sum());
+            }
+        }
+        List<String> hot = new ArrayList<>();
+        for (Map.Entry<String, Long> entry : reads.entrySet()) {
+            Query query = new Query(Criteria.where("storageKey").is(entry.getKey()));
+            Update update = new Update()
+                    .inc("accessCount", entry.getValue())
+                    .max("lastAccessedAt", now);
+            mongoTemplate.updateMulti(query, update, StorageItem.class);
+            if (entry.getValue() >= promoteMinReads) {
+                hot.add(entry.getKey());
+            }
+        }
+        if (!hot.isEmpty()) {
+            Query cold = new Query(Criteria.where("storageKey").in(hot).and("tier").is(StorageTier.COLD));
+            for (StorageItem item : mongoTemplate.find(cold, StorageItem.class)) {
+                submitPromotion(item.getStorageKey(), item.getCompression());
+            }
+        }
+    }
+
+    @Scheduled(initialDelayString = "${tiering.demote-interval-ms:3600000}",
+            fixedDelayString = "${tiering.demote-interval-ms:3600000}")
+    public void demoteIdleFiles() {
+        if (!enabled) {
+            return;
+        }
+        Instant cutoff = Instant.now().minusMillis(demoteAfterMs);
+        Query query = new Query(new Criteria().andOperator(
+                Criteria.where("status").is(FileStatus.ACTIVE),
+                // Uploads are stored without a type, only directories set it
+                Criteria.where("type").ne("D"),
+                Criteria.where("tier").ne(StorageTier.COLD),
+                new Criteria().orOperator(
+                        Criteria.where("lastAccessedAt").lt(cutoff),
+                        Criteria.where("lastAccessedAt").is(null).and("createdAt").lt(cutoff))))
+                .with(Sort.by("lastAccessedAt"))
+                .limit(demoteBatchSize);
+        int queued = 0;
+        for (StorageItem item : mongoTemplate.find(query, StorageItem.class)) {
+            String storageKey = item.getStorageKey();
+            if (!moving.add(storageKey)) {
+                continue;
+            }
+            try {
+                executor.execute(() -> {
+                    try {
+                        demote(item);
+                    } finally {
+                        moving.remove(storageKey);
+                    }
+                });
+                queued++;
+            } catch (RejectedExecutionException e) {
+                moving.remove(storageKey);
+                log.warn("Tiering queue is full, the remaining idle files wait for the next run");
+                break;
+            }
+        }
+        if (queued > 0) {
+            log.info("Queued {} idle files for the cold tier", queued);
+        }
+    }
+
+    private void demote(StorageItem item) {
+        String storageKey = item.getStorageKey();
+        CompressionCodec codec = item.getCompression();
+        CompressionCodec targetCodec = codec == null && fileCompressor.isCompressible(item.getMimeType())
+                ? CompressionCodec.GZIP
+                : codec;
+        long storedSize;
+        try {
+            storedSize = localStorageService.copyToCold(storageKey, codec, targetCodec, level);
+        } catch (IOException e) {
+            log.warn("Failed to copy {} to the cold tier: {}", storageKey, e.getMessage());
+            return;
+        }
+        try {
+            Query query = new Query(Criteria.where("storageKey").is(storageKey)
+                    .and("tier").ne(StorageTier.COLD)
+                    .and("compression").is(codec));
+            Update update = new Update()
+                    .set("tier", StorageTier.COLD)
+                    .set("compression", targetCodec)
+                    .set("storedSize", targetCodec == null ? null : storedSize);
+            if (mongoTemplate.updateMulti(query, update, StorageItem.class).getModifiedCount() == 0) {
+                log.info("File {} changed while moving it to the cold tier", storageKey);
+                localStorageService.discardCold(storageKey, targetCodec);
+                return;
+            }
+            localStorageService.discardHot(storageKey, codec);
+            log.info("Moved {} to the cold tier", storageKey);
+        } catch (IOException e) {
+            log.warn("Failed to switch {} to the cold tier: {}", storageKey, e.getMessage());
+        }
+    }
+
+    private void submitPromotion(String storageKey, CompressionCodec codec) {
+        if (!moving.add(storageKey)) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    promote(storageKey, codec);
+                } finally {
+                    moving.remove(storageKey);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            moving.remove(storageKey);
+            log.warn("Tiering queue is full, {} stays cold for now", storageKey);
+        }
+    }
+
+    private void promote(String storageKey, CompressionCodec codec) {
+        try {
+            localStorageService.copyToHot(storageKey, codec);
+        } catch (IOException e) {
+            log.warn("Failed to copy {} back to the hot tier: {}", storageKey, e.getMessage());
+            return;
+        }
+        try {
+            Query query = new Query(Criteria.where("storageKey").is(storageKey)
+                    .and("tier").is(StorageTier.COLD)
+                    .and("compression").is(codec));
+            Update update = new Update().set("tier", StorageTier.HOT);
+            if (mongoTemplate.updateMulti(query, update, StorageItem.class).getModifiedCount() == 0) {
+                log.info("File {} changed while moving it to the hot tier", storageKey);
+                localStorageService.discardHot(storageKey, codec);
+                return;
+            }
+            localStorageService.discardCold(storageKey, codec);
+            log.info("Moved {} back to the hot tier", storageKey);
+        } catch (IOException e) {
+            log.warn("Failed to switch {} to the hot tier: {}", storageKey, e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        executor.shutdown();
+    }
+}
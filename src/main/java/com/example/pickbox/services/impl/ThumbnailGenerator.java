@@ -0,0 +1,326 @@
+package com.example.pickbox.services.impl;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.io.RandomAccessRead;
+import org.apache.pdfbox.io.RandomAccessReadBuffer;
+import org.apache.pdfbox.io.RandomAccessReadBufferedFile;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.rendering.ImageType;
+import org.apache.pdfbox.rendering.PDFRenderer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import com.example.pickbox.config.WorkerThreads;
+import com.example.pickbox.constants.StorageType;
+import com.example.pickbox.models.StorageItem;
+import com.example.pickbox.services.StorageService;
+import com.example.pickbox.services.StorageServiceFactory;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Renders JPEG thumbnails of finished image and PDF uploads in the
+ * background, so file grids can show previews without fetching originals.
+ * Images are decoded with ImageIO and the first page of a PDF is rendered
+ * with PDFBox, both pure Java.
+ *
+ * Each size in {@code thumbnails.sizes} is the longest side of one
+ * thumbnail, smaller images are not scaled up. Thumbnails are stored next to
+ * the blob as derived files and recorded on every item sharing the storage
+ * key. A file deleted in the meantime keeps no thumbnails, as with
+ * FileCompressor.
+ */
+@Component
+@Slf4j
+public class ThumbnailGenerator {
+    private static final String PDF_TYPE = "application/pdf";
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final LocalStorageService localStorageService;
+
+    private final StorageService storageService;
+
+    private final MongoTemplate mongoTemplate;
+
+    private final FolderVersions folderVersions;
+
+    private final boolean enabled;
+
+    // Largest first, each thumbnail is scaled from the one before
+    private final List<Integer> sizes;
+
+    private final long maxSourceSize;
+
+    private final long maxPixels;
+
+    private final float quality;
+
+    private final ThreadPoolExecutor executor;
+
+    public ThumbnailGenerator(LocalStorageService localStorageService,
+            StorageServiceFactory storageServiceFactory,
+            MongoTemplate mongoTemplate,
+            FolderVersions folderVersions,
+            WorkerThreads workerThreads,
+            @Value("${storage.type}") String storageType,
+            @Value("${thumbnails.enabled:false}") boolean enabled,
+            @Value("${thumbnails.sizes:128,256,512}") List<Integer> sizes,
+            @Value("${thumbnails.max-source-size:52428800}") long maxSourceSize,
+            @Value("${thumbnails.max-pixels:100000000}") long maxPixels,
+            @Value("${thumbnails.quality:0.8}") float quality,
+            @Value("${thumbnails.workers:2}") int workers,
+            @Value("${thumbnails.queue-capacity:1000}") int queueCapacity) {
+        StorageType type = StorageType.valueOf(storageType.toUpperCase());
+        this.localStorageService = localStorageService;
+        this.storageService = storageServiceFactory.getStorageService(type);
+        this.mongoTemplate = mongoTemplate;
+        this.folderVersions = folderVersions;
+        // Thumbnails live on local disk next to the blob, there is none for S3
+        this.enabled = enabled && type != StorageType.S3 && !sizes.isEmpty();
+        this.sizes = sizes.stream().distinct().sorted(Comparator.reverseOrder()).toList();
+        this.maxSourceSize = maxSourceSize;
+        this.maxPixels = maxPixels;
+        this.quality = quality;
+        this.executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), workerThreads.factory("thumbnails-"));
+    }
+
+    /**
+     * Queues thumbnails of a newly stored file. Best effort, a file that is
+     * not queued or cannot be decoded simply has no preview.
+     */
+    public void submit(StorageItem item) {
+        if (!enabled || item.getThumbnailKeys() != null || item.getSize() == 0 || item.getSize() > maxSourceSize
+                || !isSupported(item.getMimeType())) {
+            return;
+        }
+        try {
+            executor.execute(() -> generate(item));
+        } catch (RejectedExecutionException e) {
+            log.warn("Thumbnail queue is full, {} gets no preview", item.getStorageKey());
+        }
+    }
+
+    public SeekableByteChannel open(String storageKey, String thumbnailKey) throws IOException {
+        return localStorageService.openDerived(storageKey, thumbnailKey);
+    }
+
+    /**
+     * Removes the thumbnails of content that is being released.
+     */
+    public void discard(String storageKey) {
+        try {
+            localStorageService.deleteDerived(storageKey);
+        } catch (IOException e) {
+            log.warn("Failed to delete thumbnails of {}: {}", storageKey, e.getMessage());
+        }
+    }
+
+    boolean isSupported(String mimeType) {
+        if (mimeType == null) {
+            return false;
+        }
+        String type = mimeType.toLowerCase(Locale.ROOT);
+        return type.equals(PDF_TYPE) || ImageIO.getImageReadersByMIMEType(type).hasNext();
+    }
+
+    private void generate(StorageItem item) {
+        String storageKey = item.getStorageKey();
+        Map<String, String> thumbnailKeys = new LinkedHashMap<>();
+        try {
+            BufferedImage image = PDF_TYPE.equalsIgnoreCase(item.getMimeType()) ? renderFirstPage(item)
+                    : decodeImage(item);
+            if (image == null) {
+                return;
+            }
+            for (int size : sizes) {
+                image = scale(image, size);
+                String thumbnailKey = "thumb-" + size + ".jpg";
+                localStorageService.writeDerived(storageKey, thumbnailKey, encode(image));
+                thumbnailKeys.put(String.valueOf(size), thumbnailKey);
+            }
+        } catch (IOException | RuntimeException e) {
+            // Corrupt, encrypted or unusual files are common here, they just get no preview
+            log.info("No thumbnail for {}: {}", storageKey, e.toString());
+            discard(storageKey);
+            return;
+        }
+        Query query = new Query(Criteria.where("storageKey").is(storageKey));
+        if (mongoTemplate.updateMulti(query, new Update().set("thumbnailKeys", thumbnailKeys), StorageItem.class)
+                .getModifiedCount() == 0) {
+            log.info("File {} was deleted while rendering thumbnails", storageKey);
+            discard(storageKey);
+            return;
+        }
+        // Listings show which files have a preview, they changed
+        query.fields().include("ownerUserId").include("parentId");
+        Set<String> folders = new HashSet<>();
+        for (StorageItem linked : mongoTemplate.find(query, StorageItem.class)) {
+            if (folders.add(linked.getOwnerUserId() + ":" + linked.getParentId())) {
+                folderVersions.bump(linked.getOwnerUserId(), linked.getParentId());
+            }
+        }
+        log.info("Rendered {} thumbnails for {}", thumbnailKeys.size(), storageKey);
+    }
+
+    private BufferedImage decodeImage(StorageItem item) throws IOException {
+        try (InputStream in = openContent(item);
+                ImageInputStream input = new MemoryCacheImageInputStream(in)) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                if ((long) width * height > maxPixels) {
+                    log.info("Not rendering a thumbnail of {}, {}x{} is too large", item.getStorageKey(), width,
+                            height);
+                    return null;
+                }
+                // Decoding every n-th pixel keeps the raster near the largest thumbnail, not the original
+                int step = Math.max(1, Math.max(width, height) / (2 * sizes.get(0)));
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(step, step, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private BufferedImage renderFirstPage(StorageItem item) throws IOException {
+        // PDFs are read at random, a plain local blob is read in place and anything else buffered
+        Path blob = item.getCompression() == null ? localStorageService.findBlob(item.getStorageKey(), null) : null;
+        try (RandomAccessRead source = blob != null ? new RandomAccessReadBufferedFile(blob)
+                : readFully(item);
+                PDDocument document = Loader.loadPDF(source)) {
+            if (document.getNumberOfPages() == 0) {
+                return null;
+            }
+            PDRectangle page = document.getPage(0).getCropBox();
+            float scale = sizes.get(0) / Math.max(page.getWidth(), page.getHeight());
+            return new PDFRenderer(document).renderImage(0, scale, ImageType.RGB);
+        }
+    }
+
+    private RandomAccessRead readFully(StorageItem item) throws IOException {
+        try (InputStream in = openContent(item)) {
+            return new RandomAccessReadBuffer(in);
+        }
+    }
+
+    /**
+     * The decoded content of a file. A file compressed or moved since the
+     * item was read is opened again as it is now.
+     */
+    private InputStream openContent(StorageItem item) throws IOException {
+        try {
+            return openStored(item);
+        } catch (NoSuchFileException e) {
+            StorageItem current = mongoTemplate.findById(item.getId(), StorageItem.class);
+            if (current == null || current.getCompression() == item.getCompression()) {
+                throw e;
+            }
+            return openStored(current);
+        }
+    }
+
+    private InputStream openStored(StorageItem item) throws IOException {
+        if (item.getCompression() == null) {
+            return Channels.newInputStream(storageService.openForRead(item.getStorageKey()));
+        }
+        InputStream in = Channels.newInputStream(localStorageService.openForRead(item.getStorageKey(),
+                item.getCompression()));
+        try {
+            return new GZIPInputStream(in, READ_BUFFER_SIZE);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    private static BufferedImage scale(BufferedImage source, int size) {
+        double factor = Math.min(1.0, (double) size / Math.max(source.getWidth(), source.getHeight()));
+        int width = Math.max(1, (int) Math.round(source.getWidth() * factor));
+        int height = Math.max(1, (int) Math.round(source.getHeight() * factor));
+        BufferedImage target = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = target.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            // JPEG has no alpha, transparent areas come out white
+            graphics.setColor(Color.WHITE);
+            graphics.fillRect(0, 0, width, height);
+            graphics.drawImage(source, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return target;
+    }
+
+    private byte[] encode(BufferedImage image) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ImageOutputStream output = new MemoryCacheImageOutputStream(out)) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality);
+            writer.setOutput(output);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,192 @@
+package com.example.pickbox.services.impl;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+
+import com.example.pickbox.constants.StorageType;
+import com.example.pickbox.dao.UploadMetadataRepository;
+import com.example.pickbox.exceptions.UploadRejectedException;
+import com.example.pickbox.models.FileStatus;
+import com.example.pickbox.models.UploadMetadata;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Decides at initiation whether an upload may start, so that it is turned
+ * away before any bandwidth is spent on it.
+ *
+ * Each admitted upload holds a reservation until it completes, is aborted or
+ * expires. Per user, the number of reservations and their total size are
+ * capped. On local disks, the upload is placed on a volume at admission and
+ * the disk space it still has to write is reserved against that volume: a
+ * volume's free space is what its file store reports minus what the open
+ * reservations placed on it have not written yet, and a reservation shrinks
+ * as chunks are recorded.
+ *
+ * Reservations are kept in memory and rebuilt from the uploads collection on
+ * startup.
+ */
+@Component
+@Slf4j
+public class UploadAdmission {
+    private final LocalStorageService localStorageService;
+
+    private final UploadMetadataRepository uploadMetadataRepository;
+
+    private final boolean checkDisk;
+
+    private final int maxActivePerUser;
+
+    private final long maxReservedBytesPerUser;
+
+    private final long minFreeBytes;
+
+    private final long retryAfterSeconds;
+
+    private final Map<String, Reservation> reservations = new ConcurrentHashMap<>();
+
+    // Makes check-then-reserve atomic across concurrent initiations
+    private final ReentrantLock lock = new ReentrantLock();
+
+    public UploadAdmission(LocalStorageService localStorageService,
+            UploadMetadataRepository uploadMetadataRepository,
+            @Value("${storage.type}") String storageType,
+            @Value("${upload.admission.max-active-per-user:10}") int maxActivePerUser,
+            @Value("${upload.admission.max-reserved-bytes-per-user:53687091200}") long maxReservedBytesPerUser,
+            @Value("${upload.admission.min-free-bytes:1073741824}") long minFreeBytes,
+            @Value("${upload.admission.retry-after-seconds:60}") long retryAfterSeconds) {
+        this.localStorageService = localStorageService;
+        this.uploadMetadataRepository = uploadMetadataRepository;
+        StorageType type = StorageType.valueOf(storageType.toUpperCase());
+        this.checkDisk = type == StorageType.LOCAL || type == StorageType.DEDUP || type == StorageType.ERASURE;
+        this.maxActivePerUser = maxActivePerUser;
+        this.maxReservedBytesPerUser = maxReservedBytesPerUser;
+        this.minFreeBytes = minFreeBytes;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    /**
+     * Reserves room for an upload or throws {@link UploadRejectedException}.
+     */
+    public void admit(String userId, String uploadId, long fileSize) {
+        long diskBytes = checkDisk ? localStorageService.stagingBytesFor(fileSize) : 0;
+        lock.lock();
+        try {
+            long active = 0;
+            long reservedBytes = 0;
+            Map<String, Long> outstandingByVolume = new HashMap<>();
+            for (Reservation reservation : reservations.values()) {
+                if (reservation.userId.equals(userId)) {
+                    active++;
+                    reservedBytes += reservation.fileSize;
+                }
+                if (reservation.volume != null) {
+                    outstandingByVolume.merge(reservation.volume, reservation.outstandingDisk.get(), Long::sum);
+                }
+            }
+            if (active >= maxActivePerUser) {
+                log.warn("Rejecting upload for user {}: {} uploads already active", userId, active);
+                throw new UploadRejectedException(HttpStatus.TOO_MANY_REQUESTS,
+                        "Too many active uploads, at most " + maxActivePerUser + " are allowed", retryAfterSeconds);
+            }
+            if (reservedBytes + fileSize > maxReservedBytesPerUser) {
+                log.warn("Rejecting upload for user {}: {} bytes reserved, {} requested", userId, reservedBytes,
+                        fileSize);
+                throw new UploadRejectedException(HttpStatus.TOO_MANY_REQUESTS,
+                        "Active uploads exceed the per-user limit of " + maxReservedBytesPerUser + " bytes",
+                        retryAfterSeconds);
+            }
+            String volume = null;
+            if (checkDisk) {
+                volume = localStorageService.placeUpload(uploadId, fileSize, outstandingByVolume, minFreeBytes);
+                if (volume == null) {
+                    log.warn("Rejecting upload for user {}: no volume has {} bytes available", userId, diskBytes);
+                    throw new UploadRejectedException(HttpStatus.SERVICE_UNAVAILABLE,
+                            "Not enough storage space for this upload", retryAfterSeconds);
+                }
+            }
+            reservations.put(uploadId, new Reservation(userId, fileSize, volume, diskBytes));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Called once storage has set the upload up. When initiation allocated the
+     * whole file, the blocks are already gone from the free space.
+     */
+    public void storageInitiated(String uploadId) {
+        Reservation reservation = reservations.get(uploadId);
+        if (reservation != null && checkDisk && localStorageService.allocatesOnInitiate()) {
+            reservation.outstandingDisk.set(0);
+        }
+    }
+
+    /**
+     * Bytes of an upload that are now on disk and show up in the file store's
+     * free space, so they no longer need to be held by the reservation.
+     */
+    public void recordWritten(String uploadId, long bytes) {
+        Reservation reservation = reservations.get(uploadId);
+        if (reservation != null) {
+            reservation.outstandingDisk.updateAndGet(outstanding -> Math.max(0, outstanding - bytes));
+        }
+    }
+
+    public void release(String uploadId) {
+        if (checkDisk) {
+            localStorageService.releasePlacement(uploadId);
+        }
+        if (reservations.remove(uploadId) != null) {
+            log.debug("Released reservation for upload {}", uploadId);
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    @Order(0)
+    public void restoreReservations() {
+        List<UploadMetadata> uploads = uploadMetadataRepository.findAllByStatusIn(
+                List.of(FileStatus.UPLOADING, FileStatus.COMPLETING));
+        for (UploadMetadata upload : uploads) {
+            long diskBytes = checkDisk ? localStorageService.stagingBytesFor(upload.getFileSize()) : 0;
+            String volume = checkDisk && upload.getStorageId() != null
+                    ? localStorageService.volumeNameOf(upload.getStorageId())
+                    : null;
+            Reservation reservation = new Reservation(upload.getUserId(), upload.getFileSize(), volume, diskBytes);
+            if (checkDisk && localStorageService.allocatesOnInitiate()) {
+                reservation.outstandingDisk.set(0);
+            } else {
+                long written = Math.min(upload.getFileSize(), upload.getCompletedCount() * upload.getChunkSize());
+                reservation.outstandingDisk.updateAndGet(outstanding -> Math.max(0, outstanding - written));
+            }
+            reservations.putIfAbsent(upload.getUploadId(), reservation);
+        }
+        log.info("Restored {} upload reservations", uploads.size());
+    }
+
+    private static final class Reservation {
+        private final String userId;
+        private final long fileSize;
+        // Volume the upload is placed on, null when disk space is not tracked
+        private final String volume;
+        private final AtomicLong outstandingDisk;
+
+        private Reservation(String userId, long fileSize, String volume, long diskBytes) {
+            this.userId = userId;
+            this.fileSize = fileSize;
+            this.volume = volume;
+            this.outstandingDisk = new AtomicLong(diskBytes);
+        }
+    }
+}
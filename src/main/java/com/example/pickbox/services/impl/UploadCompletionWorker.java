@@ -0,0 +1,136 @@
+package com.example.pickbox.services.impl;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.example.pickbox.config.WorkerThreads;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Runs upload completions (chunk merge / finalize) off the request threads.
+ * Pending completions are ordered smallest file first so that a single huge
+ * merge does not hold back every other user. Failed attempts are re-queued
+ * with exponential backoff instead of sleeping on a worker thread.
+ */
+@Component
+@Slf4j
+public class UploadCompletionWorker {
+    private final ThreadPoolExecutor executor;
+
+    private final ScheduledExecutorService retryScheduler;
+
+    private final int queueCapacity;
+
+    private final int maxAttempts;
+
+    private final long initialBackoffMs;
+
+    private final long maxBackoffMs;
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    public UploadCompletionWorker(WorkerThreads workerThreads,
+            @Value("${upload.completion.workers:4}") int workers,
+            @Value("${upload.completion.queue-capacity:1000}") int queueCapacity,
+            @Value("${upload.completion.max-attempts:5}") int maxAttempts,
+            @Value("${upload.completion.initial-backoff-ms:2000}") long initialBackoffMs,
+            @Value("${upload.completion.max-backoff-ms:60000}") long maxBackoffMs) {
+        this.queueCapacity = queueCapacity;
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffMs = initialBackoffMs;
+        this.maxBackoffMs = maxBackoffMs;
+        this.executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<>(), workerThreads.factory("upload-completion-"));
+        this.executor.prestartAllCoreThreads();
+        this.retryScheduler = Executors.newSingleThreadScheduledExecutor(
+                Thread.ofPlatform().name("upload-completion-retry").daemon().factory());
+    }
+
+    public boolean hasCapacity() {
+        return executor.getQueue().size() < queueCapacity;
+    }
+
+    public boolean isIdle() {
+        return executor.getActiveCount() == 0 && executor.getQueue().isEmpty();
+    }
+
+    /**
+     * Queues a completion. {@code task} is retried until it succeeds or
+     * {@code upload.completion.max-attempts} is reached, after which
+     * {@code onFailure} receives the last error.
+     */
+    public void submit(String uploadId, long fileSize, Runnable task, Consumer<Exception> onFailure) {
+        if (!hasCapacity()) {
+            log.warn("Upload completion queue is full, rejecting upload: {}", uploadId);
+            throw new RejectedExecutionException("Upload completion queue is full");
+        }
+        executor.execute(new CompletionTask(uploadId, fileSize, sequence.incrementAndGet(), 1, task, onFailure));
+        log.info("Queued completion for upload: {}, size: {}, pending: {}", uploadId, fileSize,
+                executor.getQueue().size());
+    }
+
+    private void retry(CompletionTask failed, Exception e) {
+        if (failed.attempt >= maxAttempts) {
+            log.error("Completion failed for upload {} after {} attempts", failed.uploadId, failed.attempt, e);
+            failed.onFailure.accept(e);
+            return;
+        }
+        long backoff = Math.min(maxBackoffMs, initialBackoffMs << Math.min(failed.attempt - 1, 20));
+        log.warn("Completion attempt {}/{} failed for upload {}, retrying in {} ms: {}", failed.attempt,
+                maxAttempts, failed.uploadId, backoff, e.getMessage());
+        CompletionTask next = new CompletionTask(failed.uploadId, failed.fileSize, failed.sequence,
+                failed.attempt + 1, failed.task, failed.onFailure);
+        retryScheduler.schedule(() -> executor.execute(next), backoff, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        retryScheduler.shutdownNow();
+        executor.shutdown();
+    }
+
+    private final class CompletionTask implements Runnable, Comparable<CompletionTask> {
+        private final String uploadId;
+        private final long fileSize;
+        private final long sequence;
+        private final int attempt;
+        private final Runnable task;
+        private final Consumer<Exception> onFailure;
+
+        private CompletionTask(String uploadId, long fileSize, long sequence, int attempt, Runnable task,
+                Consumer<Exception> onFailure) {
+            this.uploadId = uploadId;
+            this.fileSize = fileSize;
+            this.sequence = sequence;
+            this.attempt = attempt;
+            this.task = task;
+            this.onFailure = onFailure;
+        }
+
+        @Override
+        public void run() {
+            try {
+                task.run();
+            } catch (Exception e) {
+                retry(this, e);
+            }
+        }
+
+        @Override
+        public int compareTo(CompletionTask other) {
+            int bySize = Long.compare(fileSize, other.fileSize);
+            return bySize != 0 ? bySize : Long.compare(sequence, other.sequence);
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package com.example.pickbox.services.impl;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.example.pickbox.config.WorkerThreads;
+import com.example.pickbox.constants.StorageType;
+import com.example.pickbox.dao.UploadChunkRepository;
+import com.example.pickbox.dao.UploadMetadataRepository;
+import com.example.pickbox.models.FileStatus;
+import com.example.pickbox.models.UploadMetadata;
+import com.example.pickbox.services.StorageService;
+import com.example.pickbox.services.StorageServiceFactory;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Cleans up what uploads leave behind: sessions idle past
+ * {@code upload.reconciler.upload-ttl-ms} are aborted, temp data on disk with
+ * no live upload is deleted and finished upload records are purged after
+ * {@code upload.reconciler.record-retention-ms}.
+ *
+ * The storage directory and the uploads collection are scanned in parallel
+ * on the reconciler's own threads, so the shared scheduler thread is free as
+ * soon as a run is started. Every delete takes a slot from a shared rate
+ * limit, and the scans back off while chunks are being written or
+ * completions are running so that cleanup does not compete with live upload
+ * I/O. The backoff of a run is capped by
+ * {@code upload.reconciler.max-backoff-ms}, so a busy node still gets cleaned.
+ */
+@Component
+@Slf4j
+public class UploadReconciler {
+    private static final long BUSY_BACKOFF_MS = 1000;
+
+    private static final List<FileStatus> LIVE_STATUSES = List.of(FileStatus.UPLOADING, FileStatus.COMPLETING);
+
+    private static final List<FileStatus> FINISHED_STATUSES = List.of(FileStatus.COMPLETED, FileStatus.DELETED);
+
+    private final UploadMetadataRepository uploadMetadataRepository;
+
+    private final UploadChunkRepository uploadChunkRepository;
+
+    private final MongoTemplate mongoTemplate;
+
+    private final LocalStorageService localStorageService;
+
+    private final UploadCompletionWorker completionWorker;
+
+    private final UploadAdmission uploadAdmission;
+
+    private final StorageService storageService;
+
+    private final ExecutorService executor;
+
+    private final Duration uploadTtl;
+
+    private final Duration recordRetention;
+
+    private final Duration orphanGrace;
+
+    private final long opIntervalNanos;
+
+    private final long maxBackoffMs;
+
+    // Backoff left to the current run, shared by both scans
+    private final AtomicLong backoffLeftMs = new AtomicLong();
+
+    private final AtomicLong nextSlot = new AtomicLong(System.nanoTime());
+
+    // A slow run must not overlap the next one. Released by whichever scan finishes last
+    private final Semaphore runLock = new Semaphore(1);
+
+    public UploadReconciler(UploadMetadataRepository uploadMetadataRepository,
+            UploadChunkRepository uploadChunkRepository,
+            MongoTemplate mongoTemplate,
+            LocalStorageService localStorageService,
+            UploadCompletionWorker completionWorker,
+            UploadAdmission uploadAdmission,
+            StorageServiceFactory storageServiceFactory,
+            WorkerThreads workerThreads,
+            @Value("${storage.type}") String storageType,
+            @Value("${upload.reconciler.upload-ttl-ms:86400000}") long uploadTtlMs,
+            @Value("${upload.reconciler.record-retention-ms:604800000}") long recordRetentionMs,
+            @Value("${upload.reconciler.orphan-grace-ms:3600000}") long orphanGraceMs,
+            @Value("${upload.reconciler.max-ops-per-second:20}") int maxOpsPerSecond,
+            @Value("${upload.reconciler.max-backoff-ms:30000}") long maxBackoffMs) {
+        this.uploadMetadataRepository = uploadMetadataRepository;
+        this.uploadChunkRepository = uploadChunkRepository;
+        this.mongoTemplate = mongoTemplate;
+        this.localStorageService = localStorageService;
+        this.completionWorker = completionWorker;
+        this.uploadAdmission = uploadAdmission;
+        this.storageService = storageServiceFactory.getStorageService(StorageType.valueOf(storageType.toUpperCase()));
+        this.executor = Executors.newFixedThreadPool(2, workerThreads.factory("upload-reconciler-"));
+        this.uploadTtl = Duration.ofMillis(uploadTtlMs);
+        this.recordRetention = Duration.ofMillis(recordRetentionMs);
+        this.orphanGrace = Duration.ofMillis(orphanGraceMs);
+        this.opIntervalNanos = TimeUnit.SECONDS.toNanos(1) / Math.max(1, maxOpsPerSecond);
+        this.maxBackoffMs = maxBackoffMs;
+    }
+
+    @Scheduled(initialDelayString = "${upload.reconciler.interval-ms:600000}",
+            fixedDelayString = "${upload.reconciler.interval-ms:600000}")
+    public void reconcile() {
+        if (!runLock.tryAcquire()) {
+            return;
+        }
+        try {
+            Instant now = Instant.now();
+            backoffLeftMs.set(maxBackoffMs);
+            CompletableFuture<Void> records = CompletableFuture.runAsync(() -> reconcileRecords(now), executor);
+            CompletableFuture<Void> disk = CompletableFuture.runAsync(() -> reconcileTempData(now), executor);
+            CompletableFuture.allOf(records, disk).whenComplete((ignored, e) -> {
+                if (e != null) {
+                    log.error("Upload reconciliation failed", e);
+                }
+                runLock.release();
+            });
+        } catch (RejectedExecutionException e) {
+            // Shutting down
+            runLock.release();
+        }
+    }
+
+    private void reconcileRecords(Instant now) {
+        int expired = 0;
+        for (UploadMetadata upload : uploadMetadataRepository.findAllByStatusAndUpdatedAtBefore(
+                FileStatus.UPLOADING, now.minus(uploadTtl))) {
+            throttle();
+            if (expire(upload)) {
+                expired++;
+            }
+        }
+        int purged = 0;
+        for (UploadMetadata upload : uploadMetadataRepository.findAllByStatusInAndUpdatedAtBefore(
+                FINISHED_STATUSES, now.minus(recordRetention))) {
+            throttle();
+            uploadChunkRepository.deleteAllByUploadId(upload.getUploadId());
+            uploadMetadataRepository.deleteById(upload.getUploadId());
+            purged++;
+        }
+        if (expired > 0 || purged > 0) {
+            log.info("Reconciler expired {} idle uploads and purged {} upload records", expired, purged);
+        }
+    }
+
+    private boolean expire(UploadMetadata upload) {
+        // Conditional so that a chunk recorded since the scan keeps the upload alive
+        Query query = new Query(Criteria.where("_id").is(upload.getUploadId())
+                .and("status").is(FileStatus.UPLOADING)
+                .and("updatedAt").is(upload.getUpdatedAt()));
+        Update update = new Update()
+                .set("status", FileStatus.DELETED)
+                .set("lastError", "Expired after " + uploadTtl.toMinutes() + " minutes without activity")
+                .set("updatedAt", Instant.now());
+        if (mongoTemplate.updateFirst(query, update, UploadMetadata.class).getModifiedCount() == 0) {
+            return false;
+        }
+        log.info("Expiring idle upload: {}", upload.getUploadId());
+        storageService.abortUpload(upload.getStorageId());
+        uploadChunkRepository.deleteAllByUploadId(upload.getUploadId());
+        uploadAdmission.release(upload.getUploadId());
+        return true;
+    }
+
+    private void reconcileTempData(Instant now) {
+        Map<String, Instant> tempUploads;
+        try {
+            tempUploads = localStorageService.listTempUploads();
+        } catch (IOException e) {
+            log.warn("Could not list upload directory: {}", e.getMessage());
+            return;
+        }
+        int deleted = 0;
+        for (Map.Entry<String, Instant> entry : tempUploads.entrySet()) {
+            if (entry.getValue().isAfter(now.minus(orphanGrace))) {
+                continue;
+            }
+            Optional<UploadMetadata> upload = uploadMetadataRepository
+                    .findById(LocalStorageService.uploadIdOf(entry.getKey()));
+            if (upload.isPresent() && LIVE_STATUSES.contains(upload.get().getStatus())) {
+                continue;
+            }
+            throttle();
+            try {
+                localStorageService.deleteTempData(entry.getKey());
+                deleted++;
+            } catch (IOException e) {
+                log.warn("Failed to delete temp data for upload {}: {}", entry.getKey(), e.getMessage());
+            }
+        }
+        if (deleted > 0) {
+            log.info("Reconciler deleted temp data of {} orphaned uploads", deleted);
+        }
+    }
+
+    /**
+     * Waits for the next slot of the shared rate limit, first backing off while
+     * uploads are writing or completing and the run has backoff left.
+     */
+    private void throttle() {
+        try {
+            while ((localStorageService.getActiveWrites() > 0 || !completionWorker.isIdle())
+                    && backoffLeftMs.getAndAdd(-BUSY_BACKOFF_MS) > 0) {
+                Thread.sleep(BUSY_BACKOFF_MS);
+            }
+            long slot = nextSlot.getAndUpdate(next -> Math.max(next, System.nanoTime()) + opIntervalNanos);
+            long waitNanos = slot - System.nanoTime();
+            if (waitNanos > 0) {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Reconciler interrupted", e);
+        }
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -1,30 +1,55 @@
 package com.example.pickbox.services.impl;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.security.SecureRandom;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
 
 import com.example.pickbox.constants.StorageType;
+import com.example.pickbox.dao.ChunkManifestRepository;
 import com.example.pickbox.dao.FileRepository;
+import com.example.pickbox.dao.UploadChunkRepository;
 import com.example.pickbox.dao.UploadMetadataRepository;
+import com.example.pickbox.dtos.ChunkBatchResponse;
+import com.example.pickbox.dtos.ChunkUrlResponse;
+import com.example.pickbox.dtos.ChunkRange;
 import com.example.pickbox.dtos.UploadRequest;
 import com.example.pickbox.dtos.UploadResponse;
+import com.example.pickbox.dtos.UploadStatusResponse;
+import com.example.pickbox.exceptions.ChecksumMismatchException;
+import com.example.pickbox.models.ChunkManifest;
 import com.example.pickbox.models.ChunkMetadata;
 import com.example.pickbox.models.FileStatus;
 import com.example.pickbox.models.StorageItem;
+import com.example.pickbox.models.UploadChunk;
 import com.example.pickbox.models.UploadMetadata;
+import com.example.pickbox.services.ChunkSizePolicy;
 import com.example.pickbox.services.StorageService;
 import com.example.pickbox.services.StorageServiceFactory;
 import com.example.pickbox.services.UploadService;
+import com.example.pickbox.utils.ChecksumUtils;
 
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.data.mongodb.core.query.Update;
-import com.mongodb.client.result.UpdateResult;
 
 import lombok.extern.slf4j.Slf4j;
 
@@ -37,65 +62,340 @@ public class UploadServiceImpl implements UploadService {
 
     private final UploadMetadataRepository uploadMetadataRepository;
 
-    private final long chunkSize;
+    private final ChunkSizePolicy chunkSizePolicy;
 
     private final MongoTemplate mongoTemplate;
 
+    private final UploadCompletionWorker completionWorker;
+
+    private final UploadChunkRepository uploadChunkRepository;
+
+    private final UploadAdmission uploadAdmission;
+
+    private final FileCompressor fileCompressor;
+
+    private final ChunkManifestRepository chunkManifestRepository;
+
+    private final FolderVersions folderVersions;
+
+    private final ThumbnailGenerator thumbnailGenerator;
+
+    private final LegacyUploadMigrator legacyUploadMigrator;
+
+    private final ChunkManifestBuilder chunkManifestBuilder;
+
+    private final boolean contentDedupEnabled;
+
+    private final int maxChunkBatchSize;
+
+    private final int proofRanges;
+
+    private final int proofRangeBytes;
+
+    private final SecureRandom random = new SecureRandom();
+
     public UploadServiceImpl(FileRepository fileRepository,
             StorageServiceFactory storageServiceFactory,
             UploadMetadataRepository uploadMetadataRepository,
             MongoTemplate mongoTemplate,
-            @Value("${chunk.size}") long chunkSize) {
+            UploadCompletionWorker completionWorker,
+            UploadChunkRepository uploadChunkRepository,
+            ChunkSizePolicy chunkSizePolicy,
+            UploadAdmission uploadAdmission,
+            FileCompressor fileCompressor,
+            ChunkManifestRepository chunkManifestRepository,
+            FolderVersions folderVersions,
+            ThumbnailGenerator thumbnailGenerator,
+            LegacyUploadMigrator legacyUploadMigrator,
+            ChunkManifestBuilder chunkManifestBuilder,
+            @Value("${storage.type}") String storageType,
+            @Value("${upload.content-dedup.enabled:true}") boolean contentDedupEnabled,
+            @Value("${upload.chunk.max-batch-size:1000}") int maxChunkBatchSize,
+            @Value("${upload.content-dedup.proof-ranges:4}") int proofRanges,
+            @Value("${upload.content-dedup.proof-range-bytes:65536}") int proofRangeBytes) {
         this.fileRepository = fileRepository;
-        this.storageService = storageServiceFactory.getStorageService(StorageType.LOCAL);
+        this.storageService = storageServiceFactory.getStorageService(StorageType.valueOf(storageType.toUpperCase()));
         this.uploadMetadataRepository = uploadMetadataRepository;
         this.mongoTemplate = mongoTemplate;
-        this.chunkSize = chunkSize;
+        this.completionWorker = completionWorker;
+        this.uploadChunkRepository = uploadChunkRepository;
+        this.chunkSizePolicy = chunkSizePolicy;
+        this.uploadAdmission = uploadAdmission;
+        this.fileCompressor = fileCompressor;
+        this.chunkManifestRepository = chunkManifestRepository;
+        this.folderVersions = folderVersions;
+        this.thumbnailGenerator = thumbnailGenerator;
+        this.legacyUploadMigrator = legacyUploadMigrator;
+        this.chunkManifestBuilder = chunkManifestBuilder;
+        this.contentDedupEnabled = contentDedupEnabled;
+        this.maxChunkBatchSize = maxChunkBatchSize;
+        this.proofRanges = proofRanges;
+        this.proofRangeBytes = proofRangeBytes;
     }
 
     // ... (rest of the file until completeChunk)
 
+    /**
+     * Stores the storage id and CRC32C the server computed while writing a
+     * chunk. The composite digest and the download checksums are built from
+     * these; a checksum reported with completeChunk is only compared against
+     * them. A chunk written again replaces its record, the data changed.
+     */
+    @Override
+    public void recordChunkData(String uploadId, ChunkMetadata chunkMetadata) {
+        int chunkIndex = chunkMetadata.getChunkIndex();
+        mongoTemplate.upsert(new Query(Criteria.where("_id").is(UploadChunk.idFor(uploadId, chunkIndex))),
+                new Update().set("uploadId", uploadId)
+                        .set("chunkIndex", chunkIndex)
+                        .set("storageId", chunkMetadata.getStorageId())
+                        .set("checksum", chunkMetadata.getChecksum())
+                        .setOnInsert("createdAt", Instant.now()),
+                UploadChunk.class);
+    }
+
     @Override
-    public void completeChunk(String uploadId, String userId, ChunkMetadata chunkMetadata) {
+    public UploadStatusResponse completeChunk(String uploadId, String userId, ChunkMetadata chunkMetadata) {
         log.info("Completing chunk {} for upload {}", chunkMetadata.getChunkIndex(), uploadId);
         if (uploadId == null || uploadId.isEmpty()) {
             log.error("Upload ID is required for chunk completion");
             throw new IllegalArgumentException("Upload ID is required");
         }
+        if (chunkMetadata.getChecksum() != null) {
+            // Fail here rather than when the composite digest is built on completion
+            ChecksumUtils.decodeCrc32c(chunkMetadata.getChecksum());
+        }
+        int chunkIndex = chunkMetadata.getChunkIndex();
+        if (chunkIndex < 0) {
+            throw new IllegalArgumentException("Chunk index out of range: " + chunkIndex);
+        }
+        verifyReportedChecksums(uploadId, List.of(chunkMetadata));
+
+        // The guarded update is the only read of the upload on the common path
+        ChunkMark mark = markChunk(uploadId, userId, chunkIndex);
+        if (mark == null) {
+            // Neither marked nor a duplicate, the upload itself tells why
+            UploadMetadata uploadMetadata = getActiveUpload(uploadId, userId);
+            if (chunkIndex >= uploadMetadata.getTotalChunks()) {
+                throw new IllegalArgumentException("Chunk index out of range: " + chunkIndex);
+            }
+            if (uploadMetadata.getCompletedBitmap() == null) {
+                legacyUploadMigrator.migrate(uploadMetadata);
+                mark = markChunk(uploadId, userId, chunkIndex);
+            }
+            if (mark == null) {
+                log.error("Failed to complete chunk {}. Upload is no longer active. UploadId: {}", chunkIndex,
+                        uploadId);
+                throw new IllegalArgumentException("Upload already deleted or completed or aborted");
+            }
+        }
+        if (!mark.recorded()) {
+            log.info("Chunk {} already exists for upload {}. Ignoring duplicate.", chunkIndex, uploadId);
+            return toStatusResponse(mark.upload());
+        }
+        saveChunkRecords(uploadId, Map.of(chunkIndex, chunkMetadata));
+        uploadAdmission.recordWritten(uploadId, chunkLength(mark.upload(), chunkIndex));
+        return toStatusResponse(mark.upload());
+    }
+
+    /**
+     * Records many chunks with one findAndModify that sets their bits and bumps
+     * the counter together, guarded on those bits still being clear, so the
+     * counter always matches the bitmap. A concurrent request that set one of
+     * the bits first makes the guard fail, the chunks are then recorded one by
+     * one, each with the same single atomic update.
+     */
+    @Override
+    public ChunkBatchResponse completeChunks(String uploadId, String userId, List<ChunkMetadata> chunks) {
+        log.info("Completing {} chunks for upload {}", chunks == null ? 0 : chunks.size(), uploadId);
+        if (uploadId == null || uploadId.isEmpty()) {
+            log.error("Upload ID is required for chunk completion");
+            throw new IllegalArgumentException("Upload ID is required");
+        }
+        if (chunks == null || chunks.isEmpty()) {
+            throw new IllegalArgumentException("At least one chunk is required");
+        }
+        if (chunks.size() > maxChunkBatchSize) {
+            throw new IllegalArgumentException("At most " + maxChunkBatchSize + " chunks can be completed at once");
+        }
+        UploadMetadata uploadMetadata = legacyUploadMigrator.migrate(getActiveUpload(uploadId, userId));
+        BitSet requested = new BitSet();
+        Map<Integer, ChunkMetadata> byIndex = new HashMap<>();
+        for (ChunkMetadata chunk : chunks) {
+            // Checked before the index reaches the BitSet, which allocates up to it
+            if (chunk.getChunkIndex() < 0 || chunk.getChunkIndex() >= uploadMetadata.getTotalChunks()) {
+                throw new IllegalArgumentException("Chunk index out of range: " + chunk.getChunkIndex());
+            }
+            if (chunk.getChecksum() != null) {
+                ChecksumUtils.decodeCrc32c(chunk.getChecksum());
+            }
+            requested.set(chunk.getChunkIndex());
+            byIndex.put(chunk.getChunkIndex(), chunk);
+        }
+
+        BitSet previous = bitmapOf(uploadMetadata);
+        BitSet candidates = (BitSet) requested.clone();
+        candidates.andNot(previous);
+        BitSet recorded = new BitSet();
+        UploadMetadata latest = uploadMetadata;
+        if (!candidates.isEmpty()) {
+            Map<Integer, ChunkMetadata> records = new HashMap<>();
+            candidates.stream().forEach(index -> records.put(index, byIndex.get(index)));
+            verifyReportedChecksums(uploadId, records.values());
+
+            Criteria criteria = Criteria.where("_id").is(uploadId)
+                    .and("status").is(FileStatus.UPLOADING)
+                    .and("userId").is(userId);
+            Update update = new Update()
+                    .inc("completedCount", candidates.cardinality())
+                    .set("updatedAt", Instant.now());
+            long[] words = candidates.toLongArray();
+            for (int word = 0; word < words.length; word++) {
+                if (words[word] != 0) {
+                    String bitmapWord = "completedBitmap." + word;
+                    criteria = criteria.and(bitmapWord).bits().allClear(bitPositions(words[word]));
+                    update.bitwise(bitmapWord).or(words[word]);
+                }
+            }
+            Query query = new Query(criteria);
+            query.fields().exclude("completedBitmap");
+            UploadMetadata updated = mongoTemplate.findAndModify(query, update,
+                    FindAndModifyOptions.options().returnNew(true), UploadMetadata.class);
+            if (updated != null) {
+                recorded = candidates;
+                latest = updated;
+            } else {
+                // Another request recorded some of these chunks meanwhile, or the upload moved on
+                for (int index = candidates.nextSetBit(0); index >= 0; index = candidates.nextSetBit(index + 1)) {
+                    ChunkMark mark = markChunk(uploadId, userId, index);
+                    if (mark == null) {
+                        throw new IllegalArgumentException("Upload already deleted or completed or aborted");
+                    }
+                    if (mark.recorded()) {
+                        recorded.set(index);
+                    }
+                    latest = mark.upload();
+                }
+            }
+            if (!recorded.isEmpty()) {
+                records.keySet().retainAll(recorded.stream().boxed().toList());
+                saveChunkRecords(uploadId, records);
+                uploadAdmission.recordWritten(uploadId,
+                        recorded.stream().mapToLong(index -> chunkLength(uploadMetadata, index)).sum());
+            }
+        }
+
+        BitSet alreadyRecorded = (BitSet) requested.clone();
+        alreadyRecorded.andNot(recorded);
+        log.info("Recorded {} new chunks ({} duplicates) for upload {}", recorded.cardinality(),
+                alreadyRecorded.cardinality(), uploadId);
+        return ChunkBatchResponse.builder()
+                .uploadId(uploadId)
+                .recorded(recorded.stream().boxed().toList())
+                .alreadyRecorded(alreadyRecorded.stream().boxed().toList())
+                .completedChunks(latest.getCompletedCount())
+                .totalChunks(uploadMetadata.getTotalChunks())
+                .build();
+    }
 
-        // Use atomic update to avoid race conditions
+    private record ChunkMark(UploadMetadata upload, boolean recorded) {
+    }
+
+    /**
+     * Sets one chunk's bit and bumps the counter in one atomic update. Matching
+     * on the bit being clear keeps the counter exact when a chunk is reported
+     * twice. Returns null when the chunk was neither marked nor already
+     * marked: the upload is gone, no longer active, not the user's, predates
+     * the bitmap or has no such chunk.
+     */
+    private ChunkMark markChunk(String uploadId, String userId, int chunkIndex) {
+        String bitmapWord = "completedBitmap." + (chunkIndex >>> 6);
+        int bit = chunkIndex & 63;
         Query query = new Query(
                 Criteria.where("_id").is(uploadId)
                         .and("status").is(FileStatus.UPLOADING)
                         .and("userId").is(userId)
-                        .and("completedChunks.chunkIndex").ne(chunkMetadata.getChunkIndex()));
+                        .and("totalChunks").gt(chunkIndex)
+                        .and(bitmapWord).bits().allClear(List.of(bit)));
+        query.fields().exclude("completedBitmap");
 
-        Update update = new Update();
-        update.push("completedChunks", chunkMetadata);
+        Update update = new Update()
+                .inc("completedCount", 1)
+                .set("updatedAt", Instant.now());
+        update.bitwise(bitmapWord).or(1L << bit);
 
-        UpdateResult result = mongoTemplate.updateFirst(query, update, UploadMetadata.class);
+        UploadMetadata updated = mongoTemplate.findAndModify(query, update,
+                FindAndModifyOptions.options().returnNew(true), UploadMetadata.class);
+        if (updated != null) {
+            return new ChunkMark(updated, true);
+        }
 
-        if (result.getMatchedCount() == 0) {
-            // Check if it failed because chunk already exists (Idempotency)
-            Query duplicateCheckQuery = new Query(
-                    Criteria.where("_id").is(uploadId)
-                            .and("completedChunks.chunkIndex").is(chunkMetadata.getChunkIndex()));
+        // Check if it failed because chunk already exists (Idempotency)
+        Query duplicateCheckQuery = new Query(
+                Criteria.where("_id").is(uploadId)
+                        .and("status").is(FileStatus.UPLOADING)
+                        .and("userId").is(userId)
+                        .and(bitmapWord).bits().allSet(List.of(bit)));
+        duplicateCheckQuery.fields().exclude("completedBitmap");
+        UploadMetadata existing = mongoTemplate.findOne(duplicateCheckQuery, UploadMetadata.class);
+        return existing != null ? new ChunkMark(existing, false) : null;
+    }
 
-            if (mongoTemplate.exists(duplicateCheckQuery, UploadMetadata.class)) {
-                log.info("Chunk {} already exists for upload {}. Ignoring duplicate.", chunkMetadata.getChunkIndex(),
-                        uploadId);
-                return;
+    /**
+     * Rejects reported checksums that differ from the one the server computed
+     * when it received the chunk. Chunks sent straight to object storage have
+     * no server checksum, the reported one is all there is for them.
+     */
+    private void verifyReportedChecksums(String uploadId, Collection<ChunkMetadata> chunks) {
+        List<String> ids = chunks.stream()
+                .filter(chunk -> chunk.getChecksum() != null)
+                .map(chunk -> UploadChunk.idFor(uploadId, chunk.getChunkIndex()))
+                .toList();
+        if (ids.isEmpty()) {
+            return;
+        }
+        Map<Integer, String> computed = new HashMap<>();
+        for (UploadChunk record : uploadChunkRepository.findAllById(ids)) {
+            if (record.getChecksum() != null) {
+                computed.put(record.getChunkIndex(), record.getChecksum());
             }
-
-            // If no document matched and not a duplicate, it means either:
-            // 1. Upload ID doesn't exist
-            // 2. Status is not UPLOADING
-            // 3. UserId doesn't match
-            log.error(
-                    "Failed to complete chunk. Upload not found, invalid state/user, or concurrent modification. UploadId: {}",
-                    uploadId);
-            throw new IllegalArgumentException("Upload already deleted or completed or aborted");
         }
+        for (ChunkMetadata chunk : chunks) {
+            String expected = computed.get(chunk.getChunkIndex());
+            if (chunk.getChecksum() != null && expected != null && !expected.equals(chunk.getChecksum())) {
+                log.error("Reported checksum of chunk {} of upload {} does not match. Stored: {}, reported: {}",
+                        chunk.getChunkIndex(), uploadId, expected, chunk.getChecksum());
+                throw new ChecksumMismatchException("Checksum mismatch for chunk " + chunk.getChunkIndex());
+            }
+        }
+    }
+
+    // Keeps what the data path recorded, the reported values only fill in for chunks it never saw
+    private void saveChunkRecords(String uploadId, Map<Integer, ChunkMetadata> chunks) {
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, UploadChunk.class);
+        Instant now = Instant.now();
+        chunks.forEach((index, chunk) -> bulk.upsert(
+                new Query(Criteria.where("_id").is(UploadChunk.idFor(uploadId, index))),
+                new Update().set("uploadId", uploadId)
+                        .set("chunkIndex", index)
+                        .setOnInsert("storageId", chunk.getStorageId())
+                        .setOnInsert("checksum", chunk.getChecksum())
+                        .setOnInsert("createdAt", now)));
+        bulk.execute();
+    }
+
+    private static BitSet bitmapOf(UploadMetadata uploadMetadata) {
+        return BitSet.valueOf(uploadMetadata.getCompletedBitmap().stream().mapToLong(Long::longValue).toArray());
+    }
+
+    private static List<Integer> bitPositions(long word) {
+        List<Integer> positions = new ArrayList<>();
+        BitSet.valueOf(new long[] { word }).stream().forEach(positions::add);
+        return positions;
+    }
+
+    private static long chunkLength(UploadMetadata uploadMetadata, int chunkIndex) {
+        long offset = chunkIndex * uploadMetadata.getChunkSize();
+        return Math.max(0, Math.min(uploadMetadata.getChunkSize(), uploadMetadata.getFileSize() - offset));
     }
 
     private boolean validateUser(String requestUserId, String metadataUserId) {
@@ -118,46 +418,228 @@ public class UploadServiceImpl implements UploadService {
             log.error("Parent file does not exist: {}", uploadRequest.getParentId());
             throw new IllegalArgumentException("Parent file does not exist");
         }
+        String contentHash = uploadRequest.getContentHash() == null ? null
+                : uploadRequest.getContentHash().toLowerCase();
+        if (contentHash != null && !ChecksumUtils.isSha256Hex(contentHash)) {
+            log.error("Invalid content hash: {}", uploadRequest.getContentHash());
+            throw new IllegalArgumentException("Content hash must be a hex SHA-256");
+        }
+        if (contentHash != null && contentDedupEnabled) {
+            UploadResponse linked = linkOwnContent(uploadRequest, contentHash);
+            if (linked != null) {
+                return linked;
+            }
+        }
+        String uploadId = UUID.randomUUID().toString().replace("-", "");
+        uploadAdmission.admit(uploadRequest.getUserId(), uploadId, uploadRequest.getSize());
         UploadMetadata uploadMetadata;
         try {
-            String uploadId = UUID.randomUUID().toString().replace("-", "");
+            long chunkSize = Math.max(chunkSizePolicy.chunkSizeFor(uploadRequest.getSize()),
+                    storageService.minChunkSize());
+            // Grow chunks when the backend caps the chunk count, e.g. S3 at 10000 parts
+            chunkSize = Math.max(chunkSize,
+                    (uploadRequest.getSize() + storageService.maxChunks() - 1) / storageService.maxChunks());
+            long totalChunks = (uploadRequest.getSize() + chunkSize - 1) / chunkSize;
             uploadMetadata = UploadMetadata.builder()
                     .uploadId(uploadId)
                     .fileName(uploadRequest.getName())
                     .fileSize(uploadRequest.getSize())
-                    .totalChunks((int) Math.ceil((double) uploadRequest.getSize() / chunkSize))
+                    .totalChunks(totalChunks)
                     .userId(uploadRequest.getUserId())
                     .parentId(uploadRequest.getParentId())
-                    .completedChunks(new ArrayList<>())
+                    .completedBitmap(new ArrayList<>(Collections.nCopies((int) ((totalChunks + 63) / 64), 0L)))
+                    .completedCount(0)
                     .createdAt(Instant.now())
                     .updatedAt(Instant.now())
                     .chunkSize(chunkSize)
                     .mimeType(uploadRequest.getMimeType())
+                    .contentHash(contentHash)
                     .status(FileStatus.UPLOADING)
                     .build();
-            String storageId = storageService.initiateUpload(uploadMetadata.getUserId(), uploadId);
+            String storageId = storageService.initiateUpload(uploadMetadata.getUserId(), uploadId,
+                    uploadMetadata.getFileSize(), uploadMetadata.getChunkSize());
             uploadMetadata.setStorageId(storageId);
+            uploadAdmission.storageInitiated(uploadId);
+            if (contentHash != null && contentDedupEnabled) {
+                challengePossession(uploadMetadata);
+            }
             uploadMetadataRepository.save(uploadMetadata);
             log.info("Upload metadata saved: {}, file name: {}, file size: {}", uploadId, uploadMetadata.getFileName(),
                     uploadMetadata.getFileSize());
         } catch (Exception e) {
             log.error("Failed to initiate upload", e);
+            uploadAdmission.release(uploadId);
             throw new RuntimeException("Failed to initiate upload", e);
         }
-        return new UploadResponse(uploadMetadata);
+        UploadResponse response = new UploadResponse(uploadMetadata);
+        response.setChunkUploadMethod(storageService.chunkUploadMethod());
+        response.setProofOffsets(uploadMetadata.getProofOffsets());
+        response.setProofLength(uploadMetadata.getProofLength());
+        return response;
+    }
+
+    /**
+     * Creates the file straight away when the uploader already stores content
+     * with the same SHA-256 and size, so no chunk has to be sent. Only hashes
+     * the server verified itself are matched, a client cannot plant content
+     * under a hash it does not have.
+     */
+    private UploadResponse linkOwnContent(UploadRequest uploadRequest, String contentHash) {
+        StorageItem source = fileRepository
+                .findFirstByOwnerUserIdAndContentHashAndSizeAndStatus(uploadRequest.getUserId(), contentHash,
+                        uploadRequest.getSize(), FileStatus.ACTIVE)
+                .orElse(null);
+        if (source == null) {
+            return null;
+        }
+        return linkContent(uploadRequest.getUserId(), uploadRequest.getName(), uploadRequest.getMimeType(),
+                uploadRequest.getParentId(), contentHash, source);
+    }
+
+    /**
+     * Asks for proof that the client holds the content before it may be linked
+     * to another user's copy: a hash and size alone would hand out other
+     * users' files to anyone who learned them. The client must return the
+     * SHA-256 of {@code upload.content-dedup.proof-range-bytes} bytes at
+     * random offsets the server picks, which the full-file hash does not
+     * give away. The challenge is issued whether or not any content matched,
+     * so it does not reveal what the server stores either. Files not larger
+     * than one range get none, their only range would be the file itself.
+     */
+    private void challengePossession(UploadMetadata uploadMetadata) {
+        long size = uploadMetadata.getFileSize();
+        if (proofRanges <= 0 || size <= proofRangeBytes) {
+            return;
+        }
+        StorageItem source = fileRepository
+                .findFirstByContentHashAndSizeAndStatusAndCompressionIsNull(uploadMetadata.getContentHash(), size,
+                        FileStatus.ACTIVE)
+                .orElse(null);
+        List<Long> offsets = new ArrayList<>();
+        for (int i = 0; i < proofRanges; i++) {
+            offsets.add(random.nextLong(size - proofRangeBytes + 1));
+        }
+        uploadMetadata.setProofSourceId(source == null ? null : source.getId());
+        uploadMetadata.setProofOffsets(offsets);
+        uploadMetadata.setProofLength(proofRangeBytes);
     }
 
+    /**
+     * Links the upload to the matching content when the range hashes of its
+     * challenge are right, and closes the upload. A challenge is answered
+     * once; after a wrong answer the chunks have to be uploaded.
+     */
     @Override
-    public void completeUpload(String uploadId, String userId) {
+    public UploadResponse proveContent(String uploadId, String userId, List<String> hashes) {
+        UploadMetadata uploadMetadata = getActiveUpload(uploadId, userId);
+        Query query = new Query(Criteria.where("_id").is(uploadId)
+                .and("status").is(FileStatus.UPLOADING)
+                .and("proofOffsets").exists(true));
+        Update update = new Update().unset("proofOffsets").unset("proofSourceId").set("updatedAt", Instant.now());
+        UploadMetadata challenged = mongoTemplate.findAndModify(query, update, UploadMetadata.class);
+        if (challenged == null) {
+            throw new IllegalArgumentException("No content proof is pending for this upload");
+        }
+        StorageItem source = challenged.getProofSourceId() == null ? null
+                : fileRepository.findById(challenged.getProofSourceId())
+                        // Ranges are of the plain content, a blob compressed since cannot be read at them
+                        .filter(item -> item.getStatus() == FileStatus.ACTIVE && item.getCompression() == null
+                                && uploadMetadata.getContentHash().equals(item.getContentHash()))
+                        .orElse(null);
+        if (source == null || !rangesMatch(source, challenged, hashes)) {
+            log.warn("Content proof failed for upload {}", uploadId);
+            throw new IllegalArgumentException("Content proof failed, upload the chunks instead");
+        }
+        UploadResponse linked = linkContent(userId, uploadMetadata.getFileName(), uploadMetadata.getMimeType(),
+                uploadMetadata.getParentId(), uploadMetadata.getContentHash(), source);
+        if (linked == null) {
+            throw new IllegalArgumentException("Content proof failed, upload the chunks instead");
+        }
+        // The upload session is done with, nothing was sent to it
+        updateStatus(uploadId, FileStatus.UPLOADING, FileStatus.COMPLETED, null);
+        storageService.abortUpload(uploadMetadata.getStorageId());
+        uploadChunkRepository.deleteAllByUploadId(uploadId);
+        uploadAdmission.release(uploadId);
+        return linked;
+    }
+
+    private boolean rangesMatch(StorageItem source, UploadMetadata challenged, List<String> hashes) {
+        List<Long> offsets = challenged.getProofOffsets();
+        if (hashes == null || hashes.size() != offsets.size()) {
+            return false;
+        }
+        try (SeekableByteChannel channel = storageService.openForRead(
+                source.getStorageKey() != null ? source.getStorageKey() : source.getId())) {
+            ByteBuffer buffer = ByteBuffer.allocate(challenged.getProofLength());
+            for (int i = 0; i < offsets.size(); i++) {
+                buffer.clear();
+                channel.position(offsets.get(i));
+                while (buffer.hasRemaining() && channel.read(buffer) != -1) {
+                    // Fill the whole range
+                }
+                if (buffer.hasRemaining()
+                        || !ChecksumUtils.sha256Hex(buffer.array()).equalsIgnoreCase(String.valueOf(hashes.get(i)))) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            log.warn("Could not read {} to check a content proof: {}", source.getId(), e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Creates a file of the user's sharing the stored content of
+     * {@code source}. Returns null when the source was deleted meanwhile.
+     */
+    private UploadResponse linkContent(String userId, String name, String mimeType, String parentId,
+            String contentHash, StorageItem source) {
+        Instant now = Instant.now();
+        StorageItem storageItem = StorageItem.builder()
+                .id(UUID.randomUUID().toString().replace("-", ""))
+                .storageKey(source.getStorageKey())
+                .storageVersion(source.getStorageVersion())
+                .bucketName(source.getBucketName())
+                .name(name)
+                .mimeType(mimeType != null ? mimeType : source.getMimeType())
+                .size(source.getSize())
+                .parentId(parentId)
+                .contentDigest(source.getContentDigest())
+                .contentHash(contentHash)
+                .compression(source.getCompression())
+                .storedSize(source.getStoredSize())
+                .tier(source.getTier())
+                .thumbnailKeys(source.getThumbnailKeys())
+                .crc32(source.getCrc32())
+                .status(FileStatus.ACTIVE)
+                .ownerUserId(userId)
+                .createdAt(now)
+                .updatedAt(now)
+                .build();
+        fileRepository.save(storageItem);
+        // A delete only releases the content once no item references the storage key. If the
+        // source went away before our save was visible, the content may be gone: upload normally.
+        if (!fileRepository.existsById(source.getId())) {
+            log.warn("Source file {} was deleted while linking, falling back to a full upload", source.getId());
+            fileRepository.deleteById(storageItem.getId());
+            return null;
+        }
+        folderVersions.bump(storageItem.getOwnerUserId(), storageItem.getParentId());
+        log.info("Linked upload of {} to existing content {}, no data transferred", name, source.getStorageKey());
+        return new UploadResponse(storageItem);
+    }
+
+    @Override
+    public UploadStatusResponse completeUpload(String uploadId, String userId) {
         log.info("Completing upload: {}", uploadId);
         if (uploadId == null || uploadId.isEmpty()) {
             log.error("Upload ID is required for completion");
             throw new IllegalArgumentException("Upload ID is required");
         }
         UploadMetadata uploadMetadata = uploadMetadataRepository.findById(uploadId).orElse(null);
-        if (uploadMetadata == null || uploadMetadata.getStatus() != FileStatus.UPLOADING) {
-            // Upload already deleted or completed or aborted
-            log.error("Upload already deleted or completed or aborted for upload: {}", uploadId);
+        if (uploadMetadata == null) {
+            log.error("Upload not found: {}", uploadId);
             throw new IllegalArgumentException("Upload already deleted or completed or aborted");
         }
         if (!validateUser(userId, uploadMetadata.getUserId())) {
@@ -165,47 +647,144 @@ public class UploadServiceImpl implements UploadService {
                     uploadMetadata.getUserId(), userId);
             throw new IllegalArgumentException("User ID does not match");
         }
+        uploadMetadata = legacyUploadMigrator.migrate(uploadMetadata);
+        if (uploadMetadata.getStatus() == FileStatus.COMPLETING
+                || uploadMetadata.getStatus() == FileStatus.COMPLETED) {
+            // Repeated completion request, the first one already owns the merge
+            log.info("Upload {} is already {}", uploadId, uploadMetadata.getStatus());
+            return toStatusResponse(uploadMetadata);
+        }
+        if (uploadMetadata.getStatus() != FileStatus.UPLOADING) {
+            log.error("Upload already deleted or aborted for upload: {}", uploadId);
+            throw new IllegalArgumentException("Upload already deleted or completed or aborted");
+        }
 
-        if (uploadMetadata.getTotalChunks() != uploadMetadata.getCompletedChunks().size()) {
+        if (uploadMetadata.getTotalChunks() != uploadMetadata.getCompletedCount()) {
             log.error("All chunks are not uploaded for upload: {}. Expected: {}, Actual: {}", uploadId,
-                    uploadMetadata.getTotalChunks(), uploadMetadata.getCompletedChunks().size());
+                    uploadMetadata.getTotalChunks(), uploadMetadata.getCompletedCount());
+            throw new IllegalArgumentException("All chunks are not uploaded");
+        }
+        // Chunks are reported by the client, make sure their data actually arrived
+        BitSet stored = storageService.storedChunks(uploadMetadata.getStorageId(),
+                (int) uploadMetadata.getTotalChunks());
+        if (stored.cardinality() < uploadMetadata.getTotalChunks()) {
+            log.error("Upload {} has chunks recorded but not in storage, first missing: {}", uploadId,
+                    stored.nextClearBit(0));
             throw new IllegalArgumentException("All chunks are not uploaded");
         }
+        if (!completionWorker.hasCapacity()) {
+            throw new RejectedExecutionException("Upload completion queue is full");
+        }
+
+        // Only the request that moves UPLOADING -> COMPLETING gets to schedule the merge
+        Query query = new Query(Criteria.where("_id").is(uploadId)
+                .and("userId").is(userId)
+                .and("status").is(FileStatus.UPLOADING));
+        Update update = new Update()
+                .set("status", FileStatus.COMPLETING)
+                .set("updatedAt", Instant.now())
+                .unset("lastError");
+        UploadMetadata claimed = mongoTemplate.findAndModify(query, update,
+                FindAndModifyOptions.options().returnNew(true), UploadMetadata.class);
+        if (claimed == null) {
+            log.info("Upload {} was claimed by a concurrent completion request", uploadId);
+            return uploadMetadataRepository.findById(uploadId)
+                    .map(this::toStatusResponse)
+                    .orElseThrow(() -> new IllegalArgumentException("Upload already deleted or completed or aborted"));
+        }
+
+        try {
+            scheduleCompletion(claimed);
+        } catch (RejectedExecutionException e) {
+            updateStatus(uploadId, FileStatus.COMPLETING, FileStatus.UPLOADING, e.getMessage());
+            throw e;
+        }
+        return toStatusResponse(claimed);
+    }
+
+    @Override
+    public UploadStatusResponse getUploadStatus(String uploadId, String userId) {
+        if (uploadId == null || uploadId.isEmpty()) {
+            throw new IllegalArgumentException("Upload ID is required");
+        }
+        UploadMetadata uploadMetadata = uploadMetadataRepository.findById(uploadId)
+                .orElseThrow(() -> new IllegalArgumentException("Upload not found"));
+        if (!validateUser(userId, uploadMetadata.getUserId())) {
+            log.error("User ID does not match for upload status: {}", uploadId);
+            throw new IllegalArgumentException("User ID does not match");
+        }
+        uploadMetadata = legacyUploadMigrator.migrate(uploadMetadata);
+        UploadStatusResponse status = toStatusResponse(uploadMetadata);
+        if (uploadMetadata.getStatus() == FileStatus.UPLOADING) {
+            addResumeInfo(uploadMetadata, status);
+        }
+        return status;
+    }
 
-        // Storage First: Execute S3/Storage completion with Retry Logic
-        int maxRetries = 3;
-        int attempt = 0;
-        boolean success = false;
+    /**
+     * A chunk counts as uploaded only when it is recorded in the bitmap and its
+     * data is still in storage. Anything else is reported as missing, as ranges
+     * so the answer stays small for any upload size.
+     */
+    private void addResumeInfo(UploadMetadata uploadMetadata, UploadStatusResponse status) {
+        int totalChunks = (int) uploadMetadata.getTotalChunks();
+        BitSet present = bitmapOf(uploadMetadata);
+        present.and(storageService.storedChunks(uploadMetadata.getStorageId(), totalChunks));
+
+        List<ChunkRange> missingRanges = new ArrayList<>();
+        int start = present.nextClearBit(0);
+        while (start < totalChunks) {
+            int next = present.nextSetBit(start);
+            int end = next < 0 || next > totalChunks ? totalChunks : next;
+            missingRanges.add(new ChunkRange(start, end - 1));
+            start = present.nextClearBit(end);
+        }
+
+        long chunkSize = uploadMetadata.getChunkSize();
+        long uploadedBytes = present.cardinality() * chunkSize;
+        int lastChunk = totalChunks - 1;
+        if (lastChunk >= 0 && present.get(lastChunk)) {
+            // The last chunk is usually shorter than chunkSize
+            uploadedBytes -= (long) totalChunks * chunkSize - uploadMetadata.getFileSize();
+        }
+        status.setChunkSize(chunkSize);
+        status.setMissingRanges(missingRanges);
+        status.setUploadedBytes(uploadedBytes);
+        status.setMissingBytes(uploadMetadata.getFileSize() - uploadedBytes);
+    }
 
-        while (attempt < maxRetries) {
+    /**
+     * Uploads left in COMPLETING by a restart would never finish, so they are
+     * queued again once the application is up. Storage completion is
+     * idempotent, so re-running a merge that already went through is safe.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumePendingCompletions() {
+        for (UploadMetadata uploadMetadata : uploadMetadataRepository.findAllByStatus(FileStatus.COMPLETING)) {
+            log.info("Resuming completion for upload: {}", uploadMetadata.getUploadId());
             try {
-                storageService.completeUpload(uploadMetadata.getStorageId());
-                success = true;
-                break;
-            } catch (Exception e) {
-                attempt++;
-                log.error("Storage completion failed (attempt {}/{}): {}", attempt, maxRetries, e.getMessage());
-                if (attempt >= maxRetries) {
-                    throw new RuntimeException("Failed to complete upload after " + maxRetries + " attempts", e);
-                }
-                try {
-                    Thread.sleep(2000); // Wait 2 seconds before retry
-                } catch (InterruptedException ie) {
-                    Thread.currentThread().interrupt();
-                    throw new RuntimeException("Upload completion interrupted", ie);
-                }
+                scheduleCompletion(uploadMetadata);
+            } catch (RejectedExecutionException e) {
+                log.warn("Could not resume completion for upload {}: {}", uploadMetadata.getUploadId(),
+                        e.getMessage());
             }
         }
+    }
 
-        if (!success) {
-            log.error("Failed to complete upload after retries: {}", uploadId);
-            throw new RuntimeException("Failed to complete upload");
-        }
+    private void scheduleCompletion(UploadMetadata uploadMetadata) {
+        completionWorker.submit(uploadMetadata.getUploadId(), uploadMetadata.getFileSize(),
+                () -> finishUpload(uploadMetadata),
+                e -> updateStatus(uploadMetadata.getUploadId(), FileStatus.COMPLETING, FileStatus.UPLOADING,
+                        e.getMessage()));
+    }
 
-        uploadMetadata.setStatus(FileStatus.DELETED);
-        uploadMetadata.setUpdatedAt(Instant.now());
-        uploadMetadataRepository.save(uploadMetadata);
+    private void finishUpload(UploadMetadata uploadMetadata) {
+        String uploadId = uploadMetadata.getUploadId();
+        storageService.completeUpload(uploadMetadata.getStorageId(), uploadMetadata.getFileSize(),
+                uploadMetadata.getChunkSize());
 
+        List<String> checksums = chunkChecksums(uploadMetadata);
+        Instant now = Instant.now();
         StorageItem storageItem = StorageItem.builder()
                 .id(uploadMetadata.getUploadId())
                 .storageKey(uploadMetadata.getStorageId())
@@ -214,15 +793,128 @@ public class UploadServiceImpl implements UploadService {
                 .name(uploadMetadata.getFileName())
                 .mimeType(uploadMetadata.getMimeType())
                 .size(uploadMetadata.getFileSize())
+                .parentId(uploadMetadata.getParentId())
+                .contentDigest(checksums == null ? null : ChecksumUtils.compositeCrc32c(checksums))
+                .contentHash(verifiedContentHash(uploadMetadata))
                 .status(FileStatus.ACTIVE)
                 .ownerUserId(uploadMetadata.getUserId())
                 .createdAt(uploadMetadata.getCreatedAt())
-                .updatedAt(uploadMetadata.getUpdatedAt())
+                .updatedAt(now)
                 .build();
+        if (checksums != null) {
+            // The upload's chunk layout doubles as the download layout, no need to read the file again
+            chunkManifestRepository.save(ChunkManifest.builder()
+                    .storageKey(uploadMetadata.getStorageId())
+                    .size(uploadMetadata.getFileSize())
+                    .chunkSize(uploadMetadata.getChunkSize())
+                    .checksums(checksums)
+                    .createdAt(now)
+                    .build());
+        }
         fileRepository.save(storageItem);
+        folderVersions.bump(storageItem.getOwnerUserId(), storageItem.getParentId());
+
+        updateStatus(uploadId, FileStatus.COMPLETING, FileStatus.COMPLETED, null);
+        uploadAdmission.release(uploadId);
+        // Reads the file once now, rather than on first download, when chunks were recorded without
+        // checksums or an archive will need the CRC-32 of a file stored as it is
+        chunkManifestBuilder.submit(storageItem);
+        fileCompressor.submit(storageItem);
+        thumbnailGenerator.submit(storageItem);
         log.info("Upload completed successfully: {}", uploadId);
     }
 
+    /**
+     * CRC32C of every chunk in order, or null when chunks were recorded
+     * without a checksum.
+     */
+    private List<String> chunkChecksums(UploadMetadata uploadMetadata) {
+        List<UploadChunk> chunks = uploadChunkRepository.findAllByUploadIdOrderByChunkIndex(
+                uploadMetadata.getUploadId());
+        if (chunks.size() != uploadMetadata.getTotalChunks()
+                || chunks.stream().anyMatch(chunk -> chunk.getChecksum() == null)) {
+            return null;
+        }
+        return chunks.stream()
+                .map(UploadChunk::getChecksum)
+                .toList();
+    }
+
+    /**
+     * Hashes the stored content when the client declared a hash. Only a matching
+     * hash is indexed for deduplication; the file itself is kept either way as
+     * its chunks already passed their CRC checks.
+     */
+    private String verifiedContentHash(UploadMetadata uploadMetadata) {
+        if (uploadMetadata.getContentHash() == null) {
+            return null;
+        }
+        try (SeekableByteChannel channel = storageService.openForRead(uploadMetadata.getStorageId())) {
+            String actual = ChecksumUtils.sha256Hex(channel);
+            if (actual.equals(uploadMetadata.getContentHash())) {
+                return actual;
+            }
+            log.warn("Declared content hash does not match for upload {}. Declared: {}, actual: {}",
+                    uploadMetadata.getUploadId(), uploadMetadata.getContentHash(), actual);
+            return null;
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to verify content hash", e);
+        }
+    }
+
+    private void updateStatus(String uploadId, FileStatus from, FileStatus to, String error) {
+        Query query = new Query(Criteria.where("_id").is(uploadId).and("status").is(from));
+        Update update = new Update()
+                .set("status", to)
+                .set("updatedAt", Instant.now());
+        if (error != null) {
+            update.set("lastError", error);
+        }
+        mongoTemplate.updateFirst(query, update, UploadMetadata.class);
+    }
+
+    private UploadStatusResponse toStatusResponse(UploadMetadata uploadMetadata) {
+        return UploadStatusResponse.builder()
+                .uploadId(uploadMetadata.getUploadId())
+                .status(uploadMetadata.getStatus())
+                .totalChunks(uploadMetadata.getTotalChunks())
+                .completedChunks(uploadMetadata.getCompletedCount())
+                .fileId(uploadMetadata.getStatus() == FileStatus.COMPLETED ? uploadMetadata.getUploadId() : null)
+                .error(uploadMetadata.getLastError())
+                .build();
+    }
+
+    @Override
+    public UploadMetadata getActiveUpload(String uploadId, String userId) {
+        if (uploadId == null || uploadId.isEmpty()) {
+            throw new IllegalArgumentException("Upload ID is required");
+        }
+        UploadMetadata uploadMetadata = uploadMetadataRepository.findById(uploadId).orElse(null);
+        if (uploadMetadata == null || uploadMetadata.getStatus() != FileStatus.UPLOADING) {
+            log.error("Upload is not active: {}", uploadId);
+            throw new IllegalArgumentException("Upload already deleted or completed or aborted");
+        }
+        if (!validateUser(userId, uploadMetadata.getUserId())) {
+            log.error("User ID does not match for upload: {}, expected: {}, actual: {}", uploadId,
+                    uploadMetadata.getUserId(), userId);
+            throw new IllegalArgumentException("User ID does not match");
+        }
+        return uploadMetadata;
+    }
+
+    @Override
+    public ChunkUrlResponse getChunkUploadUrl(String uploadId, String userId, int chunkIndex) {
+        UploadMetadata uploadMetadata = getActiveUpload(uploadId, userId);
+        if (chunkIndex < 0 || chunkIndex >= uploadMetadata.getTotalChunks()) {
+            throw new IllegalArgumentException("Chunk index out of range: " + chunkIndex);
+        }
+        return ChunkUrlResponse.builder()
+                .chunkIndex(chunkIndex)
+                .url(storageService.generateSignedUrl(uploadMetadata.getStorageId(), chunkIndex))
+                .method(storageService.chunkUploadMethod())
+                .build();
+    }
+
     @Override
     public void abortUpload(String uploadId, String userId) {
         log.info("Aborting upload: {}", uploadId);
@@ -240,7 +932,16 @@ public class UploadServiceImpl implements UploadService {
                     uploadMetadata.getUserId(), userId);
             throw new IllegalArgumentException("User ID does not match");
         }
-        uploadMetadata.setStatus(FileStatus.DELETED);
-        uploadMetadataRepository.save(uploadMetadata);
+        Query query = new Query(Criteria.where("_id").is(uploadId).and("status").is(FileStatus.UPLOADING));
+        Update update = new Update()
+                .set("status", FileStatus.DELETED)
+                .set("updatedAt", Instant.now());
+        if (mongoTemplate.updateFirst(query, update, UploadMetadata.class).getModifiedCount() == 0) {
+            // Completion or another abort got there first
+            return;
+        }
+        storageService.abortUpload(uploadMetadata.getStorageId());
+        uploadChunkRepository.deleteAllByUploadId(uploadId);
+        uploadAdmission.release(uploadId);
     }
 }
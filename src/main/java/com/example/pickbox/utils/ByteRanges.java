@@ -0,0 +1,311 @@
+package com.example.pickbox.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.springframework.http.HttpRange;
+
+/**
+ * RFC 7233 byte ranges over stored content: parsing the Range header into
+ * sorted, coalesced ranges and building single or multipart/byteranges
+ * bodies that read only the requested bytes.
+ *
+ * Spring MVC only serves ranges of resources it can read twice, which a
+ * stream over an open storage channel is not, so downloads do it here.
+ */
+public final class ByteRanges {
+    private ByteRanges() {
+    }
+
+    public record Range(long start, long end) {
+        public long length() {
+            return end - start + 1;
+        }
+
+        public String contentRange(long size) {
+            return "bytes " + start + "-" + end + "/" + size;
+        }
+    }
+
+    /**
+     * Source of range bodies. Ranges are opened in ascending order, one after
+     * the other, and closing the reader releases the underlying content.
+     */
+    public interface Reader extends Closeable {
+        InputStream open(Range range) throws IOException;
+    }
+
+    /**
+     * The satisfiable ranges of a Range header for content of {@code size}
+     * bytes, sorted with overlapping and adjacent ranges merged. Returns null
+     * when the header is to be ignored (missing, another unit or invalid), and
+     * an empty list when no range is satisfiable.
+     */
+    public static List<Range> parse(String header, long size) {
+        if (header == null) {
+            return null;
+        }
+        List<HttpRange> requested;
+        try {
+            requested = HttpRange.parseRanges(header);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (requested.isEmpty()) {
+            return null;
+        }
+        List<Range> ranges = new ArrayList<>(requested.size());
+        for (HttpRange range : requested) {
+            long start = range.getRangeStart(size);
+            long end = range.getRangeEnd(size);
+            if (start < size && start <= end) {
+                ranges.add(new Range(start, end));
+            }
+        }
+        if (ranges.size() < 2) {
+            return ranges;
+        }
+        // Coalesced so that many small or overlapping ranges cannot multiply the bytes sent
+        ranges.sort(Comparator.comparingLong(Range::start));
+        List<Range> merged = new ArrayList<>(ranges.size());
+        Range current = ranges.get(0);
+        for (Range next : ranges.subList(1, ranges.size())) {
+            if (next.start() <= current.end() + 1) {
+                current = new Range(current.start(), Math.max(current.end(), next.end()));
+            } else {
+                merged.add(current);
+                current = next;
+            }
+        }
+        merged.add(current);
+        return Collections.unmodifiableList(merged);
+    }
+
+    /**
+     * Reads ranges with positioned reads on {@code channel}, so a range
+     * costs its length whatever its offset.
+     */
+    public static Reader reader(SeekableByteChannel channel) {
+        return new Reader() {
+            @Override
+            public InputStream open(Range range) throws IOException {
+                channel.position(range.start());
+                return new Slice(new ChannelStream(channel), range.length());
+            }
+
+            @Override
+            public void close() throws IOException {
+                channel.close();
+            }
+        };
+    }
+
+    /**
+     * Reads ranges from a stream that can only go forward, e.g. decoded
+     * content, skipping the bytes between ranges.
+     */
+    public static Reader reader(InputStream in) {
+        return new Reader() {
+            private long offset;
+
+            @Override
+            public InputStream open(Range range) throws IOException {
+                in.skipNBytes(range.start() - offset);
+                offset = range.end() + 1;
+                return new Slice(in, range.length());
+            }
+
+            @Override
+            public void close() throws IOException {
+                in.close();
+            }
+        };
+    }
+
+    /**
+     * Body of a 206 response with a single range. Closing it closes the reader.
+     */
+    public static InputStream single(Reader reader, Range range) throws IOException {
+        return new Owning(reader.open(range), reader);
+    }
+
+    /**
+     * Body of a multipart/byteranges response. Closing it closes the reader.
+     */
+    public static InputStream multipart(Reader reader, List<Range> ranges, long size, String boundary,
+            String contentType) {
+        Enumeration<InputStream> parts = new Enumeration<>() {
+            private int next;
+
+            @Override
+            public boolean hasMoreElements() {
+                return next <= 2 * ranges.size();
+            }
+
+            @Override
+            public InputStream nextElement() {
+                if (!hasMoreElements()) {
+                    throw new NoSuchElementException();
+                }
+                int index = next++;
+                if (index == 2 * ranges.size()) {
+                    return bytes(closingDelimiter(boundary));
+                }
+                Range range = ranges.get(index / 2);
+                if (index % 2 == 0) {
+                    return bytes(partHeader(boundary, contentType, range, size));
+                }
+                try {
+                    return reader.open(range);
+                } catch (IOException e) {
+                    // SequenceInputStream cannot take a checked exception here
+                    return new FailingStream(e);
+                }
+            }
+        };
+        return new Owning(new SequenceInputStream(parts), reader);
+    }
+
+    /**
+     * Content-Length of the body {@link #multipart} returns.
+     */
+    public static long multipartLength(List<Range> ranges, long size, String boundary, String contentType) {
+        long length = closingDelimiter(boundary).length();
+        for (Range range : ranges) {
+            length += partHeader(boundary, contentType, range, size).length() + range.length();
+        }
+        return length;
+    }
+
+    private static String partHeader(String boundary, String contentType, Range range, long size) {
+        return "\r\n--" + boundary + "\r\n"
+                + "Content-Type: " + contentType + "\r\n"
+                + "Content-Range: " + range.contentRange(size) + "\r\n"
+                + "\r\n";
+    }
+
+    private static String closingDelimiter(String boundary) {
+        return "\r\n--" + boundary + "--\r\n";
+    }
+
+    private static InputStream bytes(String text) {
+        // Header values here are ASCII only, so characters and bytes line up
+        return new ByteArrayInputStream(text.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * At most {@code remaining} bytes of a shared stream, leaving it open.
+     */
+    private static final class Slice extends InputStream {
+        private final InputStream in;
+
+        private long remaining;
+
+        Slice(InputStream in, long remaining) {
+            this.in = in;
+            this.remaining = remaining;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int read = in.read(b, off, (int) Math.min(len, remaining));
+            if (read < 0) {
+                throw new IOException("Content ended " + remaining + " bytes before the end of the range");
+            }
+            remaining -= read;
+            return read;
+        }
+
+        @Override
+        public void close() {
+            // The reader owns the underlying stream
+        }
+    }
+
+    /**
+     * Reads a channel from its current position without closing it, unlike
+     * Channels.newInputStream.
+     */
+    private static final class ChannelStream extends InputStream {
+        private final SeekableByteChannel channel;
+
+        ChannelStream(SeekableByteChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return len == 0 ? 0 : channel.read(ByteBuffer.wrap(b, off, len));
+        }
+    }
+
+    private static final class Owning extends InputStream {
+        private final InputStream in;
+
+        private final Closeable owner;
+
+        Owning(InputStream in, Closeable owner) {
+            this.in = in;
+            this.owner = owner;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return in.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return in.read(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                in.close();
+            } finally {
+                owner.close();
+            }
+        }
+    }
+
+    private static final class FailingStream extends InputStream {
+        private final IOException failure;
+
+        FailingStream(IOException failure) {
+            this.failure = failure;
+        }
+
+        @Override
+        public int read() throws IOException {
+            throw failure;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.pickbox.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32C;
+
+/**
+ * CRC32C values travel as base64 of the 4 big-endian checksum bytes, the same
+ * encoding used by the S3 and GCS checksum headers.
+ */
+public final class ChecksumUtils {
+    public static final String CRC32C_HEADER = "X-Checksum-CRC32C";
+
+    private static final String COMPOSITE_PREFIX = "crc32c:";
+
+    private static final Pattern SHA256_HEX = Pattern.compile("[0-9a-f]{64}");
+
+    private static final int DIGEST_BUFFER_SIZE = 1024 * 1024;
+
+    private ChecksumUtils() {}
+
+    public static String encodeCrc32c(long value) {
+        byte[] bytes = ByteBuffer.allocate(Integer.BYTES).putInt((int) value).array();
+        return Base64.getEncoder().encodeToString(bytes);
+    }
+
+    public static byte[] decodeCrc32c(String checksum) {
+        byte[] bytes = Base64.getDecoder().decode(checksum);
+        if (bytes.length != Integer.BYTES) {
+            throw new IllegalArgumentException("Invalid CRC32C checksum: " + checksum);
+        }
+        return bytes;
+    }
+
+    /**
+     * Whole-file digest built from the per-chunk checksums (in chunk order):
+     * the CRC32C of the concatenated chunk CRC32Cs, suffixed with the number of
+     * chunks. It is derived without reading the file again, and two files only
+     * share it if they were uploaded with the same chunk layout.
+     */
+    public static String compositeCrc32c(List<String> chunkChecksums) {
+        CRC32C crc = new CRC32C();
+        for (String checksum : chunkChecksums) {
+            crc.update(decodeCrc32c(checksum));
+        }
+        return COMPOSITE_PREFIX + encodeCrc32c(crc.getValue()) + "-" + chunkChecksums.size();
+    }
+
+    public static boolean isSha256Hex(String value) {
+        return value != null && SHA256_HEX.matcher(value).matches();
+    }
+
+    /**
+     * Lowercase hex SHA-256 of {@code data}.
+     */
+    public static String sha256Hex(byte[] data) {
+        return HexFormat.of().formatHex(sha256().digest(data));
+    }
+
+    /**
+     * Lowercase hex SHA-256 of everything left in {@code channel}.
+     */
+    public static String sha256Hex(ReadableByteChannel channel) throws IOException {
+        MessageDigest digest = sha256();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(DIGEST_BUFFER_SIZE);
+        while (channel.read(buffer) != -1) {
+            buffer.flip();
+            digest.update(buffer);
+            buffer.clear();
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.pickbox.utils;
+
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * RFC 7232 preconditions of a GET, evaluated from the entity tag and
+ * modification time alone, so a 304 can be sent before the content or
+ * listing is read at all.
+ */
+public final class ConditionalRequests {
+    private ConditionalRequests() {
+    }
+
+    /**
+     * Whether the client's copy is current. If-None-Match is compared weakly
+     * against any of {@code etags}, the representations the client may hold;
+     * If-Modified-Since is only looked at without If-None-Match.
+     */
+    public static boolean notModified(String ifNoneMatch, String ifModifiedSince, Instant lastModified,
+            String... etags) {
+        if (ifNoneMatch != null) {
+            for (String candidate : ifNoneMatch.split(",")) {
+                String tag = candidate.trim();
+                if (tag.equals("*")) {
+                    return true;
+                }
+                for (String etag : etags) {
+                    if (opaque(tag).equals(opaque(etag))) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+        Instant since = parseDate(ifModifiedSince);
+        return since != null && lastModified != null && !httpDate(lastModified).isAfter(since);
+    }
+
+    /**
+     * Whether a Range header may be applied given If-Range: either a strong
+     * match of the entity tag or exactly the Last-Modified date.
+     */
+    public static boolean ifRangeMatches(String ifRange, String etag, Instant lastModified) {
+        if (ifRange == null) {
+            return true;
+        }
+        String value = ifRange.trim();
+        if (value.startsWith("\"") || value.startsWith("W/")) {
+            return value.equals(etag) && !etag.startsWith("W/");
+        }
+        Instant date = parseDate(value);
+        return date != null && lastModified != null && date.equals(httpDate(lastModified));
+    }
+
+    /**
+     * {@code instant} at the one second precision of HTTP dates.
+     */
+    public static Instant httpDate(Instant instant) {
+        return instant.truncatedTo(ChronoUnit.SECONDS);
+    }
+
+    private static String opaque(String etag) {
+        return etag.startsWith("W/") ? etag.substring(2) : etag;
+    }
+
+    private static Instant parseDate(String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+        } catch (DateTimeParseException e) {
+            // An invalid date is ignored, as if the header was not sent
+            return null;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.pickbox.utils;
+
+import java.util.SplittableRandom;
+
+/**
+ * FastCDC style content-defined chunking. Cut points depend only on the bytes
+ * in a sliding window (gear rolling hash), so an insertion early in a file
+ * only changes the blocks around it and the rest still deduplicate.
+ *
+ * Normalized chunking is used: below the average size a harder mask (more
+ * bits) is applied and above it an easier one, which keeps block sizes close
+ * to the average.
+ */
+public final class ContentDefinedChunker {
+    // Fixed seed: cut points must stay identical across restarts and nodes
+    private static final long GEAR_SEED = 0x5049434B424F58L;
+
+    private static final long[] GEAR = new long[256];
+
+    static {
+        SplittableRandom random = new SplittableRandom(GEAR_SEED);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    private final int minSize;
+
+    private final int avgSize;
+
+    private final int maxSize;
+
+    private final long maskS;
+
+    private final long maskL;
+
+    public ContentDefinedChunker(int minSize, int avgSize, int maxSize) {
+        if (minSize <= 0 || minSize > avgSize || avgSize > maxSize) {
+            throw new IllegalArgumentException("Chunk sizes must satisfy 0 < min <= avg <= max");
+        }
+        this.minSize = minSize;
+        this.avgSize = avgSize;
+        this.maxSize = maxSize;
+        int bits = 31 - Integer.numberOfLeadingZeros(avgSize);
+        // High bits of the gear hash depend on the last 64 bytes, low bits only on the last few
+        this.maskS = highBitMask(bits + 1);
+        this.maskL = highBitMask(Math.max(1, bits - 1));
+    }
+
+    private static long highBitMask(int bits) {
+        return ((1L << bits) - 1) << (Long.SIZE - bits);
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Returns the length of the next block starting at {@code offset}. When
+     * {@code length} is smaller than the max size the caller must only pass it
+     * at end of input, otherwise the cut is forced early.
+     */
+    public int nextCutPoint(byte[] buffer, int offset, int length) {
+        if (length <= minSize) {
+            return length;
+        }
+        int limit = Math.min(length, maxSize);
+        int normal = Math.min(avgSize, limit);
+        long fingerprint = 0;
+        int i = minSize;
+        for (; i < normal; i++) {
+            fingerprint = (fingerprint << 1) + GEAR[buffer[offset + i] & 0xff];
+            if ((fingerprint & maskS) == 0) {
+                return i + 1;
+            }
+        }
+        for (; i < limit; i++) {
+            fingerprint = (fingerprint << 1) + GEAR[buffer[offset + i] & 0xff];
+            if ((fingerprint & maskL) == 0) {
+                return i + 1;
+            }
+        }
+        return limit;
+    }
+}
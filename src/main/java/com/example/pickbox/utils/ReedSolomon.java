@@ -0,0 +1,262 @@
+package com.example.pickbox.utils;
+
+import java.util.Arrays;
+
+/**
+ * Systematic Reed-Solomon code over GF(2^8). A stripe of {@code dataShards}
+ * equally sized byte ranges gets {@code parityShards} parity ranges, and any
+ * {@code dataShards} of the resulting shards are enough to rebuild the rest.
+ *
+ * The coding matrix is a Vandermonde matrix multiplied by the inverse of its
+ * top square, so the first rows are the identity (data shards are stored as
+ * they are) and every square submatrix stays invertible.
+ */
+public final class ReedSolomon {
+    // x^8 + x^4 + x^3 + x^2 + 1, generator 2
+    private static final int POLYNOMIAL = 0x11D;
+
+    private static final int[] EXP = new int[512];
+
+    private static final int[] LOG = new int[256];
+
+    // MUL[a][b] = a * b, one row lookup per coefficient in the inner loops
+    private static final byte[][] MUL = new byte[256][256];
+
+    static {
+        int x = 1;
+        for (int i = 0; i < 255; i++) {
+            EXP[i] = x;
+            LOG[x] = i;
+            x <<= 1;
+            if (x >= 256) {
+                x ^= POLYNOMIAL;
+            }
+        }
+        for (int i = 255; i < EXP.length; i++) {
+            EXP[i] = EXP[i - 255];
+        }
+        for (int a = 0; a < 256; a++) {
+            for (int b = 0; b < 256; b++) {
+                MUL[a][b] = (byte) multiply(a, b);
+            }
+        }
+    }
+
+    private final int dataShards;
+
+    private final int parityShards;
+
+    // (dataShards + parityShards) x dataShards, identity on top
+    private final int[][] matrix;
+
+    public ReedSolomon(int dataShards, int parityShards) {
+        if (dataShards <= 0 || parityShards < 0 || dataShards + parityShards > 256) {
+            throw new IllegalArgumentException(
+                    "Shard counts must satisfy 0 < data, 0 <= parity, data + parity <= 256");
+        }
+        this.dataShards = dataShards;
+        this.parityShards = parityShards;
+        int total = dataShards + parityShards;
+        int[][] vandermonde = new int[total][dataShards];
+        for (int row = 0; row < total; row++) {
+            for (int col = 0; col < dataShards; col++) {
+                vandermonde[row][col] = power(row, col);
+            }
+        }
+        int[][] top = new int[dataShards][];
+        System.arraycopy(vandermonde, 0, top, 0, dataShards);
+        this.matrix = product(vandermonde, invert(top));
+    }
+
+    public int getDataShards() {
+        return dataShards;
+    }
+
+    public int getParityShards() {
+        return parityShards;
+    }
+
+    public int getTotalShards() {
+        return dataShards + parityShards;
+    }
+
+    /**
+     * Computes the parity shards from the data shards. {@code shards} holds
+     * all shards in order, each with at least {@code offset + length} bytes.
+     */
+    public void encodeParity(byte[][] shards, int offset, int length) {
+        checkShards(shards, offset, length);
+        for (int p = 0; p < parityShards; p++) {
+            byte[] parity = shards[dataShards + p];
+            Arrays.fill(parity, offset, offset + length, (byte) 0);
+            for (int d = 0; d < dataShards; d++) {
+                multiplyAdd(matrix[dataShards + p][d], shards[d], parity, offset, length);
+            }
+        }
+    }
+
+    /**
+     * Rebuilds the shards not marked as present, from the first
+     * {@code dataShards} that are. Throws when fewer shards are present.
+     */
+    public void reconstruct(byte[][] shards, boolean[] present, int offset, int length) {
+        reconstructData(shards, present, offset, length);
+        for (int p = 0; p < parityShards; p++) {
+            if (present[dataShards + p]) {
+                continue;
+            }
+            byte[] target = shards[dataShards + p];
+            Arrays.fill(target, offset, offset + length, (byte) 0);
+            for (int d = 0; d < dataShards; d++) {
+                multiplyAdd(matrix[dataShards + p][d], shards[d], target, offset, length);
+            }
+        }
+    }
+
+    /**
+     * Like {@link #reconstruct}, but only rebuilds missing data shards and
+     * leaves missing parity shards as they are.
+     */
+    public void reconstructData(byte[][] shards, boolean[] present, int offset, int length) {
+        checkShards(shards, offset, length);
+        if (present.length != getTotalShards()) {
+            throw new IllegalArgumentException("Expected " + getTotalShards() + " presence flags");
+        }
+        int[] rows = new int[dataShards];
+        int found = 0;
+        for (int i = 0; i < present.length && found < dataShards; i++) {
+            if (present[i]) {
+                rows[found++] = i;
+            }
+        }
+        if (found < dataShards) {
+            throw new IllegalArgumentException("Only " + found + " of the " + dataShards
+                    + " shards needed to reconstruct are present");
+        }
+        boolean dataMissing = false;
+        for (int d = 0; d < dataShards; d++) {
+            dataMissing |= !present[d];
+        }
+        if (dataMissing) {
+            int[][] subMatrix = new int[dataShards][];
+            for (int r = 0; r < dataShards; r++) {
+                subMatrix[r] = matrix[rows[r]];
+            }
+            int[][] decode = invert(subMatrix);
+            for (int d = 0; d < dataShards; d++) {
+                if (present[d]) {
+                    continue;
+                }
+                byte[] target = shards[d];
+                Arrays.fill(target, offset, offset + length, (byte) 0);
+                for (int r = 0; r < dataShards; r++) {
+                    multiplyAdd(decode[d][r], shards[rows[r]], target, offset, length);
+                }
+            }
+        }
+    }
+
+    private void checkShards(byte[][] shards, int offset, int length) {
+        if (shards.length != getTotalShards()) {
+            throw new IllegalArgumentException("Expected " + getTotalShards() + " shards, got " + shards.length);
+        }
+        for (byte[] shard : shards) {
+            if (shard.length < offset + length) {
+                throw new IllegalArgumentException("Shard shorter than offset + length");
+            }
+        }
+    }
+
+    private static void multiplyAdd(int coefficient, byte[] source, byte[] target, int offset, int length) {
+        if (coefficient == 0) {
+            return;
+        }
+        if (coefficient == 1) {
+            for (int i = offset; i < offset + length; i++) {
+                target[i] ^= source[i];
+            }
+            return;
+        }
+        byte[] row = MUL[coefficient];
+        for (int i = offset; i < offset + length; i++) {
+            target[i] ^= row[source[i] & 0xFF];
+        }
+    }
+
+    private static int multiply(int a, int b) {
+        if (a == 0 || b == 0) {
+            return 0;
+        }
+        return EXP[LOG[a] + LOG[b]];
+    }
+
+    private static int power(int base, int exponent) {
+        if (exponent == 0) {
+            return 1;
+        }
+        if (base == 0) {
+            return 0;
+        }
+        return EXP[(LOG[base] * exponent) % 255];
+    }
+
+    private static int inverse(int a) {
+        return EXP[255 - LOG[a]];
+    }
+
+    private static int[][] product(int[][] left, int[][] right) {
+        int[][] result = new int[left.length][right[0].length];
+        for (int r = 0; r < left.length; r++) {
+            for (int c = 0; c < right[0].length; c++) {
+                int value = 0;
+                for (int i = 0; i < right.length; i++) {
+                    value ^= multiply(left[r][i], right[i][c]);
+                }
+                result[r][c] = value;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Gauss-Jordan elimination, additions in GF(2^8) are XOR.
+     */
+    private static int[][] invert(int[][] square) {
+        int n = square.length;
+        int[][] work = new int[n][2 * n];
+        for (int r = 0; r < n; r++) {
+            System.arraycopy(square[r], 0, work[r], 0, n);
+            work[r][n + r] = 1;
+        }
+        for (int col = 0; col < n; col++) {
+            int pivot = col;
+            while (pivot < n && work[pivot][col] == 0) {
+                pivot++;
+            }
+            if (pivot == n) {
+                throw new IllegalArgumentException("Matrix is singular");
+            }
+            int[] swap = work[col];
+            work[col] = work[pivot];
+            work[pivot] = swap;
+            int scale = inverse(work[col][col]);
+            for (int c = 0; c < 2 * n; c++) {
+                work[col][c] = multiply(work[col][c], scale);
+            }
+            for (int r = 0; r < n; r++) {
+                int factor = work[r][col];
+                if (r == col || factor == 0) {
+                    continue;
+                }
+                for (int c = 0; c < 2 * n; c++) {
+                    work[r][c] ^= multiply(factor, work[col][c]);
+                }
+            }
+        }
+        int[][] result = new int[n][n];
+        for (int r = 0; r < n; r++) {
+            System.arraycopy(work[r], n, result[r], 0, n);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,32 @@
+package com.example.pickbox.controllers;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class LocalFileDownloadControllerTests {
+
+	@Test
+	void acceptsListedEncoding() {
+		assertTrue(LocalFileDownloadController.acceptsEncoding("gzip", "gzip"));
+		assertTrue(LocalFileDownloadController.acceptsEncoding("br, GZIP, deflate", "gzip"));
+		assertTrue(LocalFileDownloadController.acceptsEncoding("gzip;q=0.5", "gzip"));
+		assertTrue(LocalFileDownloadController.acceptsEncoding("deflate;q=0, gzip ; q=1.0", "gzip"));
+	}
+
+	@Test
+	void refusesEncodingWithZeroQuality() {
+		assertFalse(LocalFileDownloadController.acceptsEncoding("gzip;q=0", "gzip"));
+		assertFalse(LocalFileDownloadController.acceptsEncoding("br, gzip; q=0.000", "gzip"));
+		assertFalse(LocalFileDownloadController.acceptsEncoding("gzip;q=none", "gzip"));
+	}
+
+	@Test
+	void refusesUnlistedEncoding() {
+		assertFalse(LocalFileDownloadController.acceptsEncoding(null, "gzip"));
+		assertFalse(LocalFileDownloadController.acceptsEncoding("", "gzip"));
+		assertFalse(LocalFileDownloadController.acceptsEncoding("br, deflate", "gzip"));
+		assertFalse(LocalFileDownloadController.acceptsEncoding("x-gzip", "gzip"));
+	}
+}
@@ -0,0 +1,206 @@
+package com.example.pickbox.services.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Runs S3StorageService against a minimal S3 stand-in through
+ * {@code s3.endpoint}, the way a local MinIO would be used. Parts are sent to
+ * the presigned URLs like the UI does.
+ */
+class S3StorageServiceTests {
+
+	private static final String BUCKET = "pickbox";
+
+	private static final long CHUNK = 5L * 1024 * 1024;
+
+	private static final long SIZE = 2 * CHUNK + 100;
+
+	private FakeS3 fakeS3;
+
+	private S3StorageService storage;
+
+	@BeforeEach
+	void start() throws IOException {
+		fakeS3 = new FakeS3();
+		storage = new S3StorageService(BUCKET, "us-east-1", fakeS3.endpoint(), true, "test", "test", "files/", 600);
+	}
+
+	@AfterEach
+	void stop() {
+		fakeS3.stop();
+	}
+
+	@Test
+	void completesWhenEveryPartIsPresent() throws Exception {
+		String uploadId = storage.initiateUpload("user", "u1", SIZE, CHUNK);
+		putPart(uploadId, 0, (int) CHUNK);
+		putPart(uploadId, 1, (int) CHUNK);
+		putPart(uploadId, 2, 100);
+		assertEquals(3, storage.storedChunks(uploadId, 3).cardinality());
+
+		storage.completeUpload(uploadId, SIZE, CHUNK);
+
+		try (SeekableByteChannel channel = storage.openForRead(uploadId)) {
+			assertEquals(SIZE, channel.size());
+		}
+		// Completing again is a no-op once the object exists
+		storage.completeUpload(uploadId, SIZE, CHUNK);
+	}
+
+	@Test
+	void rejectsMissingPart() throws Exception {
+		String uploadId = storage.initiateUpload("user", "u2", SIZE, CHUNK);
+		putPart(uploadId, 0, (int) CHUNK);
+		putPart(uploadId, 2, 100);
+
+		assertThrows(IllegalStateException.class, () -> storage.completeUpload(uploadId, SIZE, CHUNK));
+		assertNull(fakeS3.objects.get("files/" + uploadId));
+	}
+
+	@Test
+	void rejectsShortPart() throws Exception {
+		String uploadId = storage.initiateUpload("user", "u3", SIZE, CHUNK);
+		putPart(uploadId, 0, (int) CHUNK);
+		putPart(uploadId, 1, 1000);
+		putPart(uploadId, 2, 100);
+
+		assertThrows(IllegalStateException.class, () -> storage.completeUpload(uploadId, SIZE, CHUNK));
+		assertFalse(fakeS3.objects.containsKey("files/" + uploadId));
+	}
+
+	private void putPart(String uploadId, int chunkIndex, int length) throws Exception {
+		String url = storage.generateSignedUrl(uploadId, chunkIndex);
+		assertTrue(url.startsWith(fakeS3.endpoint()), url);
+		HttpResponse<Void> response = HttpClient.newHttpClient().send(
+				HttpRequest.newBuilder(URI.create(url)).PUT(HttpRequest.BodyPublishers.ofByteArray(new byte[length]))
+						.build(),
+				HttpResponse.BodyHandlers.discarding());
+		assertEquals(200, response.statusCode());
+	}
+
+	/**
+	 * Just the multipart calls S3StorageService makes, path-style, with no
+	 * authentication.
+	 */
+	private static final class FakeS3 {
+
+		private static final String NS = "http://s3.amazonaws.com/doc/2006-03-01/";
+
+		private final HttpServer server;
+
+		private final AtomicInteger ids = new AtomicInteger();
+
+		// Multipart upload id -> part number -> part size
+		private final Map<String, Map<Integer, Integer>> uploads = new ConcurrentHashMap<>();
+
+		// Object key -> size
+		private final Map<String, Long> objects = new ConcurrentHashMap<>();
+
+		FakeS3() throws IOException {
+			server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+			server.createContext("/", this::handle);
+			server.start();
+		}
+
+		String endpoint() {
+			return "http://127.0.0.1:" + server.getAddress().getPort();
+		}
+
+		void stop() {
+			server.stop(0);
+		}
+
+		private void handle(HttpExchange exchange) throws IOException {
+			String path = exchange.getRequestURI().getPath();
+			// /bucket/key, or just /bucket for bucket level calls
+			String key = path.length() > BUCKET.length() + 2 ? path.substring(BUCKET.length() + 2) : "";
+			Map<String, String> query = query(exchange.getRequestURI().getRawQuery());
+			byte[] body = exchange.getRequestBody().readAllBytes();
+			String method = exchange.getRequestMethod();
+			String uploadId = query.get("uploadId");
+			if (method.equals("POST") && query.containsKey("uploads")) {
+				String id = "mp-" + ids.incrementAndGet();
+				uploads.put(id, new TreeMap<>());
+				xml(exchange, "<InitiateMultipartUploadResult xmlns=\"" + NS + "\"><Bucket>" + BUCKET
+						+ "</Bucket><Key>" + key + "</Key><UploadId>" + id + "</UploadId></InitiateMultipartUploadResult>");
+			} else if (method.equals("PUT") && uploadId != null) {
+				uploads.get(uploadId).put(Integer.parseInt(query.get("partNumber")), body.length);
+				exchange.getResponseHeaders().add("ETag", "\"etag-" + query.get("partNumber") + "\"");
+				exchange.sendResponseHeaders(200, -1);
+			} else if (method.equals("GET") && uploadId != null) {
+				StringBuilder parts = new StringBuilder();
+				uploads.get(uploadId).forEach((number, size) -> parts.append("<Part><PartNumber>").append(number)
+						.append("</PartNumber><ETag>\"etag-").append(number).append("\"</ETag><Size>").append(size)
+						.append("</Size></Part>"));
+				xml(exchange, "<ListPartsResult xmlns=\"" + NS + "\"><Bucket>" + BUCKET + "</Bucket><Key>" + key
+						+ "</Key><UploadId>" + uploadId + "</UploadId><IsTruncated>false</IsTruncated>" + parts
+						+ "</ListPartsResult>");
+			} else if (method.equals("POST") && uploadId != null) {
+				long size = uploads.remove(uploadId).values().stream().mapToLong(Integer::longValue).sum();
+				objects.put(key, size);
+				xml(exchange, "<CompleteMultipartUploadResult xmlns=\"" + NS + "\"><Bucket>" + BUCKET
+						+ "</Bucket><Key>" + key + "</Key><ETag>\"done\"</ETag></CompleteMultipartUploadResult>");
+			} else if (method.equals("GET") && query.containsKey("uploads")) {
+				// Only asked after completion in these tests, nothing is in progress any more
+				xml(exchange, "<ListMultipartUploadsResult xmlns=\"" + NS + "\"><Bucket>" + BUCKET
+						+ "</Bucket><IsTruncated>false</IsTruncated></ListMultipartUploadsResult>");
+			} else if (method.equals("HEAD")) {
+				Long size = objects.get(key);
+				if (size == null) {
+					exchange.sendResponseHeaders(404, -1);
+				} else {
+					exchange.getResponseHeaders().add("Content-Length", Long.toString(size));
+					exchange.sendResponseHeaders(200, -1);
+				}
+			} else {
+				exchange.sendResponseHeaders(501, -1);
+			}
+			exchange.close();
+		}
+
+		private static void xml(HttpExchange exchange, String xml) throws IOException {
+			byte[] bytes = xml.getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().add("Content-Type", "application/xml");
+			exchange.sendResponseHeaders(200, bytes.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(bytes);
+			}
+		}
+
+		private static Map<String, String> query(String rawQuery) {
+			Map<String, String> params = new TreeMap<>();
+			if (rawQuery != null) {
+				for (String pair : rawQuery.split("&")) {
+					int eq = pair.indexOf('=');
+					params.put(eq < 0 ? pair : pair.substring(0, eq), eq < 0 ? "" : pair.substring(eq + 1));
+				}
+			}
+			return params;
+		}
+	}
+}
@@ -0,0 +1,112 @@
+package com.example.pickbox.utils;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.example.pickbox.utils.ByteRanges.Range;
+
+class ByteRangesTests {
+
+	private static final int SIZE = 1000;
+
+	private static final String BOUNDARY = "3d6b6a416f9b5";
+
+	private static final String CONTENT_TYPE = "application/octet-stream";
+
+	@Test
+	void resolvesSuffixAndOpenRanges() {
+		assertEquals(List.of(new Range(900, 999)), ByteRanges.parse("bytes=-100", SIZE));
+		assertEquals(List.of(new Range(0, 999)), ByteRanges.parse("bytes=-5000", SIZE));
+		assertEquals(List.of(new Range(990, 999)), ByteRanges.parse("bytes=990-", SIZE));
+		assertEquals(List.of(new Range(500, 999)), ByteRanges.parse("bytes=500-4000", SIZE));
+	}
+
+	@Test
+	void coalescesOverlappingAndAdjacentRanges() {
+		assertEquals(List.of(new Range(0, 199), new Range(300, 399)),
+				ByteRanges.parse("bytes=300-399,100-199,0-99,150-160", SIZE));
+		assertEquals(List.of(new Range(0, 999)), ByteRanges.parse("bytes=0-499,500-,-600", SIZE));
+	}
+
+	@Test
+	void returnsNoRangesWhenNoneIsSatisfiable() {
+		// Answered with 416
+		assertEquals(List.of(), ByteRanges.parse("bytes=1000-", SIZE));
+		assertEquals(List.of(), ByteRanges.parse("bytes=2000-2100,1500-", SIZE));
+		// Unsatisfiable ranges are dropped when another one is satisfiable
+		assertEquals(List.of(new Range(0, 9)), ByteRanges.parse("bytes=2000-,0-9", SIZE));
+	}
+
+	@Test
+	void ignoresMissingOrInvalidHeaders() {
+		assertNull(ByteRanges.parse(null, SIZE));
+		assertNull(ByteRanges.parse("items=0-9", SIZE));
+		assertNull(ByteRanges.parse("bytes=9-0", SIZE));
+		assertNull(ByteRanges.parse("bytes=a-b", SIZE));
+	}
+
+	@Test
+	void readsSingleRange() throws IOException {
+		byte[] content = content();
+		Range range = ByteRanges.parse("bytes=-100", SIZE).get(0);
+		try (InputStream in = ByteRanges.single(ByteRanges.reader(new ByteArrayInputStream(content)), range)) {
+			assertArrayEquals(Arrays.copyOfRange(content, 900, 1000), in.readAllBytes());
+		}
+	}
+
+	@Test
+	void multipartLengthMatchesStreamBody() throws IOException {
+		byte[] content = content();
+		List<Range> ranges = ByteRanges.parse("bytes=0-9,500-599,-50", SIZE);
+		byte[] body;
+		try (InputStream in = ByteRanges.multipart(ByteRanges.reader(new ByteArrayInputStream(content)), ranges,
+				SIZE, BOUNDARY, CONTENT_TYPE)) {
+			body = in.readAllBytes();
+		}
+
+		assertEquals(ByteRanges.multipartLength(ranges, SIZE, BOUNDARY, CONTENT_TYPE), body.length);
+		String text = new String(body, StandardCharsets.ISO_8859_1);
+		assertTrue(text.contains("Content-Range: bytes 500-599/1000\r\n\r\n"
+				+ new String(content, 500, 100, StandardCharsets.ISO_8859_1) + "\r\n--" + BOUNDARY + "\r\n"), text);
+		assertTrue(text.endsWith("\r\n--" + BOUNDARY + "--\r\n"), text);
+	}
+
+	@Test
+	void multipartLengthMatchesChannelBody(@TempDir Path dir) throws IOException {
+		byte[] content = content();
+		Path file = Files.write(dir.resolve("content"), content);
+		List<Range> ranges = ByteRanges.parse("bytes=-1,0-0,400-449", SIZE);
+		byte[] body;
+		try (InputStream in = ByteRanges.multipart(ByteRanges.reader(FileChannel.open(file)), ranges, SIZE,
+				BOUNDARY, CONTENT_TYPE)) {
+			body = in.readAllBytes();
+		}
+
+		assertEquals(ByteRanges.multipartLength(ranges, SIZE, BOUNDARY, CONTENT_TYPE), body.length);
+		String text = new String(body, StandardCharsets.ISO_8859_1);
+		assertTrue(text.indexOf("bytes 0-0/1000") < text.indexOf("bytes 400-449/1000"), text);
+		assertTrue(text.indexOf("bytes 400-449/1000") < text.indexOf("bytes 999-999/1000"), text);
+	}
+
+	private static byte[] content() {
+		byte[] content = new byte[SIZE];
+		new Random(42).nextBytes(content);
+		return content;
+	}
+}
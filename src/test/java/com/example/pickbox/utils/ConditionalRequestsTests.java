@@ -0,0 +1,62 @@
+package com.example.pickbox.utils;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Instant;
+
+import org.junit.jupiter.api.Test;
+
+class ConditionalRequestsTests {
+
+	private static final String ETAG = "\"0f3c9a2e\"";
+
+	private static final Instant LAST_MODIFIED = Instant.parse("2024-03-05T10:15:30.250Z");
+
+	private static final String HTTP_DATE = "Tue, 5 Mar 2024 10:15:30 GMT";
+
+	@Test
+	void appliesRangeWithoutIfRange() {
+		assertTrue(ConditionalRequests.ifRangeMatches(null, ETAG, LAST_MODIFIED));
+	}
+
+	@Test
+	void appliesRangeOnStrongEntityTagMatch() {
+		assertTrue(ConditionalRequests.ifRangeMatches(ETAG, ETAG, LAST_MODIFIED));
+		assertTrue(ConditionalRequests.ifRangeMatches(" " + ETAG + " ", ETAG, LAST_MODIFIED));
+		assertFalse(ConditionalRequests.ifRangeMatches("\"other\"", ETAG, LAST_MODIFIED));
+	}
+
+	@Test
+	void ignoresRangeOnWeakEntityTags() {
+		// If-Range only ever matches strongly
+		assertFalse(ConditionalRequests.ifRangeMatches("W/" + ETAG, ETAG, LAST_MODIFIED));
+		assertFalse(ConditionalRequests.ifRangeMatches("W/" + ETAG, "W/" + ETAG, LAST_MODIFIED));
+		assertFalse(ConditionalRequests.ifRangeMatches(ETAG, "W/" + ETAG, LAST_MODIFIED));
+	}
+
+	@Test
+	void appliesRangeOnlyOnExactDate() {
+		assertTrue(ConditionalRequests.ifRangeMatches(HTTP_DATE, ETAG, LAST_MODIFIED));
+		assertFalse(ConditionalRequests.ifRangeMatches("Tue, 5 Mar 2024 10:15:31 GMT", ETAG, LAST_MODIFIED));
+		assertFalse(ConditionalRequests.ifRangeMatches("Tue, 5 Mar 2024 10:15:29 GMT", ETAG, LAST_MODIFIED));
+		assertFalse(ConditionalRequests.ifRangeMatches("yesterday", ETAG, LAST_MODIFIED));
+		assertFalse(ConditionalRequests.ifRangeMatches(HTTP_DATE, ETAG, null));
+	}
+
+	@Test
+	void comparesIfNoneMatchWeakly() {
+		assertTrue(ConditionalRequests.notModified("W/" + ETAG, null, LAST_MODIFIED, ETAG));
+		assertTrue(ConditionalRequests.notModified("\"a\", " + ETAG, null, LAST_MODIFIED, "\"b\"", ETAG));
+		assertTrue(ConditionalRequests.notModified("*", null, LAST_MODIFIED, ETAG));
+		// If-Modified-Since is not looked at once If-None-Match fails
+		assertFalse(ConditionalRequests.notModified("\"other\"", HTTP_DATE, LAST_MODIFIED, ETAG));
+	}
+
+	@Test
+	void comparesIfModifiedSinceToTheSecond() {
+		assertTrue(ConditionalRequests.notModified(null, HTTP_DATE, LAST_MODIFIED, ETAG));
+		assertFalse(ConditionalRequests.notModified(null, "Tue, 5 Mar 2024 10:15:29 GMT", LAST_MODIFIED, ETAG));
+		assertFalse(ConditionalRequests.notModified(null, null, LAST_MODIFIED, ETAG));
+	}
+}
@@ -0,0 +1,68 @@
+package com.example.pickbox.utils;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class ReedSolomonTests {
+
+	private static final int DATA = 4;
+
+	private static final int PARITY = 2;
+
+	private static final int LENGTH = 1000;
+
+	@Test
+	void rebuildsAnyTwoLostShards() {
+		ReedSolomon codec = new ReedSolomon(DATA, PARITY);
+		byte[][] original = encoded(codec);
+		for (int first = 0; first < DATA + PARITY; first++) {
+			for (int second = first + 1; second < DATA + PARITY; second++) {
+				byte[][] shards = copy(original);
+				boolean[] present = new boolean[DATA + PARITY];
+				Arrays.fill(present, true);
+				present[first] = false;
+				present[second] = false;
+				Arrays.fill(shards[first], (byte) 0);
+				Arrays.fill(shards[second], (byte) 0);
+
+				codec.reconstruct(shards, present, 0, LENGTH);
+
+				for (int i = 0; i < DATA + PARITY; i++) {
+					assertArrayEquals(original[i], shards[i], "shard " + i + " after losing " + first + ", " + second);
+				}
+			}
+		}
+	}
+
+	@Test
+	void failsWithTooFewShards() {
+		ReedSolomon codec = new ReedSolomon(DATA, PARITY);
+		byte[][] shards = encoded(codec);
+		boolean[] present = { true, false, true, false, false, true };
+
+		assertThrows(IllegalArgumentException.class, () -> codec.reconstruct(shards, present, 0, LENGTH));
+	}
+
+	private static byte[][] encoded(ReedSolomon codec) {
+		Random random = new Random(42);
+		byte[][] shards = new byte[DATA + PARITY][LENGTH];
+		for (int i = 0; i < DATA; i++) {
+			random.nextBytes(shards[i]);
+		}
+		codec.encodeParity(shards, 0, LENGTH);
+		return shards;
+	}
+
+	private static byte[][] copy(byte[][] shards) {
+		byte[][] copy = new byte[shards.length][];
+		for (int i = 0; i < shards.length; i++) {
+			copy[i] = shards[i].clone();
+		}
+		return copy;
+	}
+}
@@ -10,6 +10,27 @@ export interface UploadTask {
     progress: number;
     status: 'PENDING' | 'UPLOADING' | 'PAUSED' | 'COMPLETED' | 'ERROR';
     folderId?: string | null;
+    // Chunks still to send, from the server's missing ranges when resuming; all chunks when unset
+    pendingChunks?: number[];
+    // 'PUT' when chunks go to presigned URLs, 'POST' when they are posted to the API directly
+    chunkUploadMethod?: string;
+}
+
+interface UploadStatus {
+    uploadId: string;
+    status: 'UPLOADING' | 'COMPLETING' | 'COMPLETED' | 'DELETED';
+    totalChunks: number;
+    completedChunks: number;
+    error?: string;
+    // Inclusive chunk index runs, only while UPLOADING
+    missingRanges?: { first: number; last: number }[];
+}
+
+interface SentChunk {
+    chunkIndex: number;
+    storageId: string;
+    // True when the server recorded the chunk as it was written, it needs no completion report
+    recorded: boolean;
 }
 
 type UploadListener = (uploads: UploadTask[]) => void;
@@ -22,6 +43,11 @@ class UploadService {
     private completionListeners: CompletionListener[] = [];
     private readonly MAX_CONCURRENT_UPLOADS = 3;
     private readonly MAX_CONCURRENT_CHUNKS = 3;
+    private readonly COMPLETION_POLL_INITIAL_MS = 500;
+    private readonly COMPLETION_POLL_MAX_MS = 10000;
+    // Sent chunks are reported in one request per this many chunks, or after this long
+    private readonly CHUNK_REPORT_BATCH_SIZE = 16;
+    private readonly CHUNK_REPORT_DELAY_MS = 1000;
 
     constructor() {
         // Hydrate from DB on init
@@ -95,6 +121,7 @@ class UploadService {
             }
             // Assuming backend returns chunkSize, if not default to 10MB
             const chunkSize = data.chunkSize || 10 * 1024 * 1024;
+            const chunkUploadMethod = data.chunkUploadMethod;
 
             const task: UploadTask = {
                 uploadId,
@@ -102,7 +129,8 @@ class UploadService {
                 chunkSize,
                 progress: 0,
                 status: 'PENDING',
-                folderId
+                folderId,
+                chunkUploadMethod
             };
 
             this.uploads.set(uploadId, task);
@@ -120,6 +148,22 @@ class UploadService {
     async resumeUpload(uploadId: string) {
         const task = this.uploads.get(uploadId);
         if (task && (task.status === 'PAUSED' || task.status === 'ERROR')) {
+            try {
+                // Only send what the server does not have yet
+                const status = await this.getUploadStatus(uploadId);
+                if (status.status === 'DELETED') throw new Error("Upload was aborted");
+                task.pendingChunks = status.status === 'UPLOADING'
+                    ? (status.missingRanges ?? []).flatMap(range =>
+                        Array.from({ length: range.last - range.first + 1 }, (_, i) => range.first + i))
+                    : []; // Already merging or merged, only completion is left
+            } catch (e) {
+                console.error("Failed to resume upload", e);
+                task.status = 'ERROR';
+                this.uploads.set(uploadId, task);
+                this.notifyListeners();
+                toast.error("Failed to resume upload: " + task.file.name);
+                return;
+            }
             task.status = 'PENDING';
             this.uploads.set(uploadId, task);
             await updateUpload({ ...task, createdAt: Date.now() });
@@ -195,73 +239,131 @@ class UploadService {
 
     private async uploadFile(task: UploadTask) {
         const totalChunks = Math.ceil(task.file.size / task.chunkSize);
-        let completedChunksCount = 0;
+        const chunkIndexes = task.pendingChunks ?? Array.from({ length: totalChunks }, (_, i) => i);
+        let completedChunksCount = totalChunks - chunkIndexes.length;
 
         let nextChunkIndex = 0;
 
-        const worker = async () => {
-            while (nextChunkIndex < totalChunks) {
-                if (this.uploads.get(task.uploadId)?.status === 'PAUSED') return;
+        const onRecorded = async (count: number) => {
+            const before = completedChunksCount;
+            completedChunksCount += count;
+            task.progress = Math.round((completedChunksCount / totalChunks) * 100);
 
-                const chunkIndex = nextChunkIndex++;
-                await this.processChunk(task, chunkIndex, async () => {
-                    completedChunksCount++;
-                    task.progress = Math.round((completedChunksCount / totalChunks) * 100);
+            this.uploads.set(task.uploadId, task);
+            this.notifyListeners();
 
-                    this.uploads.set(task.uploadId, task);
-                    this.notifyListeners();
+            if (Math.floor(completedChunksCount / 3) > Math.floor(before / 3) || completedChunksCount === totalChunks) {
+                await updateUpload({ ...task, createdAt: Date.now() });
+            }
+        };
 
-                    if (completedChunksCount % 3 === 0 || completedChunksCount === totalChunks) {
-                        await updateUpload({ ...task, createdAt: Date.now() });
-                    }
-                });
+        // Sent chunks wait here and are reported together, one request per batch rather than per chunk
+        const unreported: SentChunk[] = [];
+        let reportTimer: ReturnType<typeof setTimeout> | undefined;
+        let reporting: Promise<void> = Promise.resolve();
+        let reportError: unknown;
+        const report = () => {
+            clearTimeout(reportTimer);
+            reportTimer = undefined;
+            const batch = unreported.splice(0);
+            if (batch.length > 0) {
+                // One batch at a time; a failed one stops the upload, it is resumed from the server's view
+                reporting = reporting
+                    .then(() => this.completeChunks(task.uploadId, batch))
+                    .then(() => onRecorded(batch.length))
+                    .catch(e => { reportError ??= e; });
+            }
+            return reporting;
+        };
+
+        const worker = async () => {
+            while (nextChunkIndex < chunkIndexes.length && reportError === undefined) {
+                if (this.uploads.get(task.uploadId)?.status === 'PAUSED') return;
+
+                const sent = await this.processChunk(task, chunkIndexes[nextChunkIndex++]);
+                if (sent.recorded) {
+                    await onRecorded(1);
+                    continue;
+                }
+                unreported.push(sent);
+                if (unreported.length >= this.CHUNK_REPORT_BATCH_SIZE) {
+                    report();
+                } else {
+                    reportTimer ??= setTimeout(report, this.CHUNK_REPORT_DELAY_MS);
+                }
             }
         };
 
-        const workers = new Array(Math.min(this.MAX_CONCURRENT_CHUNKS, totalChunks))
+        const workers = new Array(Math.min(this.MAX_CONCURRENT_CHUNKS, chunkIndexes.length))
             .fill(null)
             .map(() => worker());
 
-        await Promise.all(workers);
+        try {
+            await Promise.all(workers);
+        } finally {
+            // Chunks already sent are reported even when the upload stops, so a resume skips them
+            await report();
+        }
+        if (reportError !== undefined) throw reportError;
 
         if (this.uploads.get(task.uploadId)?.status !== 'PAUSED' && completedChunksCount === totalChunks) {
             await this.completeUpload(task.uploadId);
         }
     }
 
-    private async processChunk(task: UploadTask, chunkIndex: number, onComplete: () => Promise<void>) {
+    private async processChunk(task: UploadTask, chunkIndex: number): Promise<SentChunk> {
         const start = chunkIndex * task.chunkSize;
         const end = Math.min(start + task.chunkSize, task.file.size);
         const chunk = task.file.slice(start, end);
 
-        const storageId = await this.uploadChunk(task.uploadId, chunkIndex, chunk);
-        await this.completeChunk(task.uploadId, chunkIndex, storageId);
-
-        await onComplete();
+        return this.uploadChunk(task, chunkIndex, chunk);
     }
 
-    async completeChunk(uploadId: string, chunkIndex: number, storageId: string) {
+    private async completeChunks(uploadId: string, chunks: SentChunk[]) {
         const token = Cookies.get('token');
-        const res = await fetch(`${API_BASE_URL}/upload/chunk/${uploadId}/${chunkIndex}/complete`, {
+        const res = await fetch(`${API_BASE_URL}/upload/${uploadId}/chunks/complete`, {
             method: 'POST',
             headers: {
                 'Authorization': token ? `Bearer ${token}` : '',
-                'Content-Type': 'application/json' // Binary stream
+                'Content-Type': 'application/json'
             },
-            body: JSON.stringify({
-                storageId,
-                chunkIndex
-            })
+            body: JSON.stringify(chunks.map(({ chunkIndex, storageId }) => ({ chunkIndex, storageId })))
         });
-        if (!res.ok) throw new Error(`Failed chunk ${chunkIndex}`);
+        if (!res.ok) throw new Error(`Failed to record chunks ${chunks.map(c => c.chunkIndex).join(', ')}`);
         return res.json();
     }
 
 
-    private async uploadChunk(uploadId: string, index: number, chunk: Blob) {
+    private async uploadChunk(task: UploadTask, index: number, chunk: Blob): Promise<SentChunk> {
+        const uploadId = task.uploadId;
         const token = Cookies.get('token');
-        const res = await fetch(`${API_BASE_URL}/upload/chunk/${uploadId}/${index}`, {
-            method: 'POST',
+        if (task.chunkUploadMethod === 'POST') {
+            // Local storage takes chunks on the API itself, no URL to look up
+            return this.sendChunk(`${API_BASE_URL}/upload/chunk/${uploadId}/${index}`, 'POST', index, chunk);
+        }
+
+        // Presigned storage, or an upload started before the method was reported
+        const target = await fetch(`${API_BASE_URL}/upload/${uploadId}/chunk/${index}/url`, {
+            headers: {
+                'Authorization': token ? `Bearer ${token}` : ''
+            }
+        });
+        if (!target.ok) throw new Error(`Failed chunk ${index}`);
+        const { url, method } = await target.json();
+
+        if (method === 'PUT') {
+            // Presigned object storage URL, the signature is the credential
+            const res = await fetch(url, { method: 'PUT', body: chunk });
+            if (!res.ok) throw new Error(`Failed chunk ${index}`);
+            return { chunkIndex: index, storageId: String(index), recorded: false };
+        }
+        return this.sendChunk(url, method, index, chunk);
+    }
+
+    private async sendChunk(url: string, method: string, index: number, chunk: Blob): Promise<SentChunk> {
+        const token = Cookies.get('token');
+        const res = await fetch(url, {
+            method,
             headers: {
                 'Authorization': token ? `Bearer ${token}` : '',
                 'Content-Type': 'application/octet-stream' // Binary stream
@@ -270,7 +372,7 @@ class UploadService {
         });
         if (!res.ok) throw new Error(`Failed chunk ${index}`);
         const data = await res.json();
-        return data.storageId;
+        return { chunkIndex: index, storageId: data.storageId, recorded: data.recorded === true };
     }
 
 
@@ -284,6 +386,37 @@ class UploadService {
             }
         });
         if (!res.ok) throw new Error("Failed to complete upload");
+        if (res.status === 202) {
+            // The merge runs in the background, the upload is only done once it reports COMPLETED
+            await this.waitForCompletion(uploadId);
+        }
+    }
+
+    private async waitForCompletion(uploadId: string) {
+        let delay = this.COMPLETION_POLL_INITIAL_MS;
+        for (;;) {
+            await new Promise(resolve => setTimeout(resolve, delay));
+            if (!this.uploads.has(uploadId)) return; // Cancelled meanwhile
+
+            const status = await this.getUploadStatus(uploadId);
+            if (status.status === 'COMPLETED') return;
+            if (status.status !== 'COMPLETING') {
+                // A failed merge puts the upload back to UPLOADING with the reason
+                throw new Error(status.error || "Failed to complete upload");
+            }
+            delay = Math.min(delay * 2, this.COMPLETION_POLL_MAX_MS);
+        }
+    }
+
+    private async getUploadStatus(uploadId: string): Promise<UploadStatus> {
+        const token = Cookies.get('token');
+        const res = await fetch(`${API_BASE_URL}/upload/${uploadId}/status`, {
+            headers: {
+                'Authorization': token ? `Bearer ${token}` : ''
+            }
+        });
+        if (!res.ok) throw new Error("Failed to get upload status");
+        return res.json();
     }
 
     public get upload() {